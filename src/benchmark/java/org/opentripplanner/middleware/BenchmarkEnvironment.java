@@ -0,0 +1,26 @@
+package org.opentripplanner.middleware;
+
+import org.opentripplanner.middleware.utils.ConfigUtils;
+import org.opentripplanner.middleware.utils.TemplateUtils;
+
+import java.io.IOException;
+
+/**
+ * Loads the test configuration for benchmarks, without starting the server or connecting to the database. Benchmarks
+ * must only exercise code that does not need either.
+ */
+public class BenchmarkEnvironment {
+    private static final String TEST_ENV = "configurations/test/env.yml";
+
+    private static boolean initialized = false;
+
+    /**
+     * Load the test configuration and initialize the template engine, once per benchmark JVM.
+     */
+    public static synchronized void initialize() throws IOException {
+        if (initialized) return;
+        ConfigUtils.loadConfig(new String[]{TEST_ENV});
+        TemplateUtils.initialize();
+        initialized = true;
+    }
+}
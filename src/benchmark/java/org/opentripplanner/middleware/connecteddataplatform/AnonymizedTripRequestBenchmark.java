@@ -0,0 +1,82 @@
+package org.opentripplanner.middleware.connecteddataplatform;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.BenchmarkEnvironment;
+import org.opentripplanner.middleware.models.TripRequest;
+import org.opentripplanner.middleware.models.TripSummary;
+import org.opentripplanner.middleware.otp.response.OtpResponse;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures anonymizing a batch of trip requests and trip summaries for the connected data platform export. Every trip
+ * summary of the batch holds the itineraries of the default OTP plan response fixture.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnonymizedTripRequestBenchmark {
+    private static final String BATCH_ID = "783726";
+    private static final String MODES = "WALK,BUS,RAIL,TRAM";
+
+    /** Number of trip summaries in the batch (one per mode combination queried by the UI). */
+    @Param({"1", "6"})
+    public int tripSummaryCount;
+
+    private TripRequest tripRequest;
+    private List<TripSummary> tripSummaries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.initialize();
+        HashMap<String, String> requestParameters = new HashMap<>();
+        requestParameters.put("date", "2020-05-05");
+        requestParameters.put("time", "12:04");
+        requestParameters.put("arriveBy", "false");
+        requestParameters.put("mode", MODES);
+        requestParameters.put("maxWalkDistance", "1207");
+        requestParameters.put("optimize", "QUICK");
+        tripRequest = new TripRequest(
+            "benchmark-user",
+            BATCH_ID,
+            "28 Peachtree St NE, Atlanta, GA 30303 :: 33.75508,-84.38813",
+            "Georgia Tech, Atlanta, GA, USA :: 33.77562,-84.39632",
+            requestParameters
+        );
+        tripSummaries = new ArrayList<>();
+        for (int i = 0; i < tripSummaryCount; i++) {
+            OtpResponse response = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse();
+            tripSummaries.add(new TripSummary(response.plan, response.error, "trip-request-" + i, BATCH_ID));
+        }
+    }
+
+    @Benchmark
+    public AnonymizedTripRequest anonymize() {
+        return new AnonymizedTripRequest(tripRequest, MODES, tripSummaries);
+    }
+
+    /** Anonymize and serialize, as done for each batch written to the trip data file. */
+    @Benchmark
+    public String anonymizeAndSerialize() {
+        return JsonUtils.toJson(new AnonymizedTripRequest(tripRequest, MODES, tripSummaries));
+    }
+}
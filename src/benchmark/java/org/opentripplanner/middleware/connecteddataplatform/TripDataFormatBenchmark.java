@@ -0,0 +1,166 @@
+package org.opentripplanner.middleware.connecteddataplatform;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.BenchmarkEnvironment;
+import org.opentripplanner.middleware.models.TripRequest;
+import org.opentripplanner.middleware.models.TripSummary;
+import org.opentripplanner.middleware.otp.response.OtpResponse;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures writing and scanning an hour of trip data in each {@link TripDataFormat}. The sizes of the zip file and of
+ * its uncompressed contents are reported for each format as secondary results (see {@link FileSizes}), so that the size
+ * reduction can be compared along with the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TripDataFormatBenchmark {
+    private static final LocalDateTime HOUR = LocalDateTime.of(2021, 9, 22, 15, 0);
+    private static final String[] MODES = {
+        "WALK,BUS",
+        "WALK,RAIL",
+        "WALK,BUS,RAIL,TRAM",
+        "BICYCLE",
+        "CAR,WALK,TRANSIT"
+    };
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Param({"JSON", "NDJSON"})
+    public TripDataFormat format;
+
+    /** Number of trip requests in the hour, each with the itineraries of the plan response fixture. */
+    @Param({"500"})
+    public int tripRequestCount;
+
+    private List<AnonymizedTripRequest> tripRequests;
+    private byte[] zipFile;
+    private long uncompressedBytes;
+
+    /**
+     * The sizes of the trip data files, reported by JMH along with the time taken by each benchmark.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class FileSizes {
+        /** Size of the zip file, in bytes. */
+        public long zipFileBytes;
+        /** Size of the contents of the zip file once decompressed, in bytes. */
+        public long uncompressedBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.initialize();
+        tripRequests = new ArrayList<>(tripRequestCount);
+        for (int i = 0; i < tripRequestCount; i++) {
+            tripRequests.add(createTripRequest(i));
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        write(output);
+        zipFile = output.toByteArray();
+        uncompressedBytes = scanZipFile();
+    }
+
+    /** Write an hour of trip data to a zip file, discarding the output. */
+    @Benchmark
+    public long writeZipFile(FileSizes sizes) throws IOException {
+        CountingOutputStream output = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        write(output);
+        sizes.zipFileBytes = output.getByteCount();
+        sizes.uncompressedBytes = uncompressedBytes;
+        return output.getByteCount();
+    }
+
+    /** Read all the files of the zip file as a consumer would (see {@link #scanZipFile}). */
+    @Benchmark
+    public long scan(FileSizes sizes) throws IOException {
+        sizes.zipFileBytes = zipFile.length;
+        sizes.uncompressedBytes = scanZipFile();
+        return sizes.uncompressedBytes;
+    }
+
+    /**
+     * Read all the files of the zip file as a consumer would, by decompressing them and parsing every JSON token.
+     *
+     * @return the number of bytes read, after decompression.
+     */
+    private long scanZipFile() throws IOException {
+        long uncompressedBytes = 0;
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipFile))) {
+            while (zipInputStream.getNextEntry() != null) {
+                // Parse the entry until its end, one root value (the whole array, or a line) after another.
+                JsonParser parser = JSON_FACTORY.createParser(zipInputStream);
+                parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+                while (parser.nextToken() != null) {
+                    // Only the parsing is measured.
+                }
+                uncompressedBytes += parser.getCurrentLocation().getByteOffset();
+                parser.close();
+            }
+        }
+        return uncompressedBytes;
+    }
+
+    private void write(OutputStream output) throws IOException {
+        try (TripDataWriter writer = format.createWriter(new ZipOutputStream(output), HOUR)) {
+            for (AnonymizedTripRequest tripRequest : tripRequests) {
+                writer.write(tripRequest);
+            }
+        }
+    }
+
+    /**
+     * Create an anonymized trip request from the plan response fixture, varying its modes and places.
+     */
+    private static AnonymizedTripRequest createTripRequest(int index) throws Exception {
+        OtpResponse response = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse();
+        HashMap<String, String> requestParameters = new HashMap<>();
+        requestParameters.put("date", "2021-09-22");
+        requestParameters.put("time", "15:54");
+        requestParameters.put("arriveBy", index % 2 == 0 ? "false" : "true");
+        requestParameters.put("maxWalkDistance", "1207");
+        requestParameters.put("optimize", "QUICK");
+        String batchId = Integer.toString(index);
+        TripRequest tripRequest = new TripRequest(
+            "benchmark-user",
+            batchId,
+            String.format("Place %d :: 33.%05d,-84.38813", index, index % 100),
+            String.format("Place %d :: 33.77562,-84.%05d", index, index % 100),
+            requestParameters
+        );
+        TripSummary tripSummary = new TripSummary(response.plan, response.error, batchId, batchId);
+        return new AnonymizedTripRequest(tripRequest, MODES[index % MODES.length], List.of(tripSummary));
+    }
+}
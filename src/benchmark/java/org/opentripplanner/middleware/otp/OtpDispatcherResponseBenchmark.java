@@ -0,0 +1,57 @@
+package org.opentripplanner.middleware.otp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.BenchmarkEnvironment;
+import org.opentripplanner.middleware.otp.response.OtpResponse;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing the JSON body of OTP plan responses, done for each OTP response checked by the trip monitor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OtpDispatcherResponseBenchmark {
+    private OtpDispatcherResponse planResponse;
+    private OtpDispatcherResponse planErrorResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.initialize();
+        planResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE;
+        planErrorResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_ERROR_RESPONSE;
+    }
+
+    /** Parse a response with itineraries. A clone is parsed, as responses only parse their body once. */
+    @Benchmark
+    public OtpResponse parsePlanResponse() throws Exception {
+        return planResponse.clone().getResponse();
+    }
+
+    /** Parse a response without itineraries. */
+    @Benchmark
+    public OtpResponse parsePlanErrorResponse() throws Exception {
+        return planErrorResponse.clone().getResponse();
+    }
+
+    /** Get the response that was already parsed, e.g. by another check for the same response. */
+    @Benchmark
+    public OtpResponse getParsedPlanResponse() throws Exception {
+        return planResponse.getResponse();
+    }
+}
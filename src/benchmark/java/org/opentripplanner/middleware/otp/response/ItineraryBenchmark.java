@@ -0,0 +1,60 @@
+package org.opentripplanner.middleware.otp.response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.BenchmarkEnvironment;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures copying and shifting itineraries, done by the trip monitor when moving a trip's itinerary to the day checked.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItineraryBenchmark {
+    private static final long ONE_DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private Itinerary itinerary;
+    private long offsetMillis = ONE_DAY_MILLIS;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.initialize();
+        itinerary = OtpTestUtils.createDefaultItinerary();
+    }
+
+    @Benchmark
+    public Itinerary cloneItinerary() throws Exception {
+        return itinerary.clone();
+    }
+
+    /** Shift the itinerary back and forth by a day, so that its times stay in the same range. */
+    @Benchmark
+    public Itinerary offsetTimes() {
+        itinerary.offsetTimes(offsetMillis);
+        offsetMillis = -offsetMillis;
+        return itinerary;
+    }
+
+    /** Clone the itinerary and shift the copy, as done when the reference itinerary must not change. */
+    @Benchmark
+    public Itinerary cloneAndOffsetTimes() throws Exception {
+        Itinerary cloned = itinerary.clone();
+        cloned.offsetTimes(ONE_DAY_MILLIS);
+        return cloned;
+    }
+}
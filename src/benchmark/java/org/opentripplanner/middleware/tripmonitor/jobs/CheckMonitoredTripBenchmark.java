@@ -0,0 +1,91 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.BenchmarkEnvironment;
+import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.models.OtpUser;
+import org.opentripplanner.middleware.models.TripMonitorNotification;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.otp.response.LocalizedAlert;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures comparing the alerts of the matching itinerary of a monitored trip with those of the previous check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CheckMonitoredTripBenchmark {
+    private static final int ALERT_COUNT = 10;
+
+    private CheckMonitoredTrip unchangedAlertsCheck;
+    private CheckMonitoredTrip changedAlertsCheck;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.initialize();
+        // The user is provided, so that the checks do not look it up in the database.
+        OtpUser otpUser = new OtpUser();
+        otpUser.preferredLocale = "en-US";
+
+        unchangedAlertsCheck = makeCheck(otpUser, makeAlerts("Alert"), makeAlerts("Alert"));
+        changedAlertsCheck = makeCheck(otpUser, makeAlerts("Previous alert"), makeAlerts("New alert"));
+    }
+
+    /** Check a trip whose alerts have not changed, the most common case. */
+    @Benchmark
+    public TripMonitorNotification checkUnchangedAlerts() {
+        return unchangedAlertsCheck.checkTripForNewAlerts();
+    }
+
+    /** Check a trip whose alerts have all changed, which produces a notification. */
+    @Benchmark
+    public TripMonitorNotification checkChangedAlerts() {
+        return changedAlertsCheck.checkTripForNewAlerts();
+    }
+
+    private static CheckMonitoredTrip makeCheck(
+        OtpUser otpUser,
+        List<LocalizedAlert> previousAlerts,
+        List<LocalizedAlert> currentAlerts
+    ) throws Exception {
+        MonitoredTrip trip = new MonitoredTrip();
+        trip.itinerary = OtpTestUtils.createDefaultItinerary();
+        trip.journeyState.matchingItinerary = makeItineraryWithAlerts(previousAlerts);
+        CheckMonitoredTrip check = new CheckMonitoredTrip(trip, otpUser);
+        check.matchingItinerary = makeItineraryWithAlerts(currentAlerts);
+        return check;
+    }
+
+    private static Itinerary makeItineraryWithAlerts(List<LocalizedAlert> alerts) throws Exception {
+        Itinerary itinerary = OtpTestUtils.createDefaultItinerary();
+        // The second leg of the default itinerary is a transit leg.
+        itinerary.legs.get(1).alerts = alerts;
+        return itinerary;
+    }
+
+    private static List<LocalizedAlert> makeAlerts(String header) {
+        List<LocalizedAlert> alerts = new ArrayList<>();
+        for (int i = 0; i < ALERT_COUNT; i++) {
+            alerts.add(new LocalizedAlert(header + " " + i, "Description of " + header.toLowerCase() + " " + i));
+        }
+        return alerts;
+    }
+}
@@ -0,0 +1,136 @@
+package org.opentripplanner.middleware.triptracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.middleware.otp.response.EncodedPolyline;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.otp.response.Leg;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the geometry of a long itinerary, and checking tracked locations against it, which is done for
+ * every location update of a tracked journey.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItineraryGeometryBenchmark {
+    private static final long START_TIME = 1_600_000_000_000L;
+    private static final int LOCATION_COUNT = 1024;
+
+    /** The total number of points in the geometry of the itinerary. */
+    @Param({"10000"})
+    public int pointCount;
+
+    /** The number of legs the points are spread across. */
+    @Param({"1", "10"})
+    public int legCount;
+
+    private Itinerary itinerary;
+    private ItineraryGeometry geometry;
+    private TrackingLocation[] nearLocations;
+    private TrackingLocation[] farLocations;
+    private int locationIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        double[] lats = new double[pointCount];
+        double[] lons = new double[pointCount];
+        lats[0] = 33.75;
+        lons[0] = -84.39;
+        for (int i = 1; i < pointCount; i++) {
+            // Steps of a few meters, as in the geometry of a street network path.
+            lats[i] = lats[i - 1] + (random.nextDouble() - 0.3) * 0.0001;
+            lons[i] = lons[i - 1] + (random.nextDouble() - 0.3) * 0.0001;
+        }
+        itinerary = makeItinerary(lats, lons);
+        geometry = ItineraryGeometry.fromItinerary(itinerary);
+
+        nearLocations = new TrackingLocation[LOCATION_COUNT];
+        farLocations = new TrackingLocation[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            int point = random.nextInt(pointCount);
+            Date time = new Date(START_TIME + (long) point * 1000);
+            nearLocations[i] = new TrackingLocation(
+                0,
+                lats[point] + (random.nextDouble() - 0.5) * 0.0004,
+                lons[point] + (random.nextDouble() - 0.5) * 0.0004,
+                0,
+                time
+            );
+            farLocations[i] = new TrackingLocation(0, lats[point] + 0.01, lons[point] - 0.01, 0, time);
+        }
+    }
+
+    /** Decode and index the geometry of the itinerary, done once per tracked journey. */
+    @Benchmark
+    public ItineraryGeometry buildGeometry() {
+        return ItineraryGeometry.fromItinerary(itinerary);
+    }
+
+    /** Check a location close to the path. */
+    @Benchmark
+    public TripStatus checkLocationNearPath() {
+        return ManageTripTracking.getTripStatus(geometry, nextLocation(nearLocations));
+    }
+
+    /** Check a location far from the path, the case of a traveler who has deviated. */
+    @Benchmark
+    public TripStatus checkLocationAwayFromPath() {
+        return ManageTripTracking.getTripStatus(geometry, nextLocation(farLocations));
+    }
+
+    private TrackingLocation nextLocation(TrackingLocation[] locations) {
+        locationIndex = (locationIndex + 1) & (LOCATION_COUNT - 1);
+        return locations[locationIndex];
+    }
+
+    /**
+     * Create an itinerary with the given points spread evenly across its legs, with one second between points.
+     */
+    private Itinerary makeItinerary(double[] lats, double[] lons) {
+        List<Leg> legs = new ArrayList<>();
+        int pointsPerLeg = (int) Math.ceil((double) pointCount / legCount);
+        for (int start = 0; start < pointCount; start += pointsPerLeg) {
+            // Consecutive legs share their end and start points.
+            int from = Math.max(0, start - 1);
+            int to = Math.min(pointCount, start + pointsPerLeg);
+            double[] legLats = new double[to - from];
+            double[] legLons = new double[to - from];
+            System.arraycopy(lats, from, legLats, 0, to - from);
+            System.arraycopy(lons, from, legLons, 0, to - from);
+            Leg leg = new Leg();
+            leg.startTime = new Date(START_TIME + (long) from * 1000);
+            leg.endTime = new Date(START_TIME + (long) (to - 1) * 1000);
+            leg.legGeometry = new EncodedPolyline();
+            leg.legGeometry.points = OtpTestUtils.encodePolyline(legLats, legLons);
+            leg.legGeometry.length = to - from;
+            legs.add(leg);
+        }
+        Itinerary itinerary = new Itinerary();
+        itinerary.startTime = legs.get(0).startTime;
+        itinerary.endTime = legs.get(legs.size() - 1).endTime;
+        itinerary.legs = legs;
+        return itinerary;
+    }
+}
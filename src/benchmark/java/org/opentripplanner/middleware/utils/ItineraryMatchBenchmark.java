@@ -0,0 +1,70 @@
+package org.opentripplanner.middleware.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.middleware.BenchmarkEnvironment;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares matching a reference itinerary against the itineraries of an OTP response with the full comparison of
+ * {@link ItineraryUtils#itinerariesMatch(Itinerary, Itinerary)} and with a precomputed {@link ItineraryFingerprint}, as
+ * done for each monitored trip check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItineraryMatchBenchmark {
+    private Itinerary referenceItinerary;
+    private ItineraryFingerprint referenceFingerprint;
+    /** The itineraries of the mock plan response, only the first of which matches the reference itinerary. */
+    private List<Itinerary> candidates;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.initialize();
+        candidates = new ArrayList<>(OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse().plan.itineraries);
+        referenceItinerary = candidates.get(0).clone();
+        referenceFingerprint = new ItineraryFingerprint(referenceItinerary);
+    }
+
+    @Benchmark
+    public void matchWithFullComparison(Blackhole blackhole) {
+        for (Itinerary candidate : candidates) {
+            blackhole.consume(ItineraryUtils.itinerariesMatch(referenceItinerary, candidate));
+        }
+    }
+
+    @Benchmark
+    public void matchWithFingerprint(Blackhole blackhole) {
+        for (Itinerary candidate : candidates) {
+            blackhole.consume(ItineraryUtils.itinerariesMatch(referenceFingerprint, referenceItinerary, candidate));
+        }
+    }
+
+    /** Includes computing the fingerprint, as done once per monitored trip check. */
+    @Benchmark
+    public void matchWithNewFingerprint(Blackhole blackhole) {
+        ItineraryFingerprint fingerprint = new ItineraryFingerprint(referenceItinerary);
+        for (Itinerary candidate : candidates) {
+            blackhole.consume(ItineraryUtils.itinerariesMatch(fingerprint, referenceItinerary, candidate));
+        }
+    }
+}
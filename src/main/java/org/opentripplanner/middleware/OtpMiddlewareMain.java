@@ -19,6 +19,8 @@ import org.opentripplanner.middleware.controllers.api.OtpUserController;
 import org.opentripplanner.middleware.controllers.api.TrackedTripController;
 import org.opentripplanner.middleware.controllers.api.TripHistoryController;
 import org.opentripplanner.middleware.docs.PublicApiDocGenerator;
+import org.opentripplanner.middleware.metrics.ApplicationMetrics;
+import org.opentripplanner.middleware.metrics.Metrics;
 import org.opentripplanner.middleware.models.MonitoredComponent;
 import org.opentripplanner.middleware.otp.OtpVersion;
 import org.opentripplanner.middleware.persistence.Persistence;
@@ -162,6 +164,15 @@ public class OtpMiddlewareMain {
             return "";
         });
 
+        // Application metrics in the Prometheus text format, to be scraped by a monitoring system.
+        if (!"false".equals(ConfigUtils.getConfigPropertyAsText("METRICS_ENABLED", "true"))) {
+            ApplicationMetrics.initialize();
+            spark.get("/metrics", (request, response) -> {
+                response.type(Metrics.CONTENT_TYPE);
+                return Metrics.scrape();
+            });
+        }
+
         // Generic response for all OPTIONS requests on all endpoint paths.
         spark.options("/*",
             (request, response) -> {
@@ -1,16 +1,17 @@
 package org.opentripplanner.middleware.auth;
 
-import com.auth0.jwk.Jwk;
 import com.auth0.jwk.JwkException;
-import com.auth0.jwk.JwkProvider;
-import com.auth0.jwk.UrlJwkProvider;
+import com.auth0.jwk.RateLimitReachedException;
+import com.auth0.jwk.SigningKeyNotFoundException;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTVerifier;
-import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTDecodeException;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.eclipse.jetty.http.HttpStatus;
+import org.opentripplanner.middleware.metrics.Metrics;
+import org.opentripplanner.middleware.metrics.Timer;
 import org.opentripplanner.middleware.models.AbstractUser;
 import org.opentripplanner.middleware.models.ApiUser;
 import org.opentripplanner.middleware.models.OtpUser;
@@ -22,8 +23,6 @@ import spark.HaltException;
 import spark.Request;
 import spark.Response;
 
-import java.security.interfaces.RSAPublicKey;
-
 import static org.opentripplanner.middleware.controllers.api.AbstractUserController.TOKEN_PATH;
 import static org.opentripplanner.middleware.controllers.api.AbstractUserController.VERIFICATION_EMAIL_PATH;
 import static org.opentripplanner.middleware.controllers.api.ApiUserController.API_USER_PATH;
@@ -38,7 +37,10 @@ import static org.opentripplanner.middleware.utils.JsonUtils.logMessageAndHalt;
  */
 public class Auth0Connection {
     private static final Logger LOG = LoggerFactory.getLogger(Auth0Connection.class);
-    private static JWTVerifier verifier;
+    private static final Timer TOKEN_VERIFICATION_TIMER = Metrics.timer(
+        Metrics.PREFIX + "token_verification_seconds",
+        "Duration of the verification of auth tokens (including getting the verifier for each token)."
+    );
     /**
      * Whether authentication is disabled for the HTTP endpoints. This defaults to the value in the config file, but can
      * be overridden (e.g., in tests) with {@link #setAuthDisabled(boolean)}.
@@ -62,14 +64,16 @@ public class Auth0Connection {
         }
         // Admin and OTP users authenticated by Bearer token
         String token = getTokenFromRequest(req);
+        long verificationStartNanos = System.nanoTime();
         // Handle getting the verifier outside of the below verification try/catch, which is intended to catch issues
         // with the client request. (getVerifier has its own exception/halt handling).
-        verifier = getVerifier(req, token);
+        JWTVerifier verifier = getVerifier(req, token);
         // Validate the JWT and cast into the user profile, which will be attached as an attribute on the request object
         // for downstream controllers to check permissions.
         try {
             DecodedJWT jwt = verifier.verify(token);
-            RequestingUser profile = new RequestingUser(jwt);
+            TOKEN_VERIFICATION_TIMER.record(System.nanoTime() - verificationStartNanos);
+            RequestingUser profile = RequestingUserCache.get(jwt);
             if (!isValidUser(profile)) {
                 if (expectsMissingProfile(req, profile)) {
                     // If creating, emailing, or deleting self, no user account is required (it does not exist yet!).
@@ -184,33 +188,30 @@ public class Auth0Connection {
     }
 
     /**
-     * Get the reusable verifier constructing a new instance if it has not been instantiated yet. Note: this only
+     * Get the shared verifier for the key that signed the token, see {@link JwtVerifierCache}. Note: this only
      * supports the RSA256 algorithm.
      */
     private static JWTVerifier getVerifier(Request req, String token) {
-        if (verifier == null) {
-            try {
-                final String domain = "https://" + getConfigPropertyAsText("AUTH0_DOMAIN") + "/";
-                JwkProvider provider = new UrlJwkProvider(domain);
-                // Decode the token.
-                DecodedJWT jwt = JWT.decode(token);
-                // Get public key from provider.
-                Jwk jwk = provider.get(jwt.getKeyId());
-                RSAPublicKey publicKey = (RSAPublicKey) jwk.getPublicKey();
-                // Use RS256 algorithm to verify token (uses public key/.pem file).
-                Algorithm algorithm = Algorithm.RSA256(publicKey, null);
-                verifier = JWT.require(algorithm)
-                    .withIssuer(domain)
-                    // Account for issues with server time drift.
-                    // See https://github.com/auth0/java-jwt/issues/268
-                    .acceptLeeway(3)
-                    .build();
-            } catch (IllegalStateException | NullPointerException | JwkException e) {
-                LOG.error("Auth0 verifier configured incorrectly.");
-                logMessageAndHalt(req, 500, "Server authentication configured incorrectly.", e);
-            }
+        try {
+            // Decode the token to find which key signed it.
+            String keyId = JWT.decode(token).getKeyId();
+            return JwtVerifierCache.getInstance().getVerifier(keyId);
+        } catch (JWTDecodeException | SigningKeyNotFoundException e) {
+            // The token is malformed or was not signed by one of our authorization provider's keys.
+            logMessageAndHalt(req, 401, "Login failed to verify with our authorization provider.", e);
+        } catch (RateLimitReachedException e) {
+            // Too many tokens signed with unknown keys were received recently, the key cannot be fetched for now.
+            logMessageAndHalt(
+                req,
+                HttpStatus.SERVICE_UNAVAILABLE_503,
+                "Login could not be verified at this time. Please try again later.",
+                e
+            );
+        } catch (IllegalStateException | NullPointerException | JwkException e) {
+            LOG.error("Auth0 verifier configured incorrectly.");
+            logMessageAndHalt(req, 500, "Server authentication configured incorrectly.", e);
         }
-        return verifier;
+        return null;
     }
 
     public static boolean getDefaultAuthDisabled() {
@@ -0,0 +1,164 @@
+package org.opentripplanner.middleware.auth;
+
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.JwkException;
+import com.auth0.jwk.JwkProvider;
+import com.auth0.jwk.JwkProviderBuilder;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.auth0.jwk.UrlJwkProvider;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.opentripplanner.middleware.utils.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsText;
+
+/**
+ * Holds one {@link JWTVerifier} per Auth0 signing key id. Verifiers are immutable and thread-safe, so they are shared
+ * by all requests, and verifying a token signed with a known key does not involve any network request.
+ *
+ * The signing keys published by Auth0 are fetched again every {@link #AUTH0_JWKS_REFRESH_MINUTES} minutes, so that
+ * verifiers for a new key are ready before tokens signed with it arrive (e.g., during a key rotation). A token signed
+ * with a key that is not known yet is handled by fetching the key on demand, through a provider that caches keys and
+ * limits the rate of requests made to Auth0. Key ids that Auth0 does not know are remembered for
+ * {@link #UNKNOWN_KEY_ID_TTL_MINUTES} minutes, so that repeating a token with a made-up key id does not use up the rate
+ * limit (new keys published in the meantime are still picked up by the periodic refresh).
+ */
+public class JwtVerifierCache {
+    private static final Logger LOG = LoggerFactory.getLogger(JwtVerifierCache.class);
+
+    private static final int AUTH0_JWKS_REFRESH_MINUTES = getConfigPropertyAsInt("AUTH0_JWKS_REFRESH_MINUTES", 60);
+    /** The maximum number of signing keys kept by the on-demand provider. */
+    private static final int MAX_CACHED_KEYS = 10;
+    /** The maximum number of on-demand key requests made to Auth0 per minute. */
+    private static final int MAX_KEY_REQUESTS_PER_MINUTE = 10;
+    /** The number of minutes during which a key id unknown to Auth0 is not fetched again. */
+    private static final int UNKNOWN_KEY_ID_TTL_MINUTES = 10;
+    /** The maximum number of unknown key ids remembered. */
+    private static final int MAX_UNKNOWN_KEY_IDS = 10000;
+
+    private final String issuer;
+    private final UrlJwkProvider urlJwkProvider;
+    private final JwkProvider cachedJwkProvider;
+    private final Map<String, JWTVerifier> verifiersByKeyId = new ConcurrentHashMap<>();
+    private final Cache<String, Boolean> unknownKeyIds = CacheBuilder.newBuilder()
+        .expireAfterWrite(UNKNOWN_KEY_ID_TTL_MINUTES, TimeUnit.MINUTES)
+        .maximumSize(MAX_UNKNOWN_KEY_IDS)
+        .build();
+
+    private static volatile JwtVerifierCache instance;
+
+    private JwtVerifierCache(String domain) {
+        this(
+            domain,
+            new JwkProviderBuilder("https://" + domain + "/")
+                .cached(MAX_CACHED_KEYS, 24, TimeUnit.HOURS)
+                .rateLimited(MAX_KEY_REQUESTS_PER_MINUTE, 1, TimeUnit.MINUTES)
+                .build()
+        );
+    }
+
+    /**
+     * Create a verifier cache fetching unknown keys from the given provider. This is used directly only in tests.
+     */
+    JwtVerifierCache(String domain, JwkProvider cachedJwkProvider) {
+        issuer = "https://" + domain + "/";
+        urlJwkProvider = new UrlJwkProvider(issuer);
+        this.cachedJwkProvider = cachedJwkProvider;
+    }
+
+    /**
+     * @return the verifier cache for the configured Auth0 domain, created (and scheduled for refreshes) on first use.
+     */
+    public static JwtVerifierCache getInstance() {
+        if (instance == null) {
+            synchronized (JwtVerifierCache.class) {
+                if (instance == null) {
+                    String domain = getConfigPropertyAsText("AUTH0_DOMAIN");
+                    if (domain == null) throw new IllegalStateException("AUTH0_DOMAIN is not configured.");
+                    JwtVerifierCache verifierCache = new JwtVerifierCache(domain);
+                    verifierCache.refreshKeys();
+                    if (AUTH0_JWKS_REFRESH_MINUTES > 0) {
+                        Scheduler.scheduleJob(
+                            verifierCache::refreshKeys,
+                            AUTH0_JWKS_REFRESH_MINUTES,
+                            AUTH0_JWKS_REFRESH_MINUTES,
+                            TimeUnit.MINUTES
+                        );
+                    }
+                    instance = verifierCache;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Get the verifier for tokens signed with the given key id, fetching the key if it is not known yet. Note: this
+     * only supports the RSA256 algorithm.
+     *
+     * @throws SigningKeyNotFoundException if the token has no key id, or Auth0 does not publish a key with this id.
+     * @throws com.auth0.jwk.RateLimitReachedException if too many unknown keys were fetched recently.
+     */
+    public JWTVerifier getVerifier(String keyId) throws JwkException {
+        if (keyId == null) throw new SigningKeyNotFoundException("The token has no key id.", null);
+        JWTVerifier verifier = verifiersByKeyId.get(keyId);
+        if (verifier == null) {
+            if (unknownKeyIds.getIfPresent(keyId) != null) {
+                throw new SigningKeyNotFoundException("No key found for key id " + keyId, null);
+            }
+            try {
+                verifier = makeVerifier(cachedJwkProvider.get(keyId));
+            } catch (SigningKeyNotFoundException e) {
+                unknownKeyIds.put(keyId, true);
+                throw e;
+            }
+            verifiersByKeyId.put(keyId, verifier);
+        }
+        return verifier;
+    }
+
+    /**
+     * Fetch the signing keys currently published by Auth0, add verifiers for new keys and drop the verifiers of keys
+     * that are no longer published. If the keys cannot be fetched, the existing verifiers are kept.
+     */
+    void refreshKeys() {
+        try {
+            List<Jwk> jwks = urlJwkProvider.getAll();
+            for (Jwk jwk : jwks) {
+                if (jwk.getId() != null && !verifiersByKeyId.containsKey(jwk.getId())) {
+                    verifiersByKeyId.put(jwk.getId(), makeVerifier(jwk));
+                    LOG.info("Added verifier for Auth0 signing key {}", jwk.getId());
+                }
+            }
+            Set<String> publishedKeyIds = jwks.stream().map(Jwk::getId).collect(Collectors.toSet());
+            verifiersByKeyId.keySet().retainAll(publishedKeyIds);
+        } catch (Exception e) {
+            LOG.warn("Could not refresh Auth0 signing keys, keeping {} known keys", verifiersByKeyId.size(), e);
+        }
+    }
+
+    private JWTVerifier makeVerifier(Jwk jwk) throws JwkException {
+        RSAPublicKey publicKey = (RSAPublicKey) jwk.getPublicKey();
+        // Use RS256 algorithm to verify token (uses public key/.pem file).
+        return JWT.require(Algorithm.RSA256(publicKey, null))
+            .withIssuer(issuer)
+            // Account for issues with server time drift.
+            // See https://github.com/auth0/java-jwt/issues/268
+            .acceptLeeway(3)
+            .build();
+    }
+}
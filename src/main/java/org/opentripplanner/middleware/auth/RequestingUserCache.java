@@ -0,0 +1,107 @@
+package org.opentripplanner.middleware.auth;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.opentripplanner.middleware.models.AbstractUser;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
+
+/**
+ * Short-lived cache of the {@link RequestingUser} resolved for each Auth0 user (token subject), so that authenticated
+ * requests do not each look up the user in the database. Entries are invalidated whenever the corresponding user is
+ * saved or deleted through this application, and otherwise expire after {@link #REQUESTING_USER_CACHE_TTL_SECONDS}.
+ * A TTL of zero disables the cache.
+ *
+ * Only requesting users with a user record are cached, so that a user who is signing up is looked up again once their
+ * record is created.
+ *
+ * A cached requesting user (and its user record) is shared by all concurrent requests from that user, so it must be
+ * treated as read-only. Code that modifies a user must fetch it from the database, save it, then invalidate its entry.
+ */
+public class RequestingUserCache {
+    private static final int REQUESTING_USER_CACHE_TTL_SECONDS =
+        getConfigPropertyAsInt("REQUESTING_USER_CACHE_TTL_SECONDS", 60);
+    private static final int REQUESTING_USER_CACHE_MAX_SIZE =
+        getConfigPropertyAsInt("REQUESTING_USER_CACHE_MAX_SIZE", 10000);
+
+    private static final Cache<String, CachedRequestingUser> cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(REQUESTING_USER_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+        .maximumSize(REQUESTING_USER_CACHE_MAX_SIZE)
+        .recordStats()
+        .build();
+
+    /**
+     * @return the cached requesting user for the subject of the given token if available and obtained for the same
+     * scope, otherwise a requesting user resolved from the database.
+     */
+    public static RequestingUser get(DecodedJWT jwt) {
+        if (REQUESTING_USER_CACHE_TTL_SECONDS <= 0) return new RequestingUser(jwt);
+        String auth0UserId = jwt.getClaim("sub").asString();
+        String scope = jwt.getClaim("scope").asString();
+        if (auth0UserId == null) return new RequestingUser(jwt);
+
+        CachedRequestingUser cached = cache.getIfPresent(auth0UserId);
+        if (cached != null && Objects.equals(cached.scope, scope)) {
+            return cached.requestingUser;
+        }
+        RequestingUser requestingUser = new RequestingUser(jwt);
+        if (hasUserRecord(requestingUser)) {
+            cache.put(auth0UserId, new CachedRequestingUser(scope, requestingUser));
+        }
+        return requestingUser;
+    }
+
+    /**
+     * Remove the cached requesting user for the given user, if any. This must be called whenever a user is saved or
+     * deleted.
+     */
+    public static void invalidate(AbstractUser user) {
+        if (user != null && user.auth0UserId != null) cache.invalidate(user.auth0UserId);
+    }
+
+    /**
+     * Remove the cached requesting user for the given Auth0 user id, if any.
+     */
+    public static void invalidate(String auth0UserId) {
+        if (auth0UserId != null) cache.invalidate(auth0UserId);
+    }
+
+    /**
+     * @return the hit/miss statistics of the cache.
+     */
+    public static CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return the number of requesting users currently cached.
+     */
+    public static long size() {
+        return cache.size();
+    }
+
+    private static boolean hasUserRecord(RequestingUser requestingUser) {
+        return requestingUser.otpUser != null ||
+            requestingUser.adminUser != null ||
+            requestingUser.apiUser != null ||
+            requestingUser.cdpUser != null;
+    }
+
+    /**
+     * A requesting user along with the scope claim it was resolved for.
+     */
+    private static class CachedRequestingUser {
+        final String scope;
+        final RequestingUser requestingUser;
+
+        CachedRequestingUser(String scope, RequestingUser requestingUser) {
+            this.scope = scope;
+            this.requestingUser = requestingUser;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package org.opentripplanner.middleware.connecteddataplatform;
 
-import com.mongodb.client.FindIterable;
 import org.opentripplanner.middleware.models.TripRequest;
 import org.opentripplanner.middleware.models.TripSummary;
 import org.opentripplanner.middleware.otp.response.Itinerary;
@@ -11,6 +10,7 @@ import org.opentripplanner.middleware.utils.Coordinates;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -62,16 +62,46 @@ public class AnonymizedTripRequest {
      */
     public PlannerError error;
 
+    /** The trip request being anonymized, until {@link #complete} is called. */
+    private transient TripRequest tripRequest;
+
+    /** Whether the first and last legs of all itineraries of the trip summaries added so far are transit legs. */
+    private transient boolean areAllFirstLegsTransit = true;
+    private transient boolean areAllLastLegsTransit = true;
+
+    /** Id of the next trip summary with itineraries, in the order the trip summaries are added. */
+    private transient int nextTripSummaryId = 1;
+
     /**
      * This no-arg constructor exists for JSON deserialization.
      */
     public AnonymizedTripRequest() {
     }
 
-    public AnonymizedTripRequest(TripRequest tripRequest, FindIterable<TripSummary> tripSummaries) {
+    /**
+     * Anonymize a trip request and the trip summaries of its batch. Each trip summary is read once, and neither the
+     * trip request nor the trip summaries are modified.
+     *
+     * @param modes the comma-separated modes to report for the trip request (e.g., all modes used across the batch).
+     */
+    public AnonymizedTripRequest(TripRequest tripRequest, String modes, List<TripSummary> tripSummaries) {
+        this(tripRequest, modes);
+        for (TripSummary tripSummary : tripSummaries) {
+            addTripSummary(tripSummary);
+        }
+        complete();
+    }
+
+    /**
+     * Start anonymizing a trip request, to which the trip summaries of its batch are then added one at a time with
+     * {@link #addTripSummary}, so that they do not need to be held in memory together. Call {@link #complete} once all
+     * trip summaries have been added.
+     *
+     * @param modes the comma-separated modes to report for the trip request (e.g., all modes used across the batch).
+     */
+    AnonymizedTripRequest(TripRequest tripRequest, String modes) {
+        this.tripRequest = tripRequest;
         this.requestId = tripRequest.batchId;
-        this.fromPlace = getPlaceCoordinates(tripSummaries, true, tripRequest.fromPlace);
-        this.toPlace = getPlaceCoordinates(tripSummaries, false, tripRequest.toPlace);
         if (tripRequest.requestParameters != null) {
             this.date = tripRequest.requestParameters.get("date");
             this.time = tripRequest.requestParameters.get("time");
@@ -81,39 +111,50 @@ public class AnonymizedTripRequest {
             } else if (isArriveBy != null && isArriveBy.equalsIgnoreCase("false")) {
                 this.timeSelection = AnonymousTripType.DEPART_AT;
             }
-            this.mode = getModes(tripRequest.requestParameters.get("mode"));
+            this.mode = getModes(modes);
             this.maxWalkDistance = tripRequest.requestParameters.get("maxWalkDistance");
             this.optimize = tripRequest.requestParameters.get("optimize");
         }
+        this.itineraries = new ArrayList<>();
+    }
 
-        // Extract all trip summary itineraries, convert to anonymized itineraries and group.
-        int tripSummaryId = 1;
-        for (TripSummary tripSummary : tripSummaries) {
-            if (tripSummary.error != null) {
-                // If trip summary has an error, add it to the anonymized trip request and don't attempt to process the
-                // trip summary itineraries, because there won't be any.
-                this.error = tripSummary.error;
-                break;
-            }
-            itineraries.addAll(getItineraries(tripSummaryId++, tripSummary));
+    /**
+     * Anonymize the itineraries of a trip summary of the batch, which is not modified or held onto. At the same time,
+     * workout whether the first and last legs of all itineraries are transit legs, in which case the coordinates of the
+     * 'from' and 'to' places can be provided.
+     */
+    void addTripSummary(TripSummary tripSummary) {
+        areAllFirstLegsTransit = areAllFirstLegsTransit && areAllFirstOrLastLegsTransit(tripSummary.itineraries, true);
+        areAllLastLegsTransit = areAllLastLegsTransit && areAllFirstOrLastLegsTransit(tripSummary.itineraries, false);
+        if (this.error != null) {
+            // Itineraries are not extracted after a trip summary with an error.
+            return;
+        }
+        if (tripSummary.error != null) {
+            // If trip summary has an error, add it to the anonymized trip request and don't attempt to process the
+            // trip summary itineraries, because there won't be any.
+            this.error = tripSummary.error;
+        } else {
+            this.itineraries.addAll(getItineraries(nextTripSummaryId++, tripSummary));
         }
     }
 
     /**
-     * Workout if the first or last leg is a transit leg. If the leg is a transit leg the coordinates provided by OTP
-     * can be used. If not they are removed. The place value is assumed to be in the format 'location::lat,lon'.
+     * Provide the coordinates of the 'from' and 'to' places, once all trip summaries of the batch have been added.
      */
-    private static Coordinates getPlaceCoordinates(
-        FindIterable<TripSummary> tripSummaries,
-        boolean isFirstLeg,
-        String place
-    ) {
-        for (TripSummary tripSummary : tripSummaries) {
-            if (!areAllFirstOrLastLegsTransit(tripSummary.itineraries, isFirstLeg)) {
-                // If any trip summary itinerary first or last leg is not public, do not provide coordinates.
-                return null;
-            }
-        }
+    AnonymizedTripRequest complete() {
+        this.itineraries = Collections.unmodifiableList(this.itineraries);
+        // If any trip summary itinerary first or last leg is not public, do not provide coordinates.
+        this.fromPlace = areAllFirstLegsTransit ? getPlaceCoordinates(tripRequest.fromPlace) : null;
+        this.toPlace = areAllLastLegsTransit ? getPlaceCoordinates(tripRequest.toPlace) : null;
+        this.tripRequest = null;
+        return this;
+    }
+
+    /**
+     * Get the coordinates of a trip request place. The place value is assumed to be in the format 'location::lat,lon'.
+     */
+    private static Coordinates getPlaceCoordinates(String place) {
         // The UI might send just the coordinates (if the geocoder does not return anything, which is unlikely).
         // If that happens, the format will just be lat,lon and :: will not be present.
         String coordinate = (place.contains("::")) ? place.split("::")[1].trim() : place;
@@ -142,9 +183,8 @@ public class AnonymizedTripRequest {
         for (Itinerary itinerary : itineraries) {
             List<Leg> legs = itinerary.legs;
             if (legs != null && !legs.isEmpty()) {
-                isTransitLeg = (isFirstLeg)
-                    ? legs.get(0).transitLeg
-                    : legs.get(itineraries.get(0).legs.size() - 1).transitLeg;
+                Leg leg = (isFirstLeg) ? legs.get(0) : legs.get(legs.size() - 1);
+                isTransitLeg = Boolean.TRUE.equals(leg.transitLeg);
                 if (!isTransitLeg) {
                     // If the leg is non transit there is no need to check the remaining itineraries.
                     break;
@@ -164,7 +204,7 @@ public class AnonymizedTripRequest {
     /**
      * Extract trip summary itineraries.
      */
-    private List<AnonymizedItinerary> getItineraries(
+    private static List<AnonymizedItinerary> getItineraries(
         int tripSummaryId,
         TripSummary tripSummary
     ) {
@@ -186,38 +226,7 @@ public class AnonymizedTripRequest {
             itin.walkDistance = itinerary.walkDistance;
             itin.walkTime = itinerary.walkTime;
             if (itinerary.legs != null) {
-                processLegCoordinates(itinerary.legs);
-                for (int i = 0; i < itinerary.legs.size(); i++) {
-                    Leg leg = itinerary.legs.get(i);
-                    AnonymizedLeg anonymizedLeg = new AnonymizedLeg();
-                    // Parameters for both transit and non transit legs.
-                    anonymizedLeg.distance = leg.distance;
-                    anonymizedLeg.duration = leg.duration;
-                    anonymizedLeg.startTime = leg.startTime;
-                    anonymizedLeg.endTime = leg.endTime;
-                    anonymizedLeg.mode = leg.mode;
-                    anonymizedLeg.transitLeg = leg.transitLeg;
-                    anonymizedLeg.fromStop = leg.from.stopId;
-                    anonymizedLeg.from = getLegCoordinates(leg.from);
-                    anonymizedLeg.toStop = leg.to.stopId;
-                    anonymizedLeg.to = getLegCoordinates(leg.to);
-                    if (Boolean.TRUE.equals(leg.transitLeg)) {
-                        // Parameters for a transit leg.
-                        anonymizedLeg.agencyId = leg.agencyId;
-                        anonymizedLeg.interlineWithPreviousLeg = leg.interlineWithPreviousLeg;
-                        anonymizedLeg.realTime = leg.realTime;
-                        anonymizedLeg.routeId = leg.routeId;
-                        anonymizedLeg.routeShortName = leg.routeShortName;
-                        anonymizedLeg.routeLongName = leg.routeLongName;
-                        anonymizedLeg.routeType = leg.routeType;
-                        anonymizedLeg.tripBlockId = leg.tripBlockId;
-                        anonymizedLeg.tripId = leg.tripId;
-                    } else {
-                        // Parameters for non transit leg.
-                        anonymizedLeg.rentedVehicle = leg.rentedVehicle;
-                    }
-                    itin.legs.add(anonymizedLeg);
-                }
+                itin.legs = Collections.unmodifiableList(getLegs(itinerary.legs));
             }
             anonymizedItineraries.add(itin);
         }
@@ -225,29 +234,56 @@ public class AnonymizedTripRequest {
     }
 
     /**
-     * Define the coordinates for all legs. If the leg is non-transit and is before the first transit leg or after
-     * the last transit leg the coordinates must be removed for privacy. Any transit legs or non-transit legs
-     * between the first and last transit legs, the coordinates can be provided.
+     * Extract itinerary legs. If a leg is non-transit and is before the first transit leg or after the last transit
+     * leg, its coordinates are not provided for privacy. For transit legs and non-transit legs between the first and
+     * last transit legs, the coordinates can be provided.
      */
-    private void processLegCoordinates(List<Leg> legs) {
+    private static List<AnonymizedLeg> getLegs(List<Leg> legs) {
         int firstTransitLegIndex = getFirstTransitLeg(legs);
         // No need to find the last transit leg if the first transit leg indicates that all legs are non-transit.
         int lastTransitLegIndex = (firstTransitLegIndex == Integer.MAX_VALUE) ? Integer.MIN_VALUE : getLastTransitLeg(legs);
-        for (int i = 0; i <= legs.size() - 1; i++) {
+        List<AnonymizedLeg> anonymizedLegs = new ArrayList<>(legs.size());
+        for (int i = 0; i < legs.size(); i++) {
             Leg leg = legs.get(i);
-            if (Boolean.TRUE.equals(!leg.transitLeg) && (i < firstTransitLegIndex || i > lastTransitLegIndex)) {
-                // The non-transit leg is before the first transit leg or after the last transit leg, remove the
-                // coordinates.
-                removeCoordinatesFromLeg(leg);
+            boolean isTransitLeg = Boolean.TRUE.equals(leg.transitLeg);
+            boolean hideCoordinates = !isTransitLeg && (i < firstTransitLegIndex || i > lastTransitLegIndex);
+            AnonymizedLeg anonymizedLeg = new AnonymizedLeg();
+            // Parameters for both transit and non transit legs.
+            anonymizedLeg.distance = leg.distance;
+            anonymizedLeg.duration = leg.duration;
+            anonymizedLeg.startTime = leg.startTime;
+            anonymizedLeg.endTime = leg.endTime;
+            anonymizedLeg.mode = leg.mode;
+            anonymizedLeg.transitLeg = leg.transitLeg;
+            anonymizedLeg.fromStop = leg.from.stopId;
+            anonymizedLeg.from = hideCoordinates ? null : getLegCoordinates(leg.from);
+            anonymizedLeg.toStop = leg.to.stopId;
+            anonymizedLeg.to = hideCoordinates ? null : getLegCoordinates(leg.to);
+            if (isTransitLeg) {
+                // Parameters for a transit leg.
+                anonymizedLeg.agencyId = leg.agencyId;
+                anonymizedLeg.interlineWithPreviousLeg = leg.interlineWithPreviousLeg;
+                anonymizedLeg.realTime = leg.realTime;
+                anonymizedLeg.routeId = leg.routeId;
+                anonymizedLeg.routeShortName = leg.routeShortName;
+                anonymizedLeg.routeLongName = leg.routeLongName;
+                anonymizedLeg.routeType = leg.routeType;
+                anonymizedLeg.tripBlockId = leg.tripBlockId;
+                anonymizedLeg.tripId = leg.tripId;
+            } else {
+                // Parameters for non transit leg.
+                anonymizedLeg.rentedVehicle = leg.rentedVehicle;
             }
+            anonymizedLegs.add(anonymizedLeg);
         }
+        return anonymizedLegs;
     }
 
     /**
      * Define the position of the first transit leg. If all legs are non-transit return {@link Integer#MAX_VALUE} to
      * represent this. This will then force the calling method to remove coordinates from all legs.
      */
-    private int getFirstTransitLeg(List<Leg> legs) {
+    private static int getFirstTransitLeg(List<Leg> legs) {
         for (int i = 0; i <= legs.size() - 1; i++) {
             if (Boolean.TRUE.equals(legs.get(i).transitLeg)) {
                 return i;
@@ -260,7 +296,7 @@ public class AnonymizedTripRequest {
      * Define the position of the last transit leg. If all legs are non-transit return {@link Integer#MIN_VALUE} to
      * represent this. This will then force the calling method to remove coordinates from all legs.
      */
-    private int getLastTransitLeg(List<Leg> legs) {
+    private static int getLastTransitLeg(List<Leg> legs) {
         for (int i = legs.size() - 1; i >= 0; i--) {
             if (Boolean.TRUE.equals(legs.get(i).transitLeg)) {
                 return i;
@@ -269,20 +305,10 @@ public class AnonymizedTripRequest {
         return Integer.MIN_VALUE;
     }
 
-    /**
-     * Remove the coordinate values from a leg.
-     */
-    private void removeCoordinatesFromLeg(Leg leg) {
-        leg.from.lat = null;
-        leg.from.lon = null;
-        leg.to.lat = null;
-        leg.to.lon = null;
-    }
-
     /**
      * Only provide the leg coordinates if both lat/lon values are available.
      */
-    private Coordinates getLegCoordinates(Place place) {
+    private static Coordinates getLegCoordinates(Place place) {
         return (place.lat != null && place.lon != null) ? new Coordinates(place.lat, place.lon) : null;
     }
 }
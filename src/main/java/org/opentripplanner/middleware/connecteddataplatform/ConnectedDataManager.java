@@ -1,39 +1,50 @@
 package org.opentripplanner.middleware.connecteddataplatform;
 
 import com.google.common.collect.Sets;
-import com.mongodb.client.DistinctIterable;
+import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UnwindOptions;
+import com.mongodb.client.model.Variable;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.util.Strings;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
 import org.opentripplanner.middleware.controllers.api.OtpRequestProcessor;
+import org.opentripplanner.middleware.models.ModelReference;
 import org.opentripplanner.middleware.models.TripHistoryUpload;
 import org.opentripplanner.middleware.models.TripRequest;
 import org.opentripplanner.middleware.models.TripSummary;
 import org.opentripplanner.middleware.persistence.Persistence;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
 import org.opentripplanner.middleware.utils.FileUtils;
-import org.opentripplanner.middleware.utils.JsonUtils;
-import org.opentripplanner.middleware.utils.S3Exception;
+import org.opentripplanner.middleware.utils.S3UploadOutputStream;
 import org.opentripplanner.middleware.utils.S3Utils;
 import org.opentripplanner.middleware.utils.Scheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipOutputStream;
 
-import static com.mongodb.client.model.Filters.eq;
 import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
 import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsText;
 import static org.opentripplanner.middleware.utils.DateTimeUtils.getStartOfCurrentHour;
@@ -48,6 +59,8 @@ public class ConnectedDataManager {
     public static final String FILE_NAME_SUFFIX = "anon-trip-data";
     public static final String ZIP_FILE_NAME_SUFFIX = FILE_NAME_SUFFIX + ".zip";
     public static final String DATA_FILE_NAME_SUFFIX = FILE_NAME_SUFFIX + ".json";
+    public static final String NDJSON_DATA_FILE_NAME_SUFFIX = FILE_NAME_SUFFIX + ".ndjson";
+    public static final String DICTIONARY_FILE_NAME_SUFFIX = FILE_NAME_SUFFIX + "-dictionary.json";
 
     private static final String CONNECTED_DATA_PLATFORM_ENABLED =
         getConfigPropertyAsText("CONNECTED_DATA_PLATFORM_ENABLED", "false");
@@ -57,12 +70,30 @@ public class ConnectedDataManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(ConnectedDataManager.class);
 
+    /** The format of the trip data uploaded. */
+    private static final TripDataFormat TRIP_DATA_FORMAT = TripDataFormat.fromName(
+        getConfigPropertyAsText("CONNECTED_DATA_PLATFORM_EXPORT_FORMAT", TripDataFormat.JSON.name())
+    );
+
     public static final String CONNECTED_DATA_PLATFORM_S3_BUCKET_NAME =
         getConfigPropertyAsText("CONNECTED_DATA_PLATFORM_S3_BUCKET_NAME");
 
     public static final String CONNECTED_DATA_PLATFORM_S3_FOLDER_NAME =
         getConfigPropertyAsText("CONNECTED_DATA_PLATFORM_S3_FOLDER_NAME");
 
+    /**
+     * Fields of the trip summaries that are not read by {@link AnonymizedTripRequest}. These hold most of the size of
+     * the stored itineraries, so they are not read from the database.
+     */
+    private static final List<String> UNUSED_TRIP_SUMMARY_FIELDS = List.of(
+        "itineraries.fare",
+        "itineraries.legs.legGeometry",
+        "itineraries.legs.intermediateStops",
+        "itineraries.legs.steps",
+        "itineraries.legs.interStopGeometry",
+        "itineraries.legs.alerts"
+    );
+
     private ConnectedDataManager() {}
 
     public static void scheduleTripHistoryUploadJob() {
@@ -89,10 +120,10 @@ public class ConnectedDataManager {
      */
     public static void removeUsersTripHistory(String userId) {
         Set<LocalDateTime> userTripHourlyWindows = new HashSet<>();
-        for (TripRequest request : TripRequest.requestsForUser(userId)) {
+        for (ModelReference request : TripRequest.referencesForUser(userId)) {
             userTripHourlyWindows.add(getStartOfHour(request.dateCreated));
             // This will delete the trip summaries as well.
-            request.delete();
+            TripRequest.deleteById(request.id);
         }
         // Get all hourly windows that have already been earmarked for uploading.
         Set<LocalDateTime> incompleteUploadHours = new HashSet<>();
@@ -115,186 +146,187 @@ public class ConnectedDataManager {
     }
 
     /**
-     * Stream trip requests to file. This approach is used to avoid having a large amount of data in memory which could
-     * cause an out-of-memory error if there are a lot of trip requests to process.
+     * Stream trip requests to a zip file, in the configured {@link TripDataFormat}. The zip file is compressed as it is
+     * written, and is only opened if there are trip requests to write. This approach is used to avoid having a large
+     * amount of data in memory (or on disk) which could cause an out-of-memory error if there are a lot of trip
+     * requests to process.
      *
      * Process:
      *
-     * 1) Extract unique batch ids for a given hour.
-     * 2) For each batch id get matching trip requests.
-     * 3) Workout which trip request uses the most modes.
-     * 4) Define lat/lon for 'from' and 'to' places, scrambling location coordinates for non-public locations.
-     * 5) Anonymize trip request with the most modes.
-     * 6) Get related trip summaries and anonymize.
-     * 7) Write anonymous trip requests to file.
+     * 1) Read the batches of trip requests made within the given hour, each with the trip summaries of the batch, in a
+     *    single query (see {@link #getTripRequestBatches}).
+     * 2) Workout which modes are used across the trip requests of each batch.
+     * 3) Define lat/lon for 'from' and 'to' places, scrambling location coordinates for non-public locations.
+     * 4) Anonymize the most recent trip request of each batch, with all modes used in the batch.
+     * 5) Anonymize the trip summaries of the batch.
+     * 6) Write anonymous trip requests to the zip file as they are read.
+     *
+     * @param openZipFile opens the output the zip file is written to, which is closed once all trip requests have been
+     *                    written.
      */
-    private static int streamAnonymousTripsToFile(
-        String pathAndFileName,
-        LocalDateTime hourToBeAnonymized
-    ) throws IOException {
-        Date startOfHour = DateTimeUtils.getStartOfHour(hourToBeAnonymized);
-        Date endOfHour = DateTimeUtils.getEndOfHour(hourToBeAnonymized);
-        final String dateCreatedFieldName = "dateCreated";
-        final String batchIdFieldName = "batchId";
-
-        // Get distinct batchId values between two dates. Only select trip requests where a batch id has been provided.
-        DistinctIterable<String> uniqueBatchIds = Persistence.tripRequests.getDistinctFieldValues(
-            batchIdFieldName,
-            Filters.and(
-                Filters.gte(dateCreatedFieldName, startOfHour),
-                Filters.lte(dateCreatedFieldName, endOfHour),
-                Filters.ne(batchIdFieldName, OtpRequestProcessor.BATCH_ID_NOT_PROVIDED)
-            ),
-            String.class
-        );
-
-        // Needed to correctly format the JSON content.
-        int numberOfUniqueBatchIds = 0;
-        for (String batchId : uniqueBatchIds) {
-            numberOfUniqueBatchIds++;
-        }
-
+    private static int streamAnonymousTripsToZip(
+        LocalDateTime hourToBeAnonymized,
+        Callable<OutputStream> openZipFile
+    ) throws Exception {
         int numTripRequestsWrittenToFile = 0;
-        if (numberOfUniqueBatchIds == 0) {
-            // No unique batch ids (and therefore no trip requests) to process.
-            return numTripRequestsWrittenToFile;
-        }
-
-        int pos = 0;
-        FileUtils.writeToFile(pathAndFileName, false, "[");
-        for (String uniqueBatchId : uniqueBatchIds) {
-            pos++;
-            // Anonymize trip request.
-            AnonymizedTripRequest anonymizedTripRequest = getAnonymizedTripRequest(uniqueBatchId, startOfHour, endOfHour);
-            if (anonymizedTripRequest != null) {
-                // Append content to file.
-                FileUtils.writeToFile(pathAndFileName, true, JsonUtils.toJson(anonymizedTripRequest));
-                if (pos < numberOfUniqueBatchIds) {
-                    // Add a comma to separate each trip request. This is not required for the last trip request to
-                    // prevent JSON formatting errors.
-                    FileUtils.writeToFile(pathAndFileName, true, ",");
+        // If writing fails, the output is left open: closing it would finish the zip file and complete the upload of
+        // what was written so far. The caller discards it instead.
+        TripDataWriter writer = null;
+        // The trip summaries of a batch are read one at a time, and added to the anonymized trip request of the batch
+        // which is written once the summaries of the next batch (or no more summaries) are read.
+        String batchId = null;
+        AnonymizedTripRequest anonymizedTripRequest = null;
+        for (TripRequestBatch batch : getTripRequestBatches(hourToBeAnonymized)) {
+            if (!batch.id.equals(batchId)) {
+                if (anonymizedTripRequest != null) {
+                    writer.write(anonymizedTripRequest.complete());
+                    numTripRequestsWrittenToFile++;
+                }
+                if (writer == null) {
+                    ZipOutputStream zipOutputStream = new ZipOutputStream(
+                        new BufferedOutputStream(openZipFile.call(), TripDataFormat.WRITER_BUFFER_SIZE_BYTES)
+                    );
+                    writer = TRIP_DATA_FORMAT.createWriter(zipOutputStream, hourToBeAnonymized);
                 }
-                numTripRequestsWrittenToFile++;
+                batchId = batch.id;
+                anonymizedTripRequest = getAnonymizedTripRequest(batch);
             }
+            if (batch.tripSummary != null) {
+                anonymizedTripRequest.addTripSummary(batch.tripSummary);
+            }
+        }
+        if (anonymizedTripRequest != null) {
+            writer.write(anonymizedTripRequest.complete());
+            numTripRequestsWrittenToFile++;
+        }
+        if (writer != null) {
+            // Closing the writer finishes the zip file and closes the output.
+            writer.close();
         }
-        FileUtils.writeToFile(pathAndFileName, true, "]");
         return numTripRequestsWrittenToFile;
     }
 
     /**
-     * Extract trip request and trip summary data and create an {@link AnonymizedTripRequest}.
+     * Get the batches of trip requests made within the given hour (only trip requests where a batch id has been
+     * provided), ordered by batch id. The trip summaries matching the batch id are joined by the database so that the
+     * trip requests and summaries are read in one pass. Each result holds the most recent trip request of the batch,
+     * the modes of all its trip requests and one of the trip summaries of the batch (most recent first), so that the
+     * trip summaries of a batch are never held in a single document or in memory together. A batch without trip
+     * summaries is returned once, without a trip summary.
      */
-    private static AnonymizedTripRequest getAnonymizedTripRequest(
-        String uniqueBatchId,
-        Date startOfHour,
-        Date endOfHour
-    ) {
+    private static AggregateIterable<TripRequestBatch> getTripRequestBatches(LocalDateTime hourToBeAnonymized) {
         final String dateCreatedFieldName = "dateCreated";
         final String batchIdFieldName = "batchId";
-        // Get trip request batch.
-        FindIterable<TripRequest> tripRequests = Persistence.tripRequests.getFiltered(
-            Filters.and(
-                Filters.gte(dateCreatedFieldName, startOfHour),
-                Filters.lte(dateCreatedFieldName, endOfHour),
-                Filters.eq(batchIdFieldName, uniqueBatchId)
+        final String tripSummaryFieldName = "tripSummary";
+        List<Bson> pipeline = List.of(
+            Aggregates.match(Filters.and(
+                Filters.gte(dateCreatedFieldName, DateTimeUtils.getStartOfHour(hourToBeAnonymized)),
+                Filters.lte(dateCreatedFieldName, DateTimeUtils.getEndOfHour(hourToBeAnonymized)),
+                Filters.ne(batchIdFieldName, OtpRequestProcessor.BATCH_ID_NOT_PROVIDED)
+            )),
+            // Most recent trip request first within each batch.
+            Aggregates.sort(Sorts.orderBy(
+                Sorts.ascending(batchIdFieldName),
+                Sorts.descending(dateCreatedFieldName)
+            )),
+            Aggregates.group(
+                "$" + batchIdFieldName,
+                Accumulators.first(
+                    "tripRequest",
+                    // Fields of the trip requests read by AnonymizedTripRequest.
+                    new Document(batchIdFieldName, "$" + batchIdFieldName)
+                        .append("fromPlace", "$fromPlace")
+                        .append("toPlace", "$toPlace")
+                        .append("requestParameters", "$requestParameters")
+                ),
+                Accumulators.push("modes", "$requestParameters.mode")
             ),
-            Sorts.descending(dateCreatedFieldName, batchIdFieldName)
-        );
-        TripRequest tripRequest = getAllModesUsedInBatch(tripRequests);
-        if (tripRequest == null) {
-            // This is possible if no trip requests are within the start and end hour.
-            return null;
-        }
-        // Get all trip summaries matching the batch id.
-        FindIterable<TripSummary> tripSummaries = Persistence.tripSummaries.getFiltered(
-            eq(batchIdFieldName, uniqueBatchId),
-            Sorts.descending(dateCreatedFieldName)
+            Aggregates.sort(Sorts.ascending("_id")),
+            // The unused fields of the trip summaries are excluded within the lookup, so that they are never read.
+            Aggregates.lookup(
+                TripSummary.class.getSimpleName(),
+                List.of(new Variable<>(batchIdFieldName, "$_id")),
+                List.of(
+                    Aggregates.match(Filters.expr(
+                        new Document("$eq", List.of("$" + batchIdFieldName, "$$" + batchIdFieldName))
+                    )),
+                    Aggregates.sort(Sorts.descending(dateCreatedFieldName)),
+                    Aggregates.project(Projections.exclude(UNUSED_TRIP_SUMMARY_FIELDS))
+                ),
+                tripSummaryFieldName
+            ),
+            // Unwinding the lookup result right after the lookup is combined with it by the database, so the trip
+            // summaries of a batch are returned one per result, without ever being joined into one document (which
+            // could exceed the maximum document size for a busy batch).
+            Aggregates.unwind("$" + tripSummaryFieldName, new UnwindOptions().preserveNullAndEmptyArrays(true))
         );
-        // Anonymize trip request.
-        return new AnonymizedTripRequest(tripRequest, tripSummaries);
+        return Persistence.tripRequests.aggregate(pipeline, TripRequestBatch.class);
     }
 
     /**
-     * A single trip query results in many calls from the UI to OTP covering different combinations of modes. The trip
-     * request to be included in the anonymous trip data must include all modes used across all trip requests within a
-     * batch.
+     * Start an {@link AnonymizedTripRequest} for a batch of trip requests, to which the trip summaries of the batch are
+     * then added. A single trip query results in many calls from the UI to OTP covering different combinations of
+     * modes. The trip request to be included in the anonymous trip data must include all modes used across all trip
+     * requests within a batch.
      */
-    private static TripRequest getAllModesUsedInBatch(FindIterable<TripRequest> tripRequests) {
-        TripRequest request = null;
+    private static AnonymizedTripRequest getAnonymizedTripRequest(TripRequestBatch batch) {
+        // Report all unique modes from across the batch instead of the mode parameter of the most recent request.
         Set<String> allUniqueModes = new HashSet<>();
-        for (TripRequest tripRequest : tripRequests) {
-            if (request == null) {
-                // Select the first request. All subsequent requests will be the same apart from the mode (which is
-                // overwritten at the end of this method).
-                request = tripRequest;
+        if (batch.modes != null) {
+            for (String modes : batch.modes) {
+                if (modes != null) allUniqueModes.addAll(Arrays.asList(modes.split(",")));
             }
-            if (request.requestParameters != null && request.requestParameters.containsKey("mode")) {
-                allUniqueModes.addAll(
-                        Arrays.asList(tripRequest.requestParameters.get("mode").split(","))
-                );
-            }
-        }
-        if (request != null && request.requestParameters != null) {
-            // Replace the mode parameter in the first request with all unique modes from across the batch.
-            request.requestParameters.put("mode", StringUtils.join(allUniqueModes, ","));
         }
-        return request;
+        return new AnonymizedTripRequest(batch.tripRequest, StringUtils.join(allUniqueModes, ","));
     }
 
     /**
-     * Anonymize trip data, write to zip file, upload the zip file to S3 and finally delete the data and zip files from
-     * local disk.
+     * Anonymize trip data and upload it to S3 as a zip file, which is compressed and uploaded in parts as the trip data
+     * is read, so that the trip data of the hour is never held on local disk. In test mode, the zip file is also
+     * written to the temp directory, to be read and deleted by the calling test.
      */
     public static int compileAndUploadTripHistory(LocalDateTime hourToBeAnonymized, boolean isTest) {
         String zipFileName = getFileName(hourToBeAnonymized, ZIP_FILE_NAME_SUFFIX);
         String tempZipFile = String.join("/", FileUtils.getTempDirectory().getAbsolutePath(), zipFileName);
-        String tempDataFile = String.join(
-            "/",
-            FileUtils.getTempDirectory().getAbsolutePath(),
-            getFileName(hourToBeAnonymized, DATA_FILE_NAME_SUFFIX)
+        // Nothing is uploaded until trip requests are written to the zip file.
+        S3UploadOutputStream upload = S3Utils.createUploadStream(
+            CONNECTED_DATA_PLATFORM_S3_BUCKET_NAME,
+            CONNECTED_DATA_PLATFORM_S3_FOLDER_NAME + "/" + zipFileName
         );
+        // In test mode, the zip file is also written to a temp file, which must be closed on its own if writing fails.
+        AtomicReference<FileOutputStream> tempZipFileOutput = new AtomicReference<>();
         try {
-            int numTripRequestsWrittenToFile = streamAnonymousTripsToFile(tempDataFile, hourToBeAnonymized);
-            if (numTripRequestsWrittenToFile > 0) {
-                // No point doing these tasks if no trip requests were written to file.
-                FileUtils.addSingleFileToZip(tempDataFile, tempZipFile);
-                S3Utils.putObject(
-                    CONNECTED_DATA_PLATFORM_S3_BUCKET_NAME,
-                    CONNECTED_DATA_PLATFORM_S3_FOLDER_NAME + "/" + zipFileName,
-                    new File(tempZipFile)
-                );
-            }
-            return numTripRequestsWrittenToFile;
+            return streamAnonymousTripsToZip(
+                hourToBeAnonymized,
+                () -> {
+                    if (!isTest) return upload;
+                    LOG.warn(
+                        "In test mode, temp zip file {} is expected to be deleted by the calling test.",
+                        tempZipFile
+                    );
+                    tempZipFileOutput.set(new FileOutputStream(tempZipFile));
+                    return new TeeOutputStream(upload, tempZipFileOutput.get());
+                }
+            );
         } catch (Exception e) {
+            // Discard the parts already uploaded, so that no partial zip file is created.
+            upload.abort();
+            IOUtils.closeQuietly(tempZipFileOutput.get());
             BugsnagReporter.reportErrorToBugsnag(
                 String.format("Failed to process trip data for (%s)", hourToBeAnonymized),
                 e
             );
             return Integer.MIN_VALUE;
-        } finally {
-            // Delete the temporary files. This is done here in case the S3 upload fails.
-            try {
-                LOG.error("Deleting CDP zip file {} as an error occurred while processing the data it was supposed to contain.", tempZipFile);
-                FileUtils.deleteFile(tempDataFile);
-                if (!isTest) {
-                    FileUtils.deleteFile(tempZipFile);
-                } else {
-                    LOG.warn("In test mode, temp zip file {} not deleted. This is expected to be deleted by the calling test.",
-                        tempZipFile
-                    );
-                }
-            } catch (IOException e) {
-                LOG.error("Failed to delete temp files", e);
-            }
         }
     }
 
     /**
-     * Get all incomplete trip history uploads.
+     * Get all incomplete trip history uploads, oldest upload hour first.
      */
     public static List<TripHistoryUpload> getIncompleteUploads() {
         FindIterable<TripHistoryUpload> tripHistoryUploads = Persistence.tripHistoryUploads.getFiltered(
-            Filters.ne("status", TripHistoryUploadStatus.COMPLETED.getValue())
+            Filters.ne("status", TripHistoryUploadStatus.COMPLETED.getValue()),
+            Sorts.ascending("uploadHour")
         );
         return tripHistoryUploads.into(new ArrayList<>());
     }
@@ -0,0 +1,45 @@
+package org.opentripplanner.middleware.connecteddataplatform;
+
+import org.opentripplanner.middleware.utils.JsonUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes trip requests as a single JSON array holding all the trip requests of the hour (see
+ * {@link TripDataFormat#JSON}).
+ */
+public class JsonTripDataWriter implements TripDataWriter {
+    private final BufferedWriter writer;
+    private boolean isFirstTripRequest = true;
+
+    public JsonTripDataWriter(ZipOutputStream zipOutputStream, String dataFileName) throws IOException {
+        zipOutputStream.putNextEntry(new ZipEntry(dataFileName));
+        writer = new BufferedWriter(
+            new OutputStreamWriter(zipOutputStream, StandardCharsets.UTF_8),
+            TripDataFormat.WRITER_BUFFER_SIZE_BYTES
+        );
+        writer.write("[");
+    }
+
+    @Override
+    public void write(AnonymizedTripRequest tripRequest) throws IOException {
+        if (!isFirstTripRequest) {
+            // Separate each trip request.
+            writer.write(",");
+        }
+        writer.write(JsonUtils.toJson(tripRequest));
+        isFirstTripRequest = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.write("]");
+        // This finishes the zip file.
+        writer.close();
+    }
+}
@@ -0,0 +1,245 @@
+package org.opentripplanner.middleware.connecteddataplatform;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.opentripplanner.middleware.otp.response.PlannerError;
+import org.opentripplanner.middleware.utils.Coordinates;
+import org.opentripplanner.middleware.utils.JsonUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes trip requests as newline-delimited JSON (see {@link TripDataFormat#NDJSON}), so that consumers can read the
+ * trip data one trip request at a time. Each line is a {@link TripRequestRecord}, which always holds the same fields.
+ * The modes and stop ids are repeated across many trip requests and legs, so each line only holds their index in a
+ * {@link Dictionary} which is written to a separate file of the zip file once all trip requests have been written.
+ * Coordinates are written in each line instead, because they are scrambled for each trip request and so rarely repeat.
+ */
+public class NdjsonTripDataWriter implements TripDataWriter {
+    /** Version of the record and dictionary schema, to be increased on any change to the fields written. */
+    public static final int SCHEMA_VERSION = 2;
+
+    private static final ObjectWriter OBJECT_WRITER = JsonUtils.getWriter()
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final ZipOutputStream zipOutputStream;
+    private final String dictionaryFileName;
+    private final BufferedWriter writer;
+    private final JsonGenerator generator;
+    private final Dictionary dictionary = new Dictionary();
+    private final Map<String, Integer> modeIndexes = new HashMap<>();
+    private final Map<String, Integer> stopIndexes = new HashMap<>();
+
+    public NdjsonTripDataWriter(
+        ZipOutputStream zipOutputStream,
+        String dataFileName,
+        String dictionaryFileName
+    ) throws IOException {
+        this.zipOutputStream = zipOutputStream;
+        this.dictionaryFileName = dictionaryFileName;
+        zipOutputStream.putNextEntry(new ZipEntry(dataFileName));
+        writer = new BufferedWriter(
+            new OutputStreamWriter(zipOutputStream, StandardCharsets.UTF_8),
+            TripDataFormat.WRITER_BUFFER_SIZE_BYTES
+        );
+        generator = OBJECT_WRITER.getFactory()
+            .createGenerator(writer)
+            // The zip file is closed once the dictionary has been written.
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public void write(AnonymizedTripRequest tripRequest) throws IOException {
+        OBJECT_WRITER.writeValue(generator, encode(tripRequest));
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Write the dictionary of the trip requests written and finish the zip file.
+     */
+    @Override
+    public void close() throws IOException {
+        generator.flush();
+        writer.flush();
+        zipOutputStream.closeEntry();
+        zipOutputStream.putNextEntry(new ZipEntry(dictionaryFileName));
+        OBJECT_WRITER.writeValue(generator, dictionary);
+        generator.close();
+        // This finishes the zip file.
+        writer.close();
+    }
+
+    private TripRequestRecord encode(AnonymizedTripRequest tripRequest) {
+        TripRequestRecord record = new TripRequestRecord();
+        record.requestId = tripRequest.requestId;
+        record.fromPlace = tripRequest.fromPlace;
+        record.toPlace = tripRequest.toPlace;
+        record.date = tripRequest.date;
+        record.time = tripRequest.time;
+        record.timeSelection = tripRequest.timeSelection;
+        if (tripRequest.mode != null) {
+            record.modes = new ArrayList<>(tripRequest.mode.size());
+            for (String mode : tripRequest.mode) {
+                record.modes.add(getModeIndex(mode));
+            }
+        }
+        record.maxWalkDistance = tripRequest.maxWalkDistance;
+        record.optimize = tripRequest.optimize;
+        record.error = tripRequest.error;
+        record.itineraries = new ArrayList<>(tripRequest.itineraries.size());
+        for (AnonymizedItinerary itinerary : tripRequest.itineraries) {
+            record.itineraries.add(encode(itinerary));
+        }
+        return record;
+    }
+
+    private ItineraryRecord encode(AnonymizedItinerary itinerary) {
+        ItineraryRecord record = new ItineraryRecord();
+        record.tripSummaryId = itinerary.tripSummaryId;
+        record.itineraryIndex = itinerary.itineraryIndex;
+        record.duration = itinerary.duration;
+        record.startTime = itinerary.startTime;
+        record.endTime = itinerary.endTime;
+        record.transfers = itinerary.transfers;
+        record.transitTime = itinerary.transitTime;
+        record.waitingTime = itinerary.waitingTime;
+        record.walkDistance = itinerary.walkDistance;
+        record.walkTime = itinerary.walkTime;
+        if (itinerary.legs != null) {
+            record.legs = new ArrayList<>(itinerary.legs.size());
+            for (AnonymizedLeg leg : itinerary.legs) {
+                record.legs.add(encode(leg));
+            }
+        }
+        return record;
+    }
+
+    private LegRecord encode(AnonymizedLeg leg) {
+        LegRecord record = new LegRecord();
+        record.distance = leg.distance;
+        record.duration = leg.duration;
+        record.startTime = leg.startTime;
+        record.endTime = leg.endTime;
+        record.mode = getModeIndex(leg.mode);
+        record.transitLeg = leg.transitLeg;
+        record.fromStop = getStopIndex(leg.fromStop);
+        record.from = leg.from;
+        record.toStop = getStopIndex(leg.toStop);
+        record.to = leg.to;
+        record.agencyId = leg.agencyId;
+        record.interlineWithPreviousLeg = leg.interlineWithPreviousLeg;
+        record.realTime = leg.realTime;
+        record.routeId = leg.routeId;
+        record.routeShortName = leg.routeShortName;
+        record.routeLongName = leg.routeLongName;
+        record.routeType = leg.routeType;
+        record.tripBlockId = leg.tripBlockId;
+        record.tripId = leg.tripId;
+        record.rentedVehicle = leg.rentedVehicle;
+        return record;
+    }
+
+    /**
+     * @return the index of the mode in the dictionary (adding it if needed), or null if there is no mode.
+     */
+    private Integer getModeIndex(String mode) {
+        if (mode == null) return null;
+        return modeIndexes.computeIfAbsent(mode, m -> {
+            dictionary.modes.add(m);
+            return dictionary.modes.size() - 1;
+        });
+    }
+
+    /**
+     * @return the index of the stop in the dictionary (adding it if needed), or null if there is no stop.
+     */
+    private Integer getStopIndex(String stopId) {
+        if (stopId == null) return null;
+        return stopIndexes.computeIfAbsent(stopId, id -> {
+            dictionary.stopIds.add(id);
+            return dictionary.stopIds.size() - 1;
+        });
+    }
+
+    /**
+     * Values referenced by index from the trip request records of a file.
+     */
+    public static class Dictionary {
+        public int schemaVersion = SCHEMA_VERSION;
+        public List<String> modes = new ArrayList<>();
+        public List<String> stopIds = new ArrayList<>();
+    }
+
+    /**
+     * A line of the data file, with the fields of an {@link AnonymizedTripRequest}. Modes are indexes in the
+     * {@link Dictionary}.
+     */
+    public static class TripRequestRecord {
+        public String requestId;
+        public Coordinates fromPlace;
+        public Coordinates toPlace;
+        public String date;
+        public String time;
+        public AnonymousTripType timeSelection;
+        public List<Integer> modes;
+        public String maxWalkDistance;
+        public String optimize;
+        public List<ItineraryRecord> itineraries;
+        public PlannerError error;
+    }
+
+    /**
+     * The fields of an {@link AnonymizedItinerary}.
+     */
+    public static class ItineraryRecord {
+        public Integer tripSummaryId;
+        public Integer itineraryIndex;
+        public Long duration;
+        public Date startTime;
+        public Date endTime;
+        public Integer transfers;
+        public Long transitTime;
+        public Long waitingTime;
+        public Double walkDistance;
+        public Long walkTime;
+        public List<LegRecord> legs;
+    }
+
+    /**
+     * The fields of an {@link AnonymizedLeg}. The mode and stops are indexes in the {@link Dictionary}.
+     */
+    public static class LegRecord {
+        public Double distance;
+        public Double duration;
+        public Date startTime;
+        public Date endTime;
+        public Integer mode;
+        public Boolean transitLeg;
+        public Integer fromStop;
+        public Coordinates from;
+        public Integer toStop;
+        public Coordinates to;
+        public String agencyId;
+        public Boolean interlineWithPreviousLeg;
+        public Boolean realTime;
+        public String routeId;
+        public String routeShortName;
+        public String routeLongName;
+        public Integer routeType;
+        public String tripBlockId;
+        public String tripId;
+        public Boolean rentedVehicle;
+    }
+}
@@ -0,0 +1,66 @@
+package org.opentripplanner.middleware.connecteddataplatform;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.zip.ZipOutputStream;
+
+import static org.opentripplanner.middleware.connecteddataplatform.ConnectedDataManager.getFileName;
+
+/**
+ * The formats in which trip data can be uploaded to the Connected Data Platform. The format is selected per deployment
+ * with the CONNECTED_DATA_PLATFORM_EXPORT_FORMAT config property. Whichever the format, the trip data of an hour is
+ * uploaded as a single zip file.
+ */
+public enum TripDataFormat {
+    /**
+     * A single JSON file holding an array of {@link AnonymizedTripRequest}s.
+     */
+    JSON {
+        @Override
+        public TripDataWriter createWriter(ZipOutputStream zipOutputStream, LocalDateTime hour) throws IOException {
+            return new JsonTripDataWriter(
+                zipOutputStream,
+                getFileName(hour, ConnectedDataManager.DATA_FILE_NAME_SUFFIX)
+            );
+        }
+    },
+    /**
+     * A newline-delimited JSON file holding one trip request per line, with modes and stop ids replaced by their index
+     * in a dictionary file (see {@link NdjsonTripDataWriter}).
+     */
+    NDJSON {
+        @Override
+        public TripDataWriter createWriter(ZipOutputStream zipOutputStream, LocalDateTime hour) throws IOException {
+            return new NdjsonTripDataWriter(
+                zipOutputStream,
+                getFileName(hour, ConnectedDataManager.NDJSON_DATA_FILE_NAME_SUFFIX),
+                getFileName(hour, ConnectedDataManager.DICTIONARY_FILE_NAME_SUFFIX)
+            );
+        }
+    };
+
+    private static final Logger LOG = LoggerFactory.getLogger(TripDataFormat.class);
+
+    /** Size of the buffers used while writing trip data, well above the defaults for the volume of trip data. */
+    static final int WRITER_BUFFER_SIZE_BYTES = 64 * 1024;
+
+    /**
+     * Create a writer adding the files of this format, for the trip data of the given hour, to a zip file.
+     */
+    public abstract TripDataWriter createWriter(ZipOutputStream zipOutputStream, LocalDateTime hour)
+        throws IOException;
+
+    /**
+     * Get the format with the given name (case-insensitive), or {@link #JSON} if there is no such format.
+     */
+    public static TripDataFormat fromName(String name) {
+        for (TripDataFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name)) return format;
+        }
+        LOG.warn("Unknown trip data format {}, using {} instead.", name, JSON);
+        return JSON;
+    }
+}
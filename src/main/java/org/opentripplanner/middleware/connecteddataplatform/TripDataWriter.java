@@ -0,0 +1,16 @@
+package org.opentripplanner.middleware.connecteddataplatform;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes anonymized trip requests to the zip file uploaded to the Connected Data Platform, in one of the
+ * {@link TripDataFormat}s. Trip requests are written as they are provided, so that the trip data of an hour is never
+ * held in memory. Closing the writer completes the zip file.
+ */
+public interface TripDataWriter extends Closeable {
+    /**
+     * Write the next trip request.
+     */
+    void write(AnonymizedTripRequest tripRequest) throws IOException;
+}
@@ -2,12 +2,24 @@ package org.opentripplanner.middleware.connecteddataplatform;
 
 import org.opentripplanner.middleware.models.TripHistoryUpload;
 import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.utils.DaemonThreadFactory;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
 
 /**
  * This job is responsible for keeping the trip history held on s3 up-to-date by defining the hours which should be
@@ -18,6 +30,31 @@ public class TripHistoryUploadJob implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(TripHistoryUploadJob.class);
     private static final int HISTORIC_UPLOAD_HOURS_BACK_STOP = 24;
 
+    /** The maximum number of upload hours processed at the same time by this instance. */
+    private static final int MAX_CONCURRENT_UPLOAD_HOURS = getConfigPropertyAsInt(
+        "CONNECTED_DATA_PLATFORM_MAX_CONCURRENT_UPLOAD_HOURS",
+        Runtime.getRuntime().availableProcessors()
+    );
+
+    /**
+     * The amount of time in milliseconds after which an upload hour that has not been completed by the worker that
+     * leased it (e.g., because its instance crashed) is processed again.
+     */
+    static final long UPLOAD_HOUR_LEASE_DURATION_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * The interval in milliseconds at which the leases of the upload hours being processed are renewed, so that an
+     * upload hour taking longer than the lease duration is not processed by another worker at the same time.
+     */
+    static final long UPLOAD_HOUR_LEASE_RENEWAL_INTERVAL_MILLIS = UPLOAD_HOUR_LEASE_DURATION_MILLIS / 4;
+
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    /** Renews the leases of the upload hours being processed by this instance. */
+    private static final ScheduledExecutorService leaseRenewalExecutor = Executors.newSingleThreadScheduledExecutor(
+        new DaemonThreadFactory("trip-history-upload-lease-renewal")
+    );
+
     public void run() {
         stageUploadHours();
         processTripHistory(false);
@@ -67,21 +104,108 @@ public class TripHistoryUploadJob implements Runnable {
     }
 
     /**
-     * Process incomplete upload dates. This will be uploads which are flagged as 'pending'. If the upload date is
-     * compiled and uploaded successfully, it is flagged as 'complete'.
+     * Process incomplete upload dates. This will be uploads which are flagged as 'pending'. Upload hours are processed
+     * in parallel (oldest first, up to {@link #MAX_CONCURRENT_UPLOAD_HOURS} at a time) and this method returns once
+     * they have all been processed. If the upload date is compiled and uploaded successfully, it is flagged as
+     * 'complete' straight away, so that if processing stops, only the hours not yet complete are processed again.
      */
     public static void processTripHistory(boolean isTest) {
-        List<TripHistoryUpload> incompleteUploads = ConnectedDataManager.getIncompleteUploads();
-        incompleteUploads.forEach(tripHistoryUpload -> {
-            int numTripRequestsUpload = ConnectedDataManager.compileAndUploadTripHistory(tripHistoryUpload.uploadHour, isTest);
+        List<Future<?>> uploads = new ArrayList<>();
+        for (TripHistoryUpload tripHistoryUpload : ConnectedDataManager.getIncompleteUploads()) {
+            uploads.add(executor.submit(() -> processUploadHour(tripHistoryUpload, isTest)));
+        }
+        for (Future<?> upload : uploads) {
+            try {
+                upload.get();
+            } catch (InterruptedException e) {
+                // The remaining upload hours keep being processed, but are no longer waited for.
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOG.error("Failed to process trip history upload hour", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Compile and upload the trip history of an upload hour, unless it is already being processed by another worker.
+     */
+    private static void processUploadHour(TripHistoryUpload tripHistoryUpload, boolean isTest) {
+        String leaseToken = TripHistoryUpload.lease(tripHistoryUpload.id, UPLOAD_HOUR_LEASE_DURATION_MILLIS);
+        if (leaseToken == null) {
+            LOG.debug("Upload hour {} is being processed by another worker, skipping.", tripHistoryUpload.uploadHour);
+            return;
+        }
+        ScheduledFuture<?> leaseRenewal = scheduleLeaseRenewal(tripHistoryUpload, leaseToken);
+        boolean isCompleted = false;
+        try {
+            int numTripRequestsUpload = ConnectedDataManager.compileAndUploadTripHistory(
+                tripHistoryUpload.uploadHour,
+                isTest
+            );
             if (numTripRequestsUpload != Integer.MIN_VALUE) {
                 // If successfully compiled and updated, update the status to 'completed' and record the number of trip
                 // requests uploaded (if any).
-                tripHistoryUpload.status = TripHistoryUploadStatus.COMPLETED.getValue();
-                tripHistoryUpload.numTripRequestsUploaded = numTripRequestsUpload;
-                Persistence.tripHistoryUploads.replace(tripHistoryUpload.id, tripHistoryUpload);
+                isCompleted = TripHistoryUpload.complete(tripHistoryUpload.id, leaseToken, numTripRequestsUpload);
+                if (!isCompleted) {
+                    LOG.warn(
+                        "Lease on upload hour {} expired before its upload completed.",
+                        tripHistoryUpload.uploadHour
+                    );
+                }
             }
-        });
+        } finally {
+            leaseRenewal.cancel(false);
+            if (!isCompleted) {
+                // Make the upload hour available to the next run.
+                TripHistoryUpload.release(tripHistoryUpload.id, leaseToken);
+            }
+        }
     }
 
+    /**
+     * Periodically renew the lease on an upload hour until it is cancelled or the lease is lost.
+     */
+    private static ScheduledFuture<?> scheduleLeaseRenewal(TripHistoryUpload tripHistoryUpload, String leaseToken) {
+        return leaseRenewalExecutor.scheduleWithFixedDelay(
+            () -> {
+                boolean isLeaseHeld;
+                try {
+                    isLeaseHeld = TripHistoryUpload.renew(
+                        tripHistoryUpload.id,
+                        leaseToken,
+                        UPLOAD_HOUR_LEASE_DURATION_MILLIS
+                    );
+                } catch (Exception e) {
+                    // Keep renewing, the lease may still be renewed before it expires.
+                    LOG.error("Could not renew lease on upload hour {}", tripHistoryUpload.uploadHour, e);
+                    return;
+                }
+                if (!isLeaseHeld) {
+                    LOG.warn("Lease on upload hour {} was lost while processing.", tripHistoryUpload.uploadHour);
+                    // Failing this task stops its subsequent renewals.
+                    throw new IllegalStateException("Lease on upload hour lost");
+                }
+            },
+            UPLOAD_HOUR_LEASE_RENEWAL_INTERVAL_MILLIS,
+            UPLOAD_HOUR_LEASE_RENEWAL_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Create the bounded executor processing upload hours. Idle threads time out, so no threads are kept between runs.
+     */
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_CONCURRENT_UPLOAD_HOURS,
+            MAX_CONCURRENT_UPLOAD_HOURS,
+            60L,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new DaemonThreadFactory("trip-history-upload")
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
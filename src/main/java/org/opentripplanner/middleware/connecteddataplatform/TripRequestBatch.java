@@ -0,0 +1,31 @@
+package org.opentripplanner.middleware.connecteddataplatform;
+
+import org.opentripplanner.middleware.models.TripRequest;
+import org.opentripplanner.middleware.models.TripSummary;
+
+import java.util.List;
+
+/**
+ * The trip requests of a batch made within an hour, joined with one of the trip summaries of the batch. This is a result
+ * of the aggregation that reads the trip data to anonymize (see {@link ConnectedDataManager}), which returns one result
+ * per trip summary of a batch.
+ */
+public class TripRequestBatch {
+    /** The batch id. */
+    public String id;
+
+    /** The most recent trip request of the batch, with only the fields read by {@link AnonymizedTripRequest}. */
+    public TripRequest tripRequest;
+
+    /** The mode parameter (comma-separated modes) of each trip request of the batch that has one. */
+    public List<String> modes;
+
+    /** One of the trip summaries of the batch, or null if the batch has none. */
+    public TripSummary tripSummary;
+
+    /**
+     * This no-arg constructor exists to make MongoDB happy.
+     */
+    public TripRequestBatch() {
+    }
+}
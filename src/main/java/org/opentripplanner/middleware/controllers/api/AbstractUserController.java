@@ -7,6 +7,7 @@ import io.github.manusant.ss.ApiEndpoint;
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.auth.Auth0Connection;
 import org.opentripplanner.middleware.auth.RequestingUser;
+import org.opentripplanner.middleware.auth.RequestingUserCache;
 import org.opentripplanner.middleware.auth.Auth0Users;
 import org.opentripplanner.middleware.connecteddataplatform.ConnectedDataManager;
 import org.opentripplanner.middleware.connecteddataplatform.TripHistoryUploadJob;
@@ -115,6 +116,7 @@ public abstract class AbstractUserController<U extends AbstractUser> extends Api
         if (user != null) {
             // If a user record was found in Mongo, cascade delete, including its Auth0 ID.
             boolean result = user.delete();
+            RequestingUserCache.invalidate(profile.auth0UserId);
             if (!result) {
                 logMessageAndHalt(
                     req,
@@ -128,6 +130,7 @@ public abstract class AbstractUserController<U extends AbstractUser> extends Api
             // If no user record was found in Mongo, directly delete its Auth0 ID.
             try {
                 deleteAuth0User(profile.auth0UserId);
+                RequestingUserCache.invalidate(profile.auth0UserId);
                 return true;
             } catch (Auth0Exception e) {
                 logMessageAndHalt(
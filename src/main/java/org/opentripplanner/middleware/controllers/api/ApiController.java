@@ -6,13 +6,17 @@ import io.github.manusant.ss.descriptor.ParameterDescriptor;
 import io.github.manusant.ss.rest.Endpoint;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import org.bson.conversions.Bson;
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.auth.Auth0Connection;
 import org.opentripplanner.middleware.auth.RequestingUser;
+import org.opentripplanner.middleware.auth.RequestingUserCache;
 import org.opentripplanner.middleware.controllers.response.ResponseList;
+import org.opentripplanner.middleware.models.AbstractUser;
 import org.opentripplanner.middleware.models.Model;
 import org.opentripplanner.middleware.models.OtpUser;
+import org.opentripplanner.middleware.persistence.PageCursor;
 import org.opentripplanner.middleware.persistence.Persistence;
 import org.opentripplanner.middleware.persistence.TypedPersistence;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
@@ -25,6 +29,7 @@ import spark.HaltException;
 import spark.Request;
 import spark.Response;
 
+import java.util.Locale;
 import java.util.Map;
 
 import static io.github.manusant.ss.descriptor.EndpointDescriptor.endpointPath;
@@ -56,6 +61,10 @@ public abstract class ApiController<T extends Model> implements Endpoint {
     public static final int DEFAULT_OFFSET = 0;
     public static final String OFFSET_PARAM = "offset";
     public static final String USER_ID_PARAM = "userId";
+    public static final String CURSOR_PARAM = "cursor";
+    public static final String TOTAL_PARAM = "total";
+    /** Fields of an {@link OtpUser} read by {@link OtpUser#canBeManagedBy} (permissions are not persisted). */
+    private static final Bson OTP_USER_MANAGEMENT_PROJECTION = Projections.include("applicationId", "auth0UserId");
 
     public static final ParameterDescriptor LIMIT = ParameterDescriptor.newBuilder()
         .withName(LIMIT_PARAM)
@@ -65,6 +74,21 @@ public abstract class ApiController<T extends Model> implements Endpoint {
         .withName(OFFSET_PARAM)
         .withDefaultValue(String.valueOf(DEFAULT_OFFSET))
         .withDescription("If specified, the number of records to skip/offset.").build();
+    public static final ParameterDescriptor CURSOR = ParameterDescriptor.newBuilder()
+        .withName(CURSOR_PARAM)
+        .withRequired(false)
+        .withDescription(String.format(
+            "If specified, pages are selected with a cursor instead of an offset: '%s' for the first page, then the " +
+                "nextPageToken of the previous page.",
+            PageCursor.FIRST_PAGE_TOKEN
+        )).build();
+    public static final ParameterDescriptor TOTAL = ParameterDescriptor.newBuilder()
+        .withName(TOTAL_PARAM)
+        .withRequired(false)
+        .withDescription(
+            "If specified, how to count the total number of results: 'exact' (default with an offset), 'estimated' " +
+                "or 'none' (default with a cursor)."
+        ).build();
     public static final ParameterDescriptor USER_ID = ParameterDescriptor.newBuilder()
         .withName(USER_ID_PARAM)
         .withRequired(false)
@@ -141,6 +165,8 @@ public abstract class ApiController<T extends Model> implements Endpoint {
                     .withDescription("Gets a paginated list of all '" + className + "' entities.")
                     .withQueryParam(LIMIT)
                     .withQueryParam(OFFSET)
+                    .withQueryParam(CURSOR)
+                    .withQueryParam(TOTAL)
                     .withQueryParam(USER_ID)
                     .withProduces(HttpUtils.JSON_ONLY)
                     .withResponseType(ResponseList.class),
@@ -195,14 +221,16 @@ public abstract class ApiController<T extends Model> implements Endpoint {
     private ResponseList<T> getMany(Request req, Response res) {
         int limit = HttpUtils.getQueryParamFromRequest(req, LIMIT_PARAM, 0, DEFAULT_LIMIT, 100);
         int offset = HttpUtils.getQueryParamFromRequest(req, OFFSET_PARAM, 0, DEFAULT_OFFSET);
+        PageCursor<T> cursor = getPageCursorFromRequest(req, PageCursor.byId());
+        ResponseList.TotalCount totalCount = getTotalCountFromRequest(req, cursor != null);
         String userId = HttpUtils.getQueryParamFromRequest(req, USER_ID_PARAM, true);
         // Filter the response based on the user id, if provided.
         // If the user id is not provided filter response based on requesting user.
         RequestingUser requestingUser = Auth0Connection.getUserFromRequest(req);
         if (userId != null) {
-            OtpUser otpUser = Persistence.otpUsers.getById(userId);
+            OtpUser otpUser = Persistence.otpUsers.getById(userId, OTP_USER_MANAGEMENT_PROJECTION);
             if (requestingUser.canManageEntity(otpUser)) {
-                return persistence.getResponseList(Filters.eq(USER_ID_PARAM, userId), offset, limit);
+                return getPage(Filters.eq(USER_ID_PARAM, userId), offset, cursor, limit, totalCount);
             } else {
                 res.status(HttpStatus.FORBIDDEN_403);
                 return null;
@@ -211,7 +239,7 @@ public abstract class ApiController<T extends Model> implements Endpoint {
         if (requestingUser.isAdmin()) {
             // If the user is admin, the context is presumed to be the admin dashboard, so we deliver all entities for
             // management or review without restriction.
-            return persistence.getResponseList(offset, limit);
+            return getPage(null, offset, cursor, limit, totalCount);
         } else if (persistence.clazz == OtpUser.class) {
             // If the required entity is of type 'OtpUser' the assumption is that a call is being made via the
             // OtpUserController. If the request is being made by an Api user the response will be limited to the Otp users
@@ -220,7 +248,7 @@ public abstract class ApiController<T extends Model> implements Endpoint {
             Bson filter = (requestingUser.apiUser != null)
                 ? Filters.eq("applicationId", requestingUser.apiUser.id)
                 : Filters.eq("_id", requestingUser.otpUser.id);
-            return persistence.getResponseList(filter, offset, limit);
+            return getPage(filter, offset, cursor, limit, totalCount);
         } else if (requestingUser.isAPIUser()) {
             // A user id must be provided if the request is being made by a third party user.
             logMessageAndHalt(req,
@@ -230,7 +258,60 @@ public abstract class ApiController<T extends Model> implements Endpoint {
         } else {
             // For all other cases the assumption is that the request is being made by an Otp user and the requested
             // entities have a 'userId' parameter. Only entities that match the requesting user id are returned.
-            return persistence.getResponseList(Filters.eq(USER_ID_PARAM, requestingUser.otpUser.id), offset, limit);
+            return getPage(Filters.eq(USER_ID_PARAM, requestingUser.otpUser.id), offset, cursor, limit, totalCount);
+        }
+    }
+
+    /**
+     * Get a page of the entities satisfying the filter (null for all entities), selected with the cursor if provided,
+     * otherwise with the offset.
+     */
+    private ResponseList<T> getPage(
+        Bson filter,
+        int offset,
+        PageCursor<T> cursor,
+        int limit,
+        ResponseList.TotalCount totalCount
+    ) {
+        return cursor == null
+            ? persistence.getResponseList(filter, offset, limit, totalCount)
+            : persistence.getResponseList(filter, cursor, limit, totalCount);
+    }
+
+    /**
+     * Get the page cursor requested with the cursor param, with the sort order of the supplied cursor, or null if
+     * pages are selected with an offset. This will halt the request if the cursor token is invalid.
+     */
+    static <M extends Model> PageCursor<M> getPageCursorFromRequest(Request req, PageCursor<M> sortOrder) {
+        String token = HttpUtils.getQueryParamFromRequest(req, CURSOR_PARAM, true);
+        if (token == null) return null;
+        try {
+            return sortOrder.at(token);
+        } catch (IllegalArgumentException e) {
+            logMessageAndHalt(req, HttpStatus.BAD_REQUEST_400, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Get how to count the total number of results from the total param. By default, the total is counted exactly
+     * with offset paging (as it always was) and not counted with cursor paging. This will halt the request if the
+     * param value is invalid.
+     */
+    static ResponseList.TotalCount getTotalCountFromRequest(Request req, boolean isCursorPaging) {
+        String value = HttpUtils.getQueryParamFromRequest(req, TOTAL_PARAM, true);
+        if (value == null) {
+            return isCursorPaging ? ResponseList.TotalCount.NONE : ResponseList.TotalCount.EXACT;
+        }
+        try {
+            return ResponseList.TotalCount.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logMessageAndHalt(
+                req,
+                HttpStatus.BAD_REQUEST_400,
+                String.format("The parameter %s must be one of exact, estimated or none.", TOTAL_PARAM)
+            );
+            return null;
         }
     }
 
@@ -270,6 +351,7 @@ public abstract class ApiController<T extends Model> implements Endpoint {
                 logMessageAndHalt(req, 500, "Unknown error occurred during delete attempt.");
             }
             boolean success = object.delete();
+            invalidateCachedUser(object);
             if (success) {
                 return object;
             } else {
@@ -311,6 +393,14 @@ public abstract class ApiController<T extends Model> implements Endpoint {
         return object;
     }
 
+    /**
+     * If the given entity is a user, remove the requesting user cached for it so that the change is seen by the next
+     * request made by that user.
+     */
+    private static void invalidateCachedUser(Model entity) {
+        if (entity instanceof AbstractUser) RequestingUserCache.invalidate((AbstractUser) entity);
+    }
+
     /**
      * Hook called before object is created in MongoDB.
      */
@@ -359,6 +449,7 @@ public abstract class ApiController<T extends Model> implements Endpoint {
                 // Run pre-create hook and use updated object (with potentially modified values) in create operation.
                 T updatedEntity = preCreateHook(newEntity, req);
                 persistence.create(updatedEntity);
+                invalidateCachedUser(updatedEntity);
                 postCreateHook(updatedEntity, req);
             } else {
                 String id = getIdFromRequest(req);
@@ -383,6 +474,8 @@ public abstract class ApiController<T extends Model> implements Endpoint {
                 }
                 // Get updated object from pre-update hook method.
                 persistence.replace(id, preUpdateHook(newEntity, preExistingEntity, req));
+                invalidateCachedUser(preExistingEntity);
+                invalidateCachedUser(newEntity);
             }
             // Return object that ultimately gets stored in database.
             return persistence.getById(newEntity.id);
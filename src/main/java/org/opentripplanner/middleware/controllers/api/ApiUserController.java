@@ -7,6 +7,7 @@ import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.auth.Auth0Connection;
 import org.opentripplanner.middleware.auth.Auth0Users;
 import org.opentripplanner.middleware.auth.RequestingUser;
+import org.opentripplanner.middleware.auth.RequestingUserCache;
 import org.opentripplanner.middleware.models.ApiKey;
 import org.opentripplanner.middleware.models.ApiUser;
 import org.opentripplanner.middleware.persistence.Persistence;
@@ -145,6 +146,7 @@ public class ApiUserController extends AbstractUserController<ApiUser> {
             // Add new API key to user and persist
             targetUser.apiKeys.add(apiKey);
             Persistence.apiUsers.replace(targetUser.id, targetUser);
+            RequestingUserCache.invalidate(targetUser);
         } catch (CreateApiKeyException e) {
             logMessageAndHalt(req,
                 HttpStatus.INTERNAL_SERVER_ERROR_500,
@@ -185,6 +187,7 @@ public class ApiUserController extends AbstractUserController<ApiUser> {
             // Delete api key from user and persist
             targetUser.apiKeys.removeIf(apiKey -> apiKeyId.equals(apiKey.keyId));
             Persistence.apiUsers.replace(targetUser.id, targetUser);
+            RequestingUserCache.invalidate(targetUser);
             return Persistence.apiUsers.getById(targetUser.id);
         } else {
             // Throw halt if API key deletion failed.
@@ -5,7 +5,9 @@ import io.github.manusant.ss.rest.Endpoint;
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.auth.Auth0Connection;
 import org.opentripplanner.middleware.auth.RequestingUser;
+import org.opentripplanner.middleware.auth.RequestingUserCache;
 import org.opentripplanner.middleware.controllers.response.ResponseList;
+import org.opentripplanner.middleware.models.CDPUser;
 import org.opentripplanner.middleware.persistence.Persistence;
 import org.opentripplanner.middleware.utils.CDPFile;
 import org.opentripplanner.middleware.utils.HttpUtils;
@@ -108,11 +110,15 @@ public class CDPFilesController implements Endpoint {
 
         String fileKey = HttpUtils.getQueryParamFromRequest(req, OBJECT_KEY_PARAM, false);
 
-        // Update last downloaded time
+        // Update last downloaded time. The requesting user may be shared with concurrent requests through
+        // RequestingUserCache, so it is not modified: a copy of the user is fetched from the database instead.
         if (requestingUser.isCDPUser()) {
-            long unixTime = System.currentTimeMillis();
-            requestingUser.cdpUser.S3DownloadTimes.put(fileKey, unixTime);
-            Persistence.cdpUsers.replace(requestingUser.cdpUser.id, requestingUser.cdpUser);
+            CDPUser cdpUser = Persistence.cdpUsers.getById(requestingUser.cdpUser.id);
+            if (cdpUser != null) {
+                cdpUser.S3DownloadTimes.put(fileKey, System.currentTimeMillis());
+                Persistence.cdpUsers.replace(cdpUser.id, cdpUser);
+                RequestingUserCache.invalidate(cdpUser);
+            }
         }
 
         return getTemporaryDownloadLinkForObject(CONNECTED_DATA_PLATFORM_S3_BUCKET_NAME, fileKey);
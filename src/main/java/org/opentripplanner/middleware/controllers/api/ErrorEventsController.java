@@ -2,29 +2,31 @@ package org.opentripplanner.middleware.controllers.api;
 
 import io.github.manusant.ss.SparkSwagger;
 import io.github.manusant.ss.rest.Endpoint;
-import com.mongodb.client.FindIterable;
 import com.mongodb.client.model.Sorts;
 import org.opentripplanner.middleware.bugsnag.EventSummary;
 import org.opentripplanner.middleware.controllers.response.ResponseList;
 import org.opentripplanner.middleware.models.BugsnagEvent;
 import org.opentripplanner.middleware.models.MonitoredComponent;
+import org.opentripplanner.middleware.persistence.PageCursor;
 import org.opentripplanner.middleware.persistence.Persistence;
 import org.opentripplanner.middleware.utils.HttpUtils;
 import org.opentripplanner.middleware.utils.JsonUtils;
 import spark.Request;
 import spark.Response;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 import static io.github.manusant.ss.descriptor.EndpointDescriptor.endpointPath;
 import static io.github.manusant.ss.descriptor.MethodDescriptor.path;
+import static org.opentripplanner.middleware.controllers.api.ApiController.CURSOR;
 import static org.opentripplanner.middleware.controllers.api.ApiController.DEFAULT_LIMIT;
 import static org.opentripplanner.middleware.controllers.api.ApiController.LIMIT;
 import static org.opentripplanner.middleware.controllers.api.ApiController.LIMIT_PARAM;
 import static org.opentripplanner.middleware.controllers.api.ApiController.OFFSET;
 import static org.opentripplanner.middleware.controllers.api.ApiController.OFFSET_PARAM;
+import static org.opentripplanner.middleware.controllers.api.ApiController.TOTAL;
+import static org.opentripplanner.middleware.controllers.api.ApiController.getPageCursorFromRequest;
+import static org.opentripplanner.middleware.controllers.api.ApiController.getTotalCountFromRequest;
 import static org.opentripplanner.middleware.utils.HttpUtils.JSON_ONLY;
 
 /**
@@ -32,6 +34,7 @@ import static org.opentripplanner.middleware.utils.HttpUtils.JSON_ONLY;
  * {@link EventSummary} objects.
  */
 public class ErrorEventsController implements Endpoint {
+    private static final String RECEIVED_AT_FIELD_NAME = "receivedAt";
     private final String ROOT_ROUTE;
     public ErrorEventsController(String apiPrefix) {
         this.ROOT_ROUTE = apiPrefix + "admin/bugsnag/eventsummary";
@@ -51,6 +54,8 @@ public class ErrorEventsController implements Endpoint {
                 .withDescription("Gets a paginated list of the latest Bugsnag event summaries.")
                 .withQueryParam(LIMIT)
                 .withQueryParam(OFFSET)
+                .withQueryParam(CURSOR)
+                .withQueryParam(TOTAL)
                 .withProduces(JSON_ONLY)
                 .withResponseAsCollection(BugsnagEvent.class),
             ErrorEventsController::getEventSummaries, JsonUtils::toJson);
@@ -63,20 +68,28 @@ public class ErrorEventsController implements Endpoint {
     private static ResponseList<EventSummary> getEventSummaries(Request req, Response res) {
         int limit = HttpUtils.getQueryParamFromRequest(req, LIMIT_PARAM, 0, DEFAULT_LIMIT, 100);
         int offset = HttpUtils.getQueryParamFromRequest(req, OFFSET_PARAM, 0, 0);
-        // Get latest events from database.
-        FindIterable<BugsnagEvent> events = Persistence.bugsnagEvents.getSortedIterableWithOffsetAndLimit(
-            Sorts.descending("receivedAt"),
-            offset,
-            limit
+        PageCursor<BugsnagEvent> cursor = getPageCursorFromRequest(
+            req,
+            PageCursor.byDateDescending(RECEIVED_AT_FIELD_NAME, event -> event.receivedAt)
         );
+        ResponseList.TotalCount totalCount = getTotalCountFromRequest(req, cursor != null);
+        // Get latest events from database.
+        ResponseList<BugsnagEvent> events = cursor == null
+            ? Persistence.bugsnagEvents.getResponseList(
+                null,
+                Sorts.descending(RECEIVED_AT_FIELD_NAME),
+                offset,
+                limit,
+                totalCount
+            )
+            : Persistence.bugsnagEvents.getResponseList(null, cursor, limit, totalCount);
         // Get Bugsnag projects by id.
         Map<String, MonitoredComponent> componentsByProjectId = MonitoredComponent.getComponentsByProjectId();
         // Construct event summaries from project map.
         // FIXME: Group by error/project type?
-        List<EventSummary> eventSummaries = events
-            .map(event -> new EventSummary(componentsByProjectId.get(event.projectId), event))
-            .into(new ArrayList<>());
-        long count = Persistence.bugsnagEvents.getCount();
-        return new ResponseList<>(EventSummary.class, eventSummaries, offset, limit, count);
+        return events.map(
+            EventSummary.class,
+            event -> new EventSummary(componentsByProjectId.get(event.projectId), event)
+        );
     }
 }
@@ -91,15 +91,16 @@ public class MonitoredTripController extends ApiController<MonitoredTrip> {
      */
     @Override
     MonitoredTrip postCreateHook(MonitoredTrip monitoredTrip, Request req) {
+        String leaseToken = null;
         try {
-            MonitoredTripLocks.lock(monitoredTrip.id);
+            leaseToken = MonitoredTripLocks.lock(monitoredTrip.id);
             return runCheckMonitoredTrip(monitoredTrip);
         } catch (Exception e) {
             // FIXME: an error happened while checking the trip, but the trip was saved to the DB, so return the raw
             //  trip as it was saved in the db?
             return monitoredTrip;
         } finally {
-            MonitoredTripLocks.unlock(monitoredTrip.id);
+            MonitoredTripLocks.unlock(monitoredTrip.id, leaseToken);
         }
     }
 
@@ -141,7 +142,7 @@ public class MonitoredTripController extends ApiController<MonitoredTrip> {
     @Override
     MonitoredTrip preUpdateHook(MonitoredTrip monitoredTrip, MonitoredTrip preExisting, Request req) {
         // lock the trip so that the a CheckMonitoredTrip job won't concurrently analyze/update the trip.
-        MonitoredTripLocks.lockTripForUpdating(monitoredTrip, req);
+        String leaseToken = MonitoredTripLocks.lockTripForUpdating(monitoredTrip, req);
 
         try {
             // Forbid the editing of certain values that are analyzed and set during the CheckMonitoredTrip job.
@@ -150,6 +151,8 @@ public class MonitoredTripController extends ApiController<MonitoredTrip> {
             // Note: There is no need to re-check for monitorability because the itinerary field cannot be changed.
             monitoredTrip.itinerary = preExisting.itinerary;
             monitoredTrip.journeyState = preExisting.journeyState;
+            // The update may change when the trip needs checking (e.g. lead time, days, snooze), so make it due now.
+            monitoredTrip.journeyState.nextCheckDueEpochMillis = 0;
             monitoredTrip.itineraryExistence = preExisting.itineraryExistence;
             monitoredTrip.tripTime = preExisting.tripTime;
             monitoredTrip.queryParams = preExisting.queryParams;
@@ -170,7 +173,7 @@ public class MonitoredTripController extends ApiController<MonitoredTrip> {
             //  the raw trip as it was saved in the db before the check monitored trip job ran?
             return monitoredTrip;
         } finally {
-            MonitoredTripLocks.unlock(monitoredTrip.id);
+            MonitoredTripLocks.unlock(monitoredTrip.id, leaseToken);
         }
     }
 
@@ -15,14 +15,11 @@ import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.auth.Auth0Connection;
 import org.opentripplanner.middleware.auth.RequestingUser;
 import org.opentripplanner.middleware.models.OtpUser;
-import org.opentripplanner.middleware.models.TripRequest;
-import org.opentripplanner.middleware.models.TripSummary;
 import org.opentripplanner.middleware.otp.OtpDispatcher;
 import org.opentripplanner.middleware.otp.OtpVersion;
 import org.opentripplanner.middleware.otp.OtpDispatcherResponse;
-import org.opentripplanner.middleware.otp.response.OtpResponse;
 import org.opentripplanner.middleware.persistence.Persistence;
-import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.opentripplanner.middleware.persistence.TripHistoryWriter;
 import org.opentripplanner.middleware.utils.HttpUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -133,14 +130,7 @@ public class OtpRequestProcessor implements Endpoint {
         }
         // If the request path ends with the plan endpoint (e.g., '/plan' or '/default/plan'), process response.
         if (otpRequestPath.endsWith(OtpDispatcher.OTP_PLAN_ENDPOINT) && otpUser != null) {
-            if(!handlePlanTripResponse(request, otpDispatcherResponse, otpUser)) {
-                logMessageAndHalt(
-                    request,
-                    HttpStatus.INTERNAL_SERVER_ERROR_500,
-                    "Failed to save trip history."
-                );
-                return null;
-            }
+            handlePlanTripResponse(request, otpDispatcherResponse, otpUser);
         }
         // provide response to requester as received from OTP server
         response.type(MediaType.APPLICATION_JSON);
@@ -197,14 +187,7 @@ public class OtpRequestProcessor implements Endpoint {
                 // Follows the method used in otp-ui core-utils storage.js
                 String randomBatchId = Integer.toString((int) (Math.random() * 1_000_000_000), 36);
 
-                if(!handlePlanTripResponse(randomBatchId, fromPlace, toPlace, otpDispatcherResponse, otpUser)) {
-                    logMessageAndHalt(
-                            request,
-                            HttpStatus.INTERNAL_SERVER_ERROR_500,
-                            "Failed to save trip history."
-                    );
-                    return null;
-                }
+                handlePlanTripResponse(randomBatchId, fromPlace, toPlace, otpDispatcherResponse, otpUser);
             } catch(JsonProcessingException e) {
                 LOG.warn("Invalid GraphQL Request received. Still passing to OTP2: {}", e.getMessage());
             } catch(NullPointerException e) {
@@ -265,17 +248,15 @@ public class OtpRequestProcessor implements Endpoint {
     }
 
     /**
-     * Process plan response from OTP. Store the response if consent is given. Handle the process and all exceptions
-     * seamlessly so as not to affect the response provided to the requester.
-     *
-     * @return Returns false if there was an error.
+     * Process plan response from OTP. Queue the response to be stored if consent is given. Handle the process and all
+     * exceptions seamlessly so as not to affect the response provided to the requester.
      */
-    private static boolean handlePlanTripResponse(
+    private static void handlePlanTripResponse(
             Request request,
             OtpDispatcherResponse otpDispatcherResponse,
             OtpUser otpUser
     ) {
-        return handlePlanTripResponse(
+        handlePlanTripResponse(
                 request.queryParams("batchId"),
                 request.queryParams("fromPlace"),
                 request.queryParams("toPlace"),
@@ -284,51 +265,23 @@ public class OtpRequestProcessor implements Endpoint {
         );
     }
 
-    private static boolean handlePlanTripResponse(
+    private static void handlePlanTripResponse(
             String batchId,
             String fromPlace,
             String toPlace,
             OtpDispatcherResponse otpDispatcherResponse,
             OtpUser otpUser
     ) {
-        boolean result = true;
         if (batchId == null) {
             batchId = BATCH_ID_NOT_PROVIDED;
         }
-        long tripStorageStartTime = DateTimeUtils.currentTimeMillis();
         // only save trip details if the user has given consent and a response from OTP is provided
         if (!otpUser.storeTripHistory) {
             LOG.debug("User does not want trip history stored");
-        } else {
-            OtpResponse otpResponse = null;
-            try {
-                otpResponse = otpDispatcherResponse.getResponse();
-            } catch (JsonProcessingException e) {
-                // errors are logged elsewhere
-                result = false;
-            }
-
-            if (otpResponse != null) {
-                TripRequest tripRequest = new TripRequest(
-                    otpUser.id,
-                    batchId,
-                    fromPlace,
-                    toPlace,
-                    otpResponse.requestParameters
-                );
-                // only save trip summary if the trip request was saved
-                boolean tripRequestSaved = Persistence.tripRequests.create(tripRequest);
-                if (tripRequestSaved) {
-                    TripSummary tripSummary = new TripSummary(otpResponse.plan, otpResponse.error, tripRequest.id, batchId);
-                    Persistence.tripSummaries.create(tripSummary);
-                } else {
-                    LOG.warn("Unable to save trip request, orphaned trip summary not saved");
-                    result = false;
-                }
-            }
+        } else if (!TripHistoryWriter.enqueue(otpUser.id, batchId, fromPlace, toPlace, otpDispatcherResponse)) {
+            // Trip history is written in the background, so a dropped entry is not reported to the requester.
+            LOG.warn("Trip history for user {} was not stored", otpUser.id);
         }
-        LOG.debug("Trip storage added {} ms", DateTimeUtils.currentTimeMillis() - tripStorageStartTime);
-        return result;
     }
 
 }
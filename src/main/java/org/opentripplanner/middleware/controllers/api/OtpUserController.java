@@ -7,6 +7,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.auth.Auth0Connection;
 import org.opentripplanner.middleware.auth.RequestingUser;
+import org.opentripplanner.middleware.auth.RequestingUserCache;
 import org.opentripplanner.middleware.models.MobilityProfile;
 import org.opentripplanner.middleware.models.OtpUser;
 import org.opentripplanner.middleware.persistence.Persistence;
@@ -133,6 +134,7 @@ public class OtpUserController extends AbstractUserController<OtpUser> {
             otpUser.smsConsentDate = new Date();
             otpUser.notificationChannel.add(OtpUser.Notification.SMS);
             Persistence.otpUsers.replace(otpUser.id, otpUser);
+            RequestingUserCache.invalidate(otpUser);
         }
 
         return new VerificationResult(verification);
@@ -169,6 +171,7 @@ public class OtpUserController extends AbstractUserController<OtpUser> {
             // If the check is successful, update the OtpUser's isPhoneNumberVerified.
             otpUser.isPhoneNumberVerified = true;
             Persistence.otpUsers.replace(otpUser.id, otpUser);
+            RequestingUserCache.invalidate(otpUser);
         }
 
         return verificationResult;
@@ -6,6 +6,7 @@ import org.bson.conversions.Bson;
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.controllers.response.ResponseList;
 import org.opentripplanner.middleware.models.TripRequest;
+import org.opentripplanner.middleware.persistence.PageCursor;
 import org.opentripplanner.middleware.persistence.Persistence;
 import org.opentripplanner.middleware.utils.HttpUtils;
 import org.opentripplanner.middleware.utils.JsonUtils;
@@ -18,12 +19,16 @@ import java.util.Date;
 import static io.github.manusant.ss.descriptor.EndpointDescriptor.endpointPath;
 import static io.github.manusant.ss.descriptor.MethodDescriptor.path;
 import static org.opentripplanner.middleware.auth.Auth0Connection.isAuthorized;
+import static org.opentripplanner.middleware.controllers.api.ApiController.CURSOR;
 import static org.opentripplanner.middleware.controllers.api.ApiController.DEFAULT_LIMIT;
 import static org.opentripplanner.middleware.controllers.api.ApiController.DEFAULT_OFFSET;
 import static org.opentripplanner.middleware.controllers.api.ApiController.LIMIT;
 import static org.opentripplanner.middleware.controllers.api.ApiController.LIMIT_PARAM;
 import static org.opentripplanner.middleware.controllers.api.ApiController.OFFSET;
 import static org.opentripplanner.middleware.controllers.api.ApiController.OFFSET_PARAM;
+import static org.opentripplanner.middleware.controllers.api.ApiController.TOTAL;
+import static org.opentripplanner.middleware.controllers.api.ApiController.getPageCursorFromRequest;
+import static org.opentripplanner.middleware.controllers.api.ApiController.getTotalCountFromRequest;
 import static org.opentripplanner.middleware.persistence.TypedPersistence.filterByUserAndDateRange;
 import static org.opentripplanner.middleware.utils.DateTimeUtils.DEFAULT_DATE_FORMAT_PATTERN;
 import static org.opentripplanner.middleware.utils.HttpUtils.JSON_ONLY;
@@ -36,6 +41,7 @@ import static org.opentripplanner.middleware.utils.JsonUtils.logMessageAndHalt;
 public class TripHistoryController implements Endpoint {
     private static final String FROM_DATE_PARAM = "fromDate";
     private static final String TO_DATE_PARAM = "toDate";
+    private static final String DATE_CREATED_FIELD_NAME = "dateCreated";
     private final String ROOT_ROUTE;
 
     public TripHistoryController(String apiPrefix) {
@@ -60,6 +66,8 @@ public class TripHistoryController implements Endpoint {
                     .withDescription("The OTP user for which to retrieve trip requests.").and()
                 .withQueryParam(LIMIT)
                 .withQueryParam(OFFSET)
+                .withQueryParam(CURSOR)
+                .withQueryParam(TOTAL)
                 .withQueryParam()
                     .withName(FROM_DATE_PARAM)
                     .withPattern(DEFAULT_DATE_FORMAT_PATTERN)
@@ -92,6 +100,12 @@ public class TripHistoryController implements Endpoint {
         // Get params from request (or use defaults).
         int limit = HttpUtils.getQueryParamFromRequest(request, LIMIT_PARAM, 0, DEFAULT_LIMIT, 100);
         int offset = HttpUtils.getQueryParamFromRequest(request, OFFSET_PARAM, 0, DEFAULT_OFFSET);
+        // With a cursor, the most recent trip requests are listed first.
+        PageCursor<TripRequest> cursor = getPageCursorFromRequest(
+            request,
+            PageCursor.byDateDescending(DATE_CREATED_FIELD_NAME, tripRequest -> tripRequest.dateCreated)
+        );
+        ResponseList.TotalCount totalCount = getTotalCountFromRequest(request, cursor != null);
         String paramFromDate = HttpUtils.getQueryParamFromRequest(request, FROM_DATE_PARAM, true);
         Date fromDate = HttpUtils.getDate(request, FROM_DATE_PARAM, paramFromDate, LocalTime.MIDNIGHT);
         String paramToDate = HttpUtils.getQueryParamFromRequest(request, TO_DATE_PARAM, true);
@@ -103,6 +117,8 @@ public class TripHistoryController implements Endpoint {
                     paramFromDate));
         }
         Bson filter = filterByUserAndDateRange(userId, fromDate, toDate);
-        return Persistence.tripRequests.getResponseList(filter, offset, limit);
+        return cursor == null
+            ? Persistence.tripRequests.getResponseList(filter, offset, limit, totalCount)
+            : Persistence.tripRequests.getResponseList(filter, cursor, limit, totalCount);
     }
 }
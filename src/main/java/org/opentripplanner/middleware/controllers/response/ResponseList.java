@@ -1,16 +1,35 @@
 package org.opentripplanner.middleware.controllers.response;
 
-import com.mongodb.client.MongoCollection;
-import org.bson.conversions.Bson;
-
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
- * Generic class for wrapping a paginated list response for a 'get all' HTTP endpoint.
+ * Generic class for wrapping a paginated list response for a 'get all' HTTP endpoint. Pages are selected either with an
+ * offset, or with a cursor (see {@link org.opentripplanner.middleware.persistence.PageCursor}) in which case the
+ * response holds the token of the next page.
  */
 public class ResponseList<T> {
+    /** Value of {@link #total} when the total is not counted. */
+    public static final long UNKNOWN_TOTAL = -1;
+
+    /**
+     * How the total number of results is obtained. Counting all results can cost more than getting a page, so it can
+     * be estimated or skipped.
+     */
+    public enum TotalCount {
+        /** Count all results. */
+        EXACT,
+        /**
+         * Use the collection size from the database metadata if the query is unfiltered, otherwise count results up to
+         * a limit (the total is then a lower bound).
+         */
+        ESTIMATED,
+        /** Do not count results, the total is {@link #UNKNOWN_TOTAL}. */
+        NONE
+    }
+
     /**
      * Simple class name representing the data type.
      * TODO: remove in favor of better approach to swagger doc generation?
@@ -22,8 +41,12 @@ public class ResponseList<T> {
     public int offset;
     /** number of results by which the response should be limited */
     public int limit;
-    /** total results found in query */
+    /** total results found in query, see {@link TotalCount} */
     public long total;
+    /** whether the total is an estimate (or lower bound) rather than an exact count */
+    public boolean estimatedTotal;
+    /** with cursor paging, the token to get the next page, or null if this is the last page */
+    public String nextPageToken;
     /** time that response was constructed */
     public Date timestamp;
 
@@ -33,38 +56,9 @@ public class ResponseList<T> {
     public ResponseList() { }
 
     /**
-     * Primary constructor for generating a paginated response list.
-     * @param collection - Mongo collection from which to construct the list
-     * @param filter - filter (query) to apply to find operation
-     * @param offset - number of results by which to offset
-     * @param limit - number of results by which the response should be limited
-     */
-    public ResponseList(MongoCollection<T> collection, Bson filter, int offset, int limit){
-        this(
-            collection.getDocumentClass(),
-            collection.find(filter).skip(offset).limit(limit).into(new ArrayList<>()),
-            offset,
-            limit,
-            collection.countDocuments(filter)
-        );
-    }
-
-    /**
-     * Shorthand constructor for generating an unfiltered response list.
-     */
-    public ResponseList(MongoCollection<T> collection, int offset, int limit){
-        this(
-            collection.getDocumentClass(),
-            collection.find().skip(offset).limit(limit).into(new ArrayList<>()),
-            offset,
-            limit,
-            collection.countDocuments()
-        );
-    }
-
-    /**
-     * Alternate constructor to generate paginated response when the data cannot be derived directly from a MongoDB
-     * collection (e.g., with {@link org.opentripplanner.middleware.bugsnag.EventSummary}).
+     * Constructor for generating a paginated response from data already obtained, either from a MongoDB collection
+     * (see {@link org.opentripplanner.middleware.persistence.TypedPersistence#getResponseList}) or when the data cannot
+     * be derived directly from a collection (e.g., with {@link org.opentripplanner.middleware.bugsnag.EventSummary}).
      */
     public ResponseList(Class clazz, List<T> data, int offset, int limit, long total){
         this.clazz = clazz.getSimpleName();
@@ -74,4 +68,21 @@ public class ResponseList<T> {
         this.total = total;
         this.timestamp = new Date();
     }
+
+    /**
+     * @return a response list with the same pagination as this one, holding the results converted by the given
+     * function (e.g., to add related data).
+     */
+    public <R> ResponseList<R> map(Class<R> resultClass, Function<T, R> converter) {
+        ResponseList<R> responseList = new ResponseList<>(
+            resultClass,
+            data.stream().map(converter).collect(Collectors.toList()),
+            offset,
+            limit,
+            total
+        );
+        responseList.estimatedTotal = estimatedTotal;
+        responseList.nextPageToken = nextPageToken;
+        return responseList;
+    }
 }
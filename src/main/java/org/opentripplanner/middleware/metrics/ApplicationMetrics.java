@@ -0,0 +1,134 @@
+package org.opentripplanner.middleware.metrics;
+
+import org.opentripplanner.middleware.auth.RequestingUserCache;
+import org.opentripplanner.middleware.otp.OtpPlanResponseCache;
+import org.opentripplanner.middleware.persistence.TripHistoryWriter;
+import org.opentripplanner.middleware.tripmonitor.jobs.TripCheckScheduler;
+import org.opentripplanner.middleware.utils.HttpUtils;
+
+import static org.opentripplanner.middleware.metrics.Metrics.PREFIX;
+
+/**
+ * Registers the gauges and counters that expose the statistics already kept by application classes (queues, caches,
+ * connection pool, etc.). Timers are registered by the classes they measure.
+ */
+public class ApplicationMetrics {
+    private static boolean initialized = false;
+
+    private ApplicationMetrics() {
+    }
+
+    /**
+     * Register the application gauges and counters (only once, subsequent calls have no effect).
+     */
+    public static synchronized void initialize() {
+        if (initialized) return;
+        initialized = true;
+
+        // Trip monitoring.
+        Metrics.gauge(
+            PREFIX + "trip_check_queue_depth",
+            "Number of trip checks waiting to be run.",
+            TripCheckScheduler::getQueueDepth
+        );
+        Metrics.gauge(
+            PREFIX + "trip_check_active_analyzers",
+            "Number of trip checks currently running.",
+            TripCheckScheduler::getActiveAnalyzerCount
+        );
+        Metrics.gauge(
+            PREFIX + "trip_check_max_lag_seconds",
+            "Maximum delay between the due time of a trip check and its start.",
+            () -> TripCheckScheduler.getMaxLagMillis() / 1000.0
+        );
+        Metrics.gauge(
+            PREFIX + "trip_check_mean_lag_seconds",
+            "Mean delay between the due time of a trip check and its start.",
+            () -> TripCheckScheduler.getMeanLagMillis() / 1000.0
+        );
+        Metrics.gauge(
+            PREFIX + "monitor_all_trips_last_run_seconds",
+            "Duration of the last run of the job that submits due trip checks.",
+            () -> TripCheckScheduler.getLastRunDurationMillis() / 1000.0
+        );
+
+        // Outgoing HTTP connections.
+        Metrics.gauge(
+            PREFIX + "http_pool_leased_connections",
+            "Number of connections of the shared HTTP connection pool in use.",
+            () -> HttpUtils.getConnectionPoolStats().getLeased()
+        );
+        Metrics.gauge(
+            PREFIX + "http_pool_available_connections",
+            "Number of idle connections of the shared HTTP connection pool.",
+            () -> HttpUtils.getConnectionPoolStats().getAvailable()
+        );
+        Metrics.gauge(
+            PREFIX + "http_pool_pending_requests",
+            "Number of requests waiting for a connection of the shared HTTP connection pool.",
+            () -> HttpUtils.getConnectionPoolStats().getPending()
+        );
+
+        // OTP plan response cache.
+        Metrics.gauge(
+            PREFIX + "otp_plan_cache_size",
+            "Number of OTP plan responses cached.",
+            OtpPlanResponseCache::size
+        );
+        Metrics.counter(
+            PREFIX + "otp_plan_cache_hits_total",
+            "Number of OTP plan requests served from the cache.",
+            () -> OtpPlanResponseCache.getStats().hitCount()
+        );
+        Metrics.counter(
+            PREFIX + "otp_plan_cache_misses_total",
+            "Number of OTP plan requests sent to OTP.",
+            () -> OtpPlanResponseCache.getStats().missCount()
+        );
+
+        // Trip history writes.
+        Metrics.gauge(
+            PREFIX + "trip_history_queue_depth",
+            "Number of trip requests and summaries waiting to be written.",
+            TripHistoryWriter::getQueueDepth
+        );
+        Metrics.counter(
+            PREFIX + "trip_history_written_total",
+            "Number of trip requests and summaries written.",
+            TripHistoryWriter::getWrittenCount
+        );
+        Metrics.counter(
+            PREFIX + "trip_history_failed_total",
+            "Number of trip requests and summaries that could not be written.",
+            TripHistoryWriter::getFailedCount
+        );
+        Metrics.counter(
+            PREFIX + "trip_history_dropped_total",
+            "Number of trip requests and summaries dropped because the write queue was full.",
+            TripHistoryWriter::getDroppedCount
+        );
+        Metrics.counter(
+            PREFIX + "trip_history_blocked_total",
+            "Number of times a request waited for room in the trip history write queue.",
+            TripHistoryWriter::getBlockedCount
+        );
+
+        // Authentication.
+        Metrics.gauge(
+            PREFIX + "requesting_user_cache_size",
+            "Number of users cached by token subject.",
+            RequestingUserCache::size
+        );
+        Metrics.counter(
+            PREFIX + "requesting_user_cache_hits_total",
+            "Number of users served from the cache.",
+            () -> RequestingUserCache.getStats().hitCount()
+        );
+        Metrics.counter(
+            PREFIX + "requesting_user_cache_misses_total",
+            "Number of users loaded from the database.",
+            () -> RequestingUserCache.getStats().missCount()
+        );
+        // Token verification counts and durations are recorded by the timer of Auth0Connection.
+    }
+}
@@ -0,0 +1,37 @@
+package org.opentripplanner.middleware.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * A gauge or counter whose value is read from the application (e.g., the size of a queue or a count kept by a class)
+ * each time the metrics are scraped.
+ */
+class FunctionMetric extends Metric {
+    private static final String[] NO_LABELS = new String[0];
+
+    private final String type;
+    private final DoubleSupplier value;
+
+    FunctionMetric(String name, String help, String type, DoubleSupplier value) {
+        super(name, help);
+        this.type = type;
+        this.value = value;
+    }
+
+    @Override
+    String type() {
+        return type;
+    }
+
+    @Override
+    void writeSamples(StringBuilder out) {
+        double currentValue;
+        try {
+            currentValue = value.getAsDouble();
+        } catch (RuntimeException e) {
+            // Do not fail the whole scrape because one value is unavailable.
+            currentValue = Double.NaN;
+        }
+        writeSample(out, name, NO_LABELS, NO_LABELS, null, null, currentValue);
+    }
+}
@@ -0,0 +1,88 @@
+package org.opentripplanner.middleware.metrics;
+
+/**
+ * A named metric that can write its current values in the Prometheus text exposition format (version 0.0.4).
+ */
+abstract class Metric {
+    final String name;
+    final String help;
+
+    Metric(String name, String help) {
+        if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+            throw new IllegalArgumentException("Invalid metric name: " + name);
+        }
+        this.name = name;
+        this.help = help;
+    }
+
+    /**
+     * @return the Prometheus type of the metric (e.g., gauge).
+     */
+    abstract String type();
+
+    /**
+     * Write the samples of this metric (without the HELP and TYPE lines).
+     */
+    abstract void writeSamples(StringBuilder out);
+
+    void write(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(escapeHelp(help)).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type()).append('\n');
+        writeSamples(out);
+    }
+
+    /**
+     * Write a sample line, e.g. name{label="value"} 1.0
+     */
+    static void writeSample(
+        StringBuilder out,
+        String name,
+        String[] labelNames,
+        String[] labelValues,
+        String extraLabelName,
+        String extraLabelValue,
+        double value
+    ) {
+        out.append(name);
+        if (labelNames.length > 0 || extraLabelName != null) {
+            out.append('{');
+            boolean first = true;
+            for (int i = 0; i < labelNames.length; i++) {
+                if (!first) out.append(',');
+                writeLabel(out, labelNames[i], labelValues[i]);
+                first = false;
+            }
+            if (extraLabelName != null) {
+                if (!first) out.append(',');
+                writeLabel(out, extraLabelName, extraLabelValue);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    private static void writeLabel(StringBuilder out, String labelName, String labelValue) {
+        out.append(labelName).append("=\"");
+        String value = labelValue == null ? "" : labelValue;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') out.append("\\\\");
+            else if (c == '"') out.append("\\\"");
+            else if (c == '\n') out.append("\\n");
+            else out.append(c);
+        }
+        out.append('"');
+    }
+
+    static String formatValue(double value) {
+        if (Double.isNaN(value)) return "NaN";
+        if (value == Double.POSITIVE_INFINITY) return "+Inf";
+        if (value == Double.NEGATIVE_INFINITY) return "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,84 @@
+package org.opentripplanner.middleware.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of the application metrics, which are exposed in the Prometheus text format by the /metrics endpoint (see
+ * {@link #scrape()}). Metrics are kept in memory and do not depend on any external service.
+ *
+ * Timers are usually held in a static field of the class they measure, e.g.:
+ *
+ * <pre>
+ * private static final Timer REQUEST_TIMER = Metrics.timer("otp_middleware_x_seconds", "Duration of x.", "label");
+ * </pre>
+ */
+public class Metrics {
+    /** Prefix of the names of all the application metrics. */
+    public static final String PREFIX = "otp_middleware_";
+
+    /** Content type of {@link #scrape()}. */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Metrics by name, sorted so that scrapes are stable. */
+    private static final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Register a timer with the given name (which should end with _seconds) and label names.
+     */
+    public static Timer timer(String name, String help, String... labelNames) {
+        return register(new Timer(name, help, labelNames));
+    }
+
+    /**
+     * Register a gauge whose value is read from the supplier each time the metrics are scraped.
+     */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        register(new FunctionMetric(name, help, "gauge", value));
+    }
+
+    /**
+     * Register a counter (whose name should end with _total) whose value is read from the supplier each time the
+     * metrics are scraped. The supplied value must never decrease.
+     */
+    public static void counter(String name, String help, DoubleSupplier value) {
+        register(new FunctionMetric(name, help, "counter", value));
+    }
+
+    private static <M extends Metric> M register(M metric) {
+        if (metrics.putIfAbsent(metric.name, metric) != null) {
+            throw new IllegalArgumentException("A metric is already registered with name " + metric.name);
+        }
+        return metric;
+    }
+
+    /**
+     * Remove the metric registered with the given name, if any. This is used only in tests, so that a test registering
+     * a metric can be run again in the same JVM.
+     */
+    static void unregister(String name) {
+        metrics.remove(name);
+    }
+
+    /**
+     * @return whether a metric is registered with the given name.
+     */
+    public static boolean isRegistered(String name) {
+        return metrics.containsKey(name);
+    }
+
+    /**
+     * @return the current values of all metrics in the Prometheus text exposition format (version 0.0.4).
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : metrics.values()) {
+            metric.write(out);
+        }
+        return out.toString();
+    }
+}
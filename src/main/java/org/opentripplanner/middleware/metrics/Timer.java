@@ -0,0 +1,132 @@
+package org.opentripplanner.middleware.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Records the duration of an operation in a histogram (exposed in seconds), with one set of values per combination of
+ * label values. Recording is lock-free so that timers can be used on hot paths.
+ */
+public class Timer extends Metric {
+    /** Upper bounds (in seconds) of the histogram buckets, the default buckets of the Prometheus client libraries. */
+    private static final double[] BUCKET_BOUNDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final String[] labelNames;
+    private final Map<List<String>, Histogram> histograms = new ConcurrentHashMap<>();
+
+    Timer(String name, String help, String... labelNames) {
+        super(name, help);
+        this.labelNames = labelNames;
+    }
+
+    /**
+     * Record the duration of an operation, in nanoseconds, with the given label values (in the order of the label
+     * names of this timer).
+     */
+    public void record(long nanos, String... labelValues) {
+        if (labelValues.length != labelNames.length) {
+            throw new IllegalArgumentException(String.format(
+                "Timer %s expects %d label values, got %d.", name, labelNames.length, labelValues.length
+            ));
+        }
+        histograms.computeIfAbsent(Arrays.asList(labelValues), key -> new Histogram()).observe(nanos);
+    }
+
+    /**
+     * Record the time elapsed since the given start time, obtained from {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos, String... labelValues) {
+        record(System.nanoTime() - startNanos, labelValues);
+    }
+
+    /**
+     * Run the operation and record its duration, including if it throws an exception.
+     */
+    public <T> T time(Supplier<T> operation, String... labelValues) {
+        long startNanos = System.nanoTime();
+        try {
+            return operation.get();
+        } finally {
+            recordSince(startNanos, labelValues);
+        }
+    }
+
+    /**
+     * Run the operation and record its duration, including if it throws an exception.
+     */
+    public void time(Runnable operation, String... labelValues) {
+        long startNanos = System.nanoTime();
+        try {
+            operation.run();
+        } finally {
+            recordSince(startNanos, labelValues);
+        }
+    }
+
+    /**
+     * @return the number of durations recorded with the given label values.
+     */
+    public long getCount(String... labelValues) {
+        Histogram histogram = histograms.get(Arrays.asList(labelValues));
+        return histogram == null ? 0 : histogram.count.sum();
+    }
+
+    @Override
+    String type() {
+        return "histogram";
+    }
+
+    @Override
+    void writeSamples(StringBuilder out) {
+        for (Map.Entry<List<String>, Histogram> entry : histograms.entrySet()) {
+            String[] labelValues = entry.getKey().toArray(new String[0]);
+            Histogram histogram = entry.getValue();
+            // Buckets are cumulative in the exposition format.
+            long cumulativeCount = 0;
+            for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                cumulativeCount += histogram.buckets[i].sum();
+                writeSample(
+                    out, name + "_bucket", labelNames, labelValues, "le", formatValue(BUCKET_BOUNDS[i]), cumulativeCount
+                );
+            }
+            // The count is read after the buckets so that the +Inf bucket is never lower than the other buckets.
+            long count = Math.max(histogram.count.sum(), cumulativeCount);
+            writeSample(out, name + "_bucket", labelNames, labelValues, "le", "+Inf", count);
+            writeSample(out, name + "_sum", labelNames, labelValues, null, null, histogram.sumSeconds.sum());
+            writeSample(out, name + "_count", labelNames, labelValues, null, null, count);
+        }
+    }
+
+    /**
+     * The counts of a histogram for one combination of label values. Bucket counts are not cumulative (a duration is
+     * only counted in the first bucket that can hold it, and not at all if it exceeds the last bound).
+     */
+    private static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length];
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sumSeconds = new DoubleAdder();
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        private void observe(long nanos) {
+            double seconds = nanos / NANOS_PER_SECOND;
+            for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                if (seconds <= BUCKET_BOUNDS[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            sumSeconds.add(seconds);
+            count.increment();
+        }
+    }
+}
@@ -10,7 +10,9 @@ import org.opentripplanner.middleware.otp.OtpDispatcherResponse;
 import org.opentripplanner.middleware.otp.OtpRequest;
 import org.opentripplanner.middleware.otp.response.Itinerary;
 import org.opentripplanner.middleware.otp.response.TripPlan;
+import org.opentripplanner.middleware.utils.ConfigUtils;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.opentripplanner.middleware.utils.ItineraryFingerprint;
 import org.opentripplanner.middleware.utils.ItineraryUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +24,12 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 import static org.opentripplanner.middleware.utils.DateTimeUtils.DEFAULT_DATE_FORMAT_PATTERN;
 
@@ -33,6 +41,17 @@ import static org.opentripplanner.middleware.utils.DateTimeUtils.DEFAULT_DATE_FO
 public class ItineraryExistence extends Model {
     private static final Logger LOG = LoggerFactory.getLogger(ItineraryExistence.class);
 
+    /**
+     * The maximum number of OTP requests in flight at once for a single itinerary existence check.
+     */
+    private static final int MAX_CONCURRENT_REQUESTS =
+        ConfigUtils.getConfigPropertyAsInt("ITINERARY_EXISTENCE_MAX_CONCURRENT_REQUESTS", 7);
+
+    /**
+     * The time allowed for all OTP requests of an itinerary existence check to complete.
+     */
+    private static final long CHECK_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
     /**
      * Initial set of requests on which to base the itinerary existence checks. We do not want these persisted.
      */
@@ -41,6 +60,19 @@ public class ItineraryExistence extends Model {
      * The initial reference itinerary to compare against itinerary match candidates.
      */
     private transient Itinerary referenceItinerary;
+    /**
+     * The fingerprint of the reference itinerary, used to quickly reject candidates from the responses for each day.
+     */
+    private transient ItineraryFingerprint referenceFingerprint;
+    /**
+     * The maximum number of OTP requests in flight at once, and the time allowed for the check to complete.
+     */
+    private transient int maxConcurrentRequests;
+    private transient long checkTimeoutMillis;
+    /**
+     * Sends the OTP plan request for a date.
+     */
+    private transient Function<OtpRequest, CompletableFuture<OtpDispatcherResponse>> planRequestSender;
     public ItineraryExistenceResult monday;
     public ItineraryExistenceResult tuesday;
     public ItineraryExistenceResult wednesday;
@@ -74,9 +106,34 @@ public class ItineraryExistence extends Model {
     public ItineraryExistence() {}
 
     public ItineraryExistence(List<OtpRequest> otpRequests, Itinerary referenceItinerary, boolean tripIsArriveBy) {
+        this(
+            otpRequests,
+            referenceItinerary,
+            tripIsArriveBy,
+            MAX_CONCURRENT_REQUESTS,
+            CHECK_TIMEOUT_MILLIS,
+            otpRequest -> OtpDispatcher.sendOtpPlanRequestAsync(OtpVersion.OTP1, otpRequest)
+        );
+    }
+
+    /**
+     * Constructor used only for testing, with the given concurrency, time allowed and OTP requests.
+     */
+    ItineraryExistence(
+        List<OtpRequest> otpRequests,
+        Itinerary referenceItinerary,
+        boolean tripIsArriveBy,
+        int maxConcurrentRequests,
+        long checkTimeoutMillis,
+        Function<OtpRequest, CompletableFuture<OtpDispatcherResponse>> planRequestSender
+    ) {
         this.otpRequests = otpRequests;
         this.referenceItinerary = referenceItinerary;
+        if (referenceItinerary != null) this.referenceFingerprint = new ItineraryFingerprint(referenceItinerary);
         this.tripIsArriveBy = tripIsArriveBy;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.checkTimeoutMillis = checkTimeoutMillis;
+        this.planRequestSender = planRequestSender;
     }
 
     /**
@@ -170,47 +227,80 @@ public class ItineraryExistence extends Model {
     }
 
     /**
-     * Checks whether the itinerary of a trip matches any of the OTP itineraries from the trip query params.
+     * Checks whether the itinerary of a trip matches any of the OTP itineraries from the trip query params. Up to
+     * {@link #MAX_CONCURRENT_REQUESTS} OTP requests are in flight at once, and the check gives up on requests that have
+     * not completed within {@link #CHECK_TIMEOUT_MILLIS} (the dates for these are marked invalid).
+     *
+     * Requests still queued when the check gives up are cancelled and never sent to OTP, requests already sent run to
+     * completion but their results are ignored.
      */
     public void checkExistence() {
-        // TODO: Consider multi-threading?
-        // Check existence of itinerary in the response for each OTP request.
-        for (OtpRequest otpRequest : otpRequests) {
-            boolean hasMatchingItinerary = false;
-            DayOfWeek dayOfWeek = otpRequest.dateTime.getDayOfWeek();
+        long deadline = System.currentTimeMillis() + checkTimeoutMillis;
+        Semaphore requestPermits = new Semaphore(maxConcurrentRequests);
+        List<CompletableFuture<OtpDispatcherResponse>> requests = new ArrayList<>();
+        List<CompletableFuture<List<Itinerary>>> matchesByRequest = new ArrayList<>();
+
+        try {
+            // Send off each plan query to OTP, without exceeding the number of concurrent requests.
+            for (OtpRequest otpRequest : otpRequests) {
+                if (!requestPermits.tryAcquire(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS)) break;
+                CompletableFuture<OtpDispatcherResponse> request = planRequestSender.apply(otpRequest);
+                requests.add(request);
+                matchesByRequest.add(
+                    request
+                        .thenApply(response -> findMatchingItineraries(otpRequest, response))
+                        .exceptionally(e -> {
+                            // A failed (or cancelled) request is handled as a date without a matching itinerary.
+                            if (!request.isCancelled()) {
+                                LOG.warn("OTP request for otpRequest {} failed.", otpRequest, e);
+                            }
+                            return List.of();
+                        })
+                        .whenComplete((matches, e) -> requestPermits.release())
+                );
+            }
+            // Wait for all requests to complete.
+            CompletableFuture.allOf(matchesByRequest.toArray(new CompletableFuture[0]))
+                .get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn("Itinerary existence check did not complete within {} ms.", checkTimeoutMillis);
+        } catch (InterruptedException e) {
+            LOG.warn("Itinerary existence check was interrupted.");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Not expected, failed requests complete normally with no matching itineraries.
+            LOG.error("Itinerary existence check failed.", e);
+        }
+        // Skip the requests still queued, as their results would be ignored.
+        for (CompletableFuture<OtpDispatcherResponse> request : requests) {
+            request.cancel(false);
+        }
+
+        // Record the results in request order, so that valid dates and itineraries remain sorted by date.
+        for (int i = 0; i < otpRequests.size(); i++) {
+            OtpRequest otpRequest = otpRequests.get(i);
+            // A request that completed before the check gave up may still be looking for matching itineraries, which
+            // is brief, so wait for these rather than marking the date invalid.
+            boolean completed = i < requests.size() && requests.get(i).isDone() && !requests.get(i).isCancelled();
             // Get existing result for day of week if a date for that day of week has already been processed, or create
             // a new one.
+            DayOfWeek dayOfWeek = otpRequest.dateTime.getDayOfWeek();
             ItineraryExistenceResult result = getResultForDayOfWeek(dayOfWeek);
             if (result == null) {
                 result = new ItineraryExistenceResult();
                 setResultForDayOfWeek(result, dayOfWeek);
             }
-            // Send off each plan query to OTP.
-            OtpDispatcherResponse response = OtpDispatcher.sendOtpPlanRequest(OtpVersion.OTP1, otpRequest);
-            TripPlan plan = null;
-            try {
-                plan = response.getResponse().plan;
-            } catch (JsonProcessingException e) {
-                LOG.error("Could not parse plan response for otpRequest {}", otpRequest, e);
-            }
-            // Handle response if valid itineraries exist.
-            if (plan != null && plan.itineraries != null) {
-                for (Itinerary itineraryCandidate : plan.itineraries) {
-                    // If a matching itinerary on the same service day as the request date is found,
-                    // save the date with the matching itinerary.
-                    // (The matching itinerary will replace the original trip.itinerary.)
-                    if (
-                        ItineraryUtils.occursOnSameServiceDay(itineraryCandidate, otpRequest.dateTime, tripIsArriveBy) &&
-                        ItineraryUtils.itinerariesMatch(referenceItinerary, itineraryCandidate)
-                    ) {
-                        result.handleValidDate(otpRequest.dateTime, itineraryCandidate);
-                        hasMatchingItinerary = true;
-                    }
-                }
-            }
-            if (!hasMatchingItinerary) {
-                // If no match was found for the date, mark day of week as non-existent for the itinerary.
+            List<Itinerary> matchingItineraries = completed ? matchesByRequest.get(i).join() : List.of();
+            if (matchingItineraries.isEmpty()) {
+                // If no match was found for the date (or the request failed or timed out), mark day of week as
+                // non-existent for the itinerary.
                 result.handleInvalidDate(otpRequest.dateTime);
+            } else {
+                // Save the date with the matching itineraries.
+                // (The matching itinerary will replace the original trip.itinerary.)
+                for (Itinerary itinerary : matchingItineraries) {
+                    result.handleValidDate(otpRequest.dateTime, itinerary);
+                }
             }
         }
         if (!this.allCheckedDaysAreValid()) {
@@ -222,6 +312,32 @@ public class ItineraryExistence extends Model {
         }
     }
 
+    /**
+     * @return the itineraries in the given OTP response that match the reference itinerary on the same service day as
+     * the request date.
+     */
+    private List<Itinerary> findMatchingItineraries(OtpRequest otpRequest, OtpDispatcherResponse response) {
+        TripPlan plan = null;
+        try {
+            plan = response.getResponse().plan;
+        } catch (JsonProcessingException e) {
+            LOG.error("Could not parse plan response for otpRequest {}", otpRequest, e);
+        }
+        List<Itinerary> matchingItineraries = new ArrayList<>();
+        // Handle response if valid itineraries exist.
+        if (plan != null && plan.itineraries != null) {
+            for (Itinerary itineraryCandidate : plan.itineraries) {
+                if (
+                    ItineraryUtils.occursOnSameServiceDay(itineraryCandidate, otpRequest.dateTime, tripIsArriveBy) &&
+                    ItineraryUtils.itinerariesMatch(referenceFingerprint, referenceItinerary, itineraryCandidate)
+                ) {
+                    matchingItineraries.add(itineraryCandidate);
+                }
+            }
+        }
+        return matchingItineraries;
+    }
+
     /**
      * Checks whether there is at least one day of the week where the trip is still possible. If there is, then true is
      * returned.
@@ -0,0 +1,21 @@
+package org.opentripplanner.middleware.models;
+
+import java.util.Date;
+
+/**
+ * Lightweight read model of any persisted {@link Model} that belongs to a user (e.g., a monitored trip or a trip
+ * request). It is decoded with only the fields below (see
+ * {@link org.opentripplanner.middleware.persistence.TypedPersistence#getById(String, Class)}), which avoids reading
+ * and decoding the whole model when only its identity, owner, or creation date is needed (e.g., for ownership checks).
+ */
+public class ModelReference {
+    public String id;
+    public String userId;
+    public Date dateCreated;
+
+    /**
+     * This no-arg constructor exists to make MongoDB happy.
+     */
+    public ModelReference() {
+    }
+}
@@ -172,6 +172,9 @@ public class MonitoredTrip extends Model {
 
     public JourneyState journeyState = new JourneyState();
 
+    /** Field name of {@link JourneyState#nextCheckDueEpochMillis}, for querying and updating trips by due time. */
+    public static final String NEXT_CHECK_DUE_FIELD_NAME = "journeyState.nextCheckDueEpochMillis";
+
     /**
      * Whether to notify the user when the monitoring of this trip starts.
      */
@@ -197,12 +200,15 @@ public class MonitoredTrip extends Model {
      * Checks that, for each query provided, an itinerary exists.
      * @param checkAllDays Determines whether all days of the week are checked,
      *                     or just the days the trip is set to be monitored.
+     * @param replaceItinerary Whether to replace the itinerary with a verified one. This is only done if all checked
+     *                         days are valid.
      * @return a summary of the itinerary existence results for each day of the week
      */
     public boolean checkItineraryExistence(boolean checkAllDays, boolean replaceItinerary) throws URISyntaxException {
         // Get queries to execute by date.
         List<OtpRequest> queriesByDate = getItineraryExistenceQueries(checkAllDays);
         this.itineraryExistence = new ItineraryExistence(queriesByDate, this.itinerary, this.arriveBy);
+        // Check every date, so that the message of the result lists all invalid days to the user.
         this.itineraryExistence.checkExistence();
         boolean itineraryExists = this.itineraryExistence.allCheckedDaysAreValid();
         // If itinerary should be replaced, do so if all checked days are valid.
@@ -0,0 +1,21 @@
+package org.opentripplanner.middleware.models;
+
+import java.util.Date;
+
+/**
+ * A lease on a {@link MonitoredTrip}, held while the trip is being checked or updated. The id of the lock is the id of
+ * the trip, so that at most one lock document can exist per trip. A lease that has expired (e.g., because the instance
+ * holding it crashed) can be taken over by any other instance. See
+ * {@link org.opentripplanner.middleware.tripmonitor.jobs.MonitoredTripLocks}.
+ */
+public class MonitoredTripLock extends Model {
+    /** Random token identifying the holder of the lease. Only the holder can release the lock. */
+    public String leaseToken;
+
+    /** Time after which the lease is considered abandoned. */
+    public Date expiresAt;
+
+    /** This no-arg constructor exists to make MongoDB happy. */
+    public MonitoredTripLock() {
+    }
+}
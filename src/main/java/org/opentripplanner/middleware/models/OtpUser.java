@@ -97,8 +97,8 @@ public class OtpUser extends AbstractUser {
         }
 
         // Delete trip request history (related trip summaries are deleted in TripRequest#delete)
-        for (TripRequest request : TripRequest.requestsForUser(this.id)) {
-            boolean success = request.delete();
+        for (ModelReference request : TripRequest.referencesForUser(this.id)) {
+            boolean success = TripRequest.deleteById(request.id);
             if (!success) {
                 LOG.error("Error deleting user's ({}) trip request {}", this.id, request.id);
                 return false;
@@ -2,25 +2,43 @@ package org.opentripplanner.middleware.models;
 
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
 import org.bson.codecs.pojo.annotations.BsonIgnore;
 import org.bson.conversions.Bson;
 import org.opentripplanner.middleware.connecteddataplatform.TripHistoryUploadStatus;
 import org.opentripplanner.middleware.persistence.Persistence;
 
 import java.time.LocalDateTime;
+import java.util.Date;
 import java.util.Objects;
+import java.util.UUID;
 
 /**
  * A trip history upload represents an historic hour when trip history was or is planned to be uploaded to S3. If the
  * status is 'pending' the trip history is waiting to be uploaded. If the status is 'complete' the trip history has been
  * uploaded.
+ *
+ * Each hour is a checkpoint of the upload process: a pending hour is leased by the worker processing it (see
+ * {@link #lease}) and is marked as complete as soon as its own upload is done, regardless of the other hours being
+ * processed. If processing stops (e.g., because the instance crashed), the hours not yet completed are processed again
+ * once their lease has expired.
  */
 public class TripHistoryUpload extends Model {
 
+    private static final String STATUS_FIELD_NAME = "status";
+    private static final String LEASE_TOKEN_FIELD_NAME = "leaseToken";
+    private static final String LEASE_EXPIRES_AT_FIELD_NAME = "leaseExpiresAt";
+
     public LocalDateTime uploadHour;
     public String status = TripHistoryUploadStatus.PENDING.getValue();
     public int numTripRequestsUploaded = 0;
 
+    /** Token of the worker processing this upload hour, or null if the hour is not being processed. */
+    public String leaseToken;
+
+    /** Time after which the upload hour can be processed by another worker, if not completed by then. */
+    public Date leaseExpiresAt;
+
     /** This no-arg constructor exists to make MongoDB happy. */
     public TripHistoryUpload() {
     }
@@ -59,6 +77,77 @@ public class TripHistoryUpload extends Model {
         );
     }
 
+    /**
+     * Lease a pending upload hour so that it is processed by a single worker, across all middleware instances. An
+     * upload hour that is already leased can only be leased again once its lease has expired.
+     *
+     * @return the lease token to pass to {@link #renew}, {@link #complete} or {@link #release}, or null if the upload hour is already
+     * leased or is no longer pending.
+     */
+    public static String lease(String id, long leaseDurationMillis) {
+        String leaseToken = UUID.randomUUID().toString();
+        Date now = new Date();
+        TripHistoryUpload leased = Persistence.tripHistoryUploads.getMongoCollection().findOneAndUpdate(
+            Filters.and(
+                Filters.eq(id),
+                Filters.eq(STATUS_FIELD_NAME, TripHistoryUploadStatus.PENDING.getValue()),
+                Filters.or(
+                    Filters.eq(LEASE_EXPIRES_AT_FIELD_NAME, null),
+                    Filters.lte(LEASE_EXPIRES_AT_FIELD_NAME, now)
+                )
+            ),
+            Updates.combine(
+                Updates.set(LEASE_TOKEN_FIELD_NAME, leaseToken),
+                Updates.set(LEASE_EXPIRES_AT_FIELD_NAME, new Date(now.getTime() + leaseDurationMillis)),
+                Updates.set("lastUpdated", now)
+            )
+        );
+        return leased == null ? null : leaseToken;
+    }
+
+    /**
+     * Extend the lease on an upload hour, provided it is still held with the given lease token.
+     *
+     * @return false if the lease was lost (e.g., it expired and the upload hour was leased by another worker).
+     */
+    public static boolean renew(String id, String leaseToken, long leaseDurationMillis) {
+        return Persistence.tripHistoryUploads.getMongoCollection().updateOne(
+            Filters.and(Filters.eq(id), Filters.eq(LEASE_TOKEN_FIELD_NAME, leaseToken)),
+            Updates.set(LEASE_EXPIRES_AT_FIELD_NAME, new Date(System.currentTimeMillis() + leaseDurationMillis))
+        ).getMatchedCount() > 0;
+    }
+
+    /**
+     * Mark a leased upload hour as complete, recording the number of trip requests uploaded.
+     *
+     * @return false if the lease was lost (e.g., it expired and the upload hour was leased by another worker).
+     */
+    public static boolean complete(String id, String leaseToken, int numTripRequestsUploaded) {
+        return Persistence.tripHistoryUploads.getMongoCollection().updateOne(
+            Filters.and(Filters.eq(id), Filters.eq(LEASE_TOKEN_FIELD_NAME, leaseToken)),
+            Updates.combine(
+                Updates.set(STATUS_FIELD_NAME, TripHistoryUploadStatus.COMPLETED.getValue()),
+                Updates.set("numTripRequestsUploaded", numTripRequestsUploaded),
+                Updates.set(LEASE_TOKEN_FIELD_NAME, null),
+                Updates.set(LEASE_EXPIRES_AT_FIELD_NAME, null),
+                Updates.set("lastUpdated", new Date())
+            )
+        ).getMatchedCount() > 0;
+    }
+
+    /**
+     * Release the lease of an upload hour that could not be processed, so that it is retried on the next run.
+     */
+    public static void release(String id, String leaseToken) {
+        Persistence.tripHistoryUploads.getMongoCollection().updateOne(
+            Filters.and(Filters.eq(id), Filters.eq(LEASE_TOKEN_FIELD_NAME, leaseToken)),
+            Updates.combine(
+                Updates.set(LEASE_TOKEN_FIELD_NAME, null),
+                Updates.set(LEASE_EXPIRES_AT_FIELD_NAME, null)
+            )
+        );
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
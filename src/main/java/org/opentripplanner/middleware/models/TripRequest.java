@@ -79,12 +79,26 @@ public class TripRequest extends Model {
         return Persistence.tripRequests.getFiltered(filterByUserId(userId));
     }
 
+    /**
+     * Get references (id and creation date) to all trip requests for a given user id, without reading the requests.
+     */
+    public static FindIterable<ModelReference> referencesForUser(String userId) {
+        return Persistence.tripRequests.getFiltered(filterByUserId(userId), ModelReference.class);
+    }
+
     @Override
     public boolean delete() {
-        boolean summariesDeleted = Persistence.tripSummaries.removeFiltered(eq("tripRequestId", this.id));
+        return deleteById(this.id);
+    }
+
+    /**
+     * Delete the trip request with the given id and its linked trip summaries.
+     */
+    public static boolean deleteById(String tripRequestId) {
+        boolean summariesDeleted = Persistence.tripSummaries.removeFiltered(eq("tripRequestId", tripRequestId));
         if (!summariesDeleted) {
-            LOG.error("Could not delete linked trip summary for request ID {}", this.id);
+            LOG.error("Could not delete linked trip summary for request ID {}", tripRequestId);
         }
-        return Persistence.tripRequests.removeById(this.id);
+        return Persistence.tripRequests.removeById(tripRequestId);
     }
 }
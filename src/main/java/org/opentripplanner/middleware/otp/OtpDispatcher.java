@@ -2,6 +2,9 @@ package org.opentripplanner.middleware.otp;
 
 import java.util.Map;
 import org.eclipse.jetty.http.HttpMethod;
+import org.opentripplanner.middleware.metrics.Metrics;
+import org.opentripplanner.middleware.metrics.Timer;
+import org.opentripplanner.middleware.utils.DaemonThreadFactory;
 import org.opentripplanner.middleware.utils.HttpResponseValues;
 import org.opentripplanner.middleware.utils.HttpUtils;
 import org.opentripplanner.middleware.utils.ItineraryUtils;
@@ -10,7 +13,14 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.UriBuilder;
 import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
 import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsText;
 
 /**
@@ -34,12 +44,36 @@ public class OtpDispatcher {
 
     private static final int OTP_SERVER_REQUEST_TIMEOUT_IN_SECONDS = 10;
 
+    /**
+     * The maximum number of asynchronous requests in flight to each OTP server. Further requests are queued.
+     */
+    private static final int OTP_MAX_CONCURRENT_REQUESTS = getConfigPropertyAsInt("OTP_MAX_CONCURRENT_REQUESTS", 16);
+
+    /**
+     * One executor per OTP version, so that a slow OTP server cannot starve requests made to another one.
+     */
+    private static final Map<OtpVersion, ExecutorService> requestExecutors = new ConcurrentHashMap<>();
+
+    /**
+     * Duration of the requests sent to OTP (not counting plan responses served from {@link OtpPlanResponseCache}), by
+     * OTP version and response status ("error" if no response was received).
+     */
+    private static final Timer REQUEST_TIMER = Metrics.timer(
+        Metrics.PREFIX + "otp_request_seconds",
+        "Duration of the requests sent to OTP.",
+        "version",
+        "status"
+    );
+
     /**
      * Provides a response from the OTP server target service based on the query parameters provided.
      */
     public static OtpDispatcherResponse sendOtpRequest(OtpVersion version, String query, String path) {
         LOG.debug("Original query string: {}", query);
-        return sendOtpRequest(buildOtpUri(version, query, path));
+        if (path != null && path.endsWith(OTP_PLAN_ENDPOINT)) {
+            return sendCachedOtpPlanRequest(version, query, path);
+        }
+        return sendOtpRequest(version, buildOtpUri(version, query, path));
     }
 
     /**
@@ -54,7 +88,7 @@ public class OtpDispatcher {
             String bodyContent
     ) {
         LOG.debug("Original query string: {}", query);
-        return sendOtpRequest(buildOtpUri(version, query, path), HttpMethod.POST, headers, bodyContent);
+        return sendOtpRequest(version, buildOtpUri(version, query, path), HttpMethod.POST, headers, bodyContent);
     }
 
     /**
@@ -62,7 +96,23 @@ public class OtpDispatcher {
      */
     public static OtpDispatcherResponse sendOtpPlanRequest(OtpVersion version, String query) {
         LOG.debug("Original query string: {}", query);
-        return sendOtpRequest(buildOtpUri(version, query, OTP_PLAN_ENDPOINT));
+        return sendCachedOtpPlanRequest(version, query, OTP_PLAN_ENDPOINT);
+    }
+
+    /**
+     * Provides a plan response from {@link OtpPlanResponseCache}, or from the OTP server if an identical request has not
+     * been made recently.
+     */
+    private static OtpDispatcherResponse sendCachedOtpPlanRequest(OtpVersion version, String query, String path) {
+        URI uri = buildOtpUri(version, query, path);
+        return new OtpDispatcherResponse(
+            OtpPlanResponseCache.get(
+                version,
+                path,
+                query,
+                () -> getRawResponse(version, uri, HttpMethod.GET, null, null)
+            )
+        );
     }
 
     /**
@@ -72,6 +122,65 @@ public class OtpDispatcher {
         return sendOtpPlanRequest(version, ItineraryUtils.toQueryString(otpRequest.requestParameters));
     }
 
+    /**
+     * Asynchronously provides a response from the OTP server target service based on the query parameters provided.
+     * At most {@link #OTP_MAX_CONCURRENT_REQUESTS} requests per OTP version are in flight at once. Cancelling the
+     * returned future while the request is queued skips the request, a request already sent runs to completion.
+     */
+    public static CompletableFuture<OtpDispatcherResponse> sendOtpRequestAsync(
+        OtpVersion version,
+        String query,
+        String path
+    ) {
+        CompletableFuture<OtpDispatcherResponse> response = new CompletableFuture<>();
+        getRequestExecutor(version).execute(() -> {
+            // The request was cancelled while queued.
+            if (response.isDone()) return;
+            try {
+                response.complete(sendOtpRequest(version, query, path));
+            } catch (Throwable e) {
+                response.completeExceptionally(e);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Asynchronously provides a response from the OTP server target service based on the query parameters provided.
+     */
+    public static CompletableFuture<OtpDispatcherResponse> sendOtpPlanRequestAsync(OtpVersion version, String query) {
+        return sendOtpRequestAsync(version, query, OTP_PLAN_ENDPOINT);
+    }
+
+    /**
+     * Asynchronously provides a response from the OTP server target service based on the input {@link OtpRequest}.
+     */
+    public static CompletableFuture<OtpDispatcherResponse> sendOtpPlanRequestAsync(
+        OtpVersion version,
+        OtpRequest otpRequest
+    ) {
+        return sendOtpPlanRequestAsync(version, ItineraryUtils.toQueryString(otpRequest.requestParameters));
+    }
+
+    /**
+     * Get (creating if needed) the bounded executor for requests to the given OTP version. Idle threads time out, so no
+     * threads are kept for versions that are not in use.
+     */
+    private static ExecutorService getRequestExecutor(OtpVersion version) {
+        return requestExecutors.computeIfAbsent(version, v -> {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                OTP_MAX_CONCURRENT_REQUESTS,
+                OTP_MAX_CONCURRENT_REQUESTS,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new DaemonThreadFactory(v.name().toLowerCase() + "-request")
+            );
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        });
+    }
+
     /**
      * Provides a response from the OTP server target service based on the query parameters provided. This is used only
      * during testing.
@@ -97,27 +206,51 @@ public class OtpDispatcher {
      * Simplified version of method that provides an easy interface if you don't care about setting
      * method, headers or body.
      */
-    private static OtpDispatcherResponse sendOtpRequest(URI uri) {
-       return sendOtpRequest(uri, HttpMethod.GET, null, null);
+    private static OtpDispatcherResponse sendOtpRequest(OtpVersion version, URI uri) {
+       return sendOtpRequest(version, uri, HttpMethod.GET, null, null);
     }
     /**
      * Makes a call to the OTP server end point. The original response and status are wrapped in a single object and
      * returned. It will fail if a connection is not made.
      */
     private static OtpDispatcherResponse sendOtpRequest(
+            OtpVersion version,
+            URI uri,
+            HttpMethod method,
+            Map<String, String> headers,
+            String bodyContent
+    ) {
+        return new OtpDispatcherResponse(getRawResponse(version, uri, method, headers, bodyContent));
+    }
+
+    /**
+     * Makes a call to the OTP server end point and returns the raw response values, or null if a connection could not
+     * be made.
+     */
+    private static HttpResponseValues getRawResponse(
+            OtpVersion version,
             URI uri,
             HttpMethod method,
             Map<String, String> headers,
             String bodyContent
     ) {
         LOG.info("Sending request to OTP: {}", uri.toString());
-        HttpResponseValues otpResponse =
-            HttpUtils.httpRequestRawResponse(
+        long startNanos = System.nanoTime();
+        HttpResponseValues response = null;
+        try {
+            response = HttpUtils.httpRequestRawResponse(
                 uri,
                 OTP_SERVER_REQUEST_TIMEOUT_IN_SECONDS,
                 method,
                 headers,
                 bodyContent);
-        return new OtpDispatcherResponse(otpResponse);
+            return response;
+        } finally {
+            REQUEST_TIMER.recordSince(
+                startNanos,
+                version.name(),
+                response == null ? "error" : Integer.toString(response.status)
+            );
+        }
     }
 }
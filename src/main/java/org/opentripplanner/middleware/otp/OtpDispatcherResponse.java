@@ -2,7 +2,6 @@ package org.opentripplanner.middleware.otp;
 
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import org.apache.commons.lang3.SerializationUtils;
 import org.apache.http.Header;
 import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
 import org.opentripplanner.middleware.otp.response.OtpResponse;
@@ -62,23 +61,33 @@ public class OtpDispatcherResponse implements Serializable {
     public String responseBody = null;
 
     /**
-     * Response. POJO version of response from an OTP server.
-     * Do not persist in case these classes change. This should always be re-instantiated from responseBody if needed.
+     * Response. POJO version of response from an OTP server, parsed from {@link #responseBody} on first access and
+     * reused afterwards. Not serialized in case these classes change.
      */
-    public OtpResponse getResponse() throws JsonProcessingException {
-        try {
-            return JsonUtils.getPOJOFromJSON(responseBody, OtpResponse.class);
-        } catch (JsonProcessingException e) {
-            BugsnagReporter.reportErrorToBugsnag("Failed to parse OTP response!", responseBody, e);
-            throw e;
+    private transient OtpResponse response;
+
+    /**
+     * Response. POJO version of response from an OTP server. The response body is only deserialized on the first call,
+     * so callers that modify the returned response without wanting to affect other users of this instance should work
+     * on a {@link #clone()}.
+     */
+    public synchronized OtpResponse getResponse() throws JsonProcessingException {
+        if (response == null) {
+            try {
+                response = JsonUtils.getPOJOFromJSON(responseBody, OtpResponse.class);
+            } catch (JsonProcessingException e) {
+                BugsnagReporter.reportErrorToBugsnag("Failed to parse OTP response!", responseBody, e);
+                throw e;
+            }
         }
+        return response;
     }
 
-    public void setResponse(OtpResponse response) {
+    public synchronized void setResponse(OtpResponse response) {
         responseBody = JsonUtils.toJson(response);
+        this.response = response;
     }
 
-
     @Override
     public String toString() {
         // Only include the plan response if requestUri.path ends with OTP_PLAN_ENDPOINT.
@@ -100,13 +109,17 @@ public class OtpDispatcherResponse implements Serializable {
                 '}';
     }
 
+    /**
+     * Copies this response without its parsed {@link OtpResponse}, so that the copy is parsed again on its own if
+     * needed. The response body and headers are immutable and are shared with the copy.
+     */
     @Override
     public OtpDispatcherResponse clone() {
-        return SerializationUtils.clone(this);
-//        OtpDispatcherResponse clonedObject = new OtpDispatcherResponse();
-//        clonedObject.statusCode = this.statusCode;
-//        clonedObject.requestUri = URI.create(this.requestUri.toString());
-//        clonedObject.responseBody = this.responseBody;
-//        return clonedObject;
+        OtpDispatcherResponse clonedObject = new OtpDispatcherResponse();
+        clonedObject.statusCode = this.statusCode;
+        clonedObject.headers = this.headers;
+        clonedObject.requestUri = this.requestUri;
+        clonedObject.responseBody = this.responseBody;
+        return clonedObject;
     }
 }
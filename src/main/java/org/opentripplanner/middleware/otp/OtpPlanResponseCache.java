@@ -0,0 +1,103 @@
+package org.opentripplanner.middleware.otp;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.opentripplanner.middleware.utils.HttpResponseValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
+
+/**
+ * Short-lived cache of OTP plan responses, keyed on the OTP version, path and normalized query parameters. Monitored
+ * trips often share the same origin, destination, modes and time, and frontends often repeat identical plan requests,
+ * so this avoids sending identical requests to OTP within a few seconds of each other. Concurrent identical requests
+ * are coalesced so that only one of them is sent to OTP and the others wait for its response.
+ *
+ * Only successful responses are retained. Because cached responses may be up to {@link #OTP_PLAN_CACHE_TTL_SECONDS}
+ * old, the TTL should stay well below the trip monitoring frequency. A TTL of zero disables the cache.
+ */
+public class OtpPlanResponseCache {
+    private static final Logger LOG = LoggerFactory.getLogger(OtpPlanResponseCache.class);
+
+    private static final int OTP_PLAN_CACHE_TTL_SECONDS = getConfigPropertyAsInt("OTP_PLAN_CACHE_TTL_SECONDS", 30);
+    private static final int OTP_PLAN_CACHE_MAX_SIZE_MB = getConfigPropertyAsInt("OTP_PLAN_CACHE_MAX_SIZE_MB", 64);
+
+    /**
+     * The cached responses. An empty value stands for a failed request, which is only held while concurrent identical
+     * requests are waiting for it and is invalidated right after.
+     */
+    private static final Cache<String, Optional<HttpResponseValues>> cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(OTP_PLAN_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+        // Approximate the memory used by each entry with the size of the response body (two bytes per char).
+        .maximumWeight(OTP_PLAN_CACHE_MAX_SIZE_MB * 1024L * 1024L)
+        .weigher((String key, Optional<HttpResponseValues> value) -> 2 * (key.length() + value
+            .map(v -> v.responseBody == null ? 0 : v.responseBody.length())
+            .orElse(0)))
+        .recordStats()
+        .build();
+
+    /**
+     * @return the cached response for the given plan request if available, otherwise the response obtained by running
+     * the given request (which is then cached if successful).
+     */
+    public static HttpResponseValues get(
+        OtpVersion version,
+        String path,
+        String query,
+        Supplier<HttpResponseValues> request
+    ) {
+        if (OTP_PLAN_CACHE_TTL_SECONDS <= 0) return request.get();
+        String key = makeKey(version, path, query);
+        try {
+            Optional<HttpResponseValues> response = cache.get(key, () -> Optional.ofNullable(request.get()));
+            if (response.isEmpty() || response.get().status >= 400) {
+                // Don't keep failed responses for subsequent requests.
+                cache.invalidate(key);
+            }
+            return response.orElse(null);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            LOG.error("Could not obtain OTP plan response for {}", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Create a cache key where the query parameters are sorted, so that requests with the same parameters in a
+     * different order share the same entry.
+     */
+    static String makeKey(OtpVersion version, String path, String query) {
+        List<NameValuePair> params = URLEncodedUtils.parse(query == null ? "" : query, UTF_8);
+        params.sort(
+            Comparator.comparing(NameValuePair::getName)
+                .thenComparing(p -> p.getValue() == null ? "" : p.getValue())
+        );
+        return String.format("%s %s?%s", version.name(), path, URLEncodedUtils.format(params, UTF_8));
+    }
+
+    /**
+     * @return the hit/miss statistics of the cache.
+     */
+    public static CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return the number of responses currently cached.
+     */
+    public static long size() {
+        return cache.size();
+    }
+}
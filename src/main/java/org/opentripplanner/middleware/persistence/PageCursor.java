@@ -0,0 +1,122 @@
+package org.opentripplanner.middleware.persistence;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.conversions.Bson;
+import org.opentripplanner.middleware.models.Model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.function.Function;
+
+/**
+ * Position of a page in a sorted list of models, for cursor (keyset) paging. Instead of skipping the items of the
+ * previous pages (which MongoDB has to read), a page is selected with a filter on the sort key of the last item of the
+ * previous page, so getting a page costs the same regardless of its depth. Models are sorted either by id, or by a date
+ * field (most recent first) then by id so that items with the same date are neither skipped nor repeated.
+ *
+ * The position is exchanged with clients as an opaque token, see {@link #at(String)} and {@link #getNextToken}.
+ */
+public class PageCursor<T extends Model> {
+    /** Token requesting the first page. */
+    public static final String FIRST_PAGE_TOKEN = "first";
+    private static final String ID_FIELD_NAME = "_id";
+    private static final String TOKEN_SEPARATOR = "|";
+
+    /** Name of the date field to sort by, or null to sort by id only. */
+    private final String dateFieldName;
+    private final Function<T, Date> dateFieldValue;
+    /** Sort key of the last item of the previous page, or null for the first page. */
+    private final Date lastDate;
+    private final String lastId;
+
+    private PageCursor(String dateFieldName, Function<T, Date> dateFieldValue, Date lastDate, String lastId) {
+        this.dateFieldName = dateFieldName;
+        this.dateFieldValue = dateFieldValue;
+        this.lastDate = lastDate;
+        this.lastId = lastId;
+    }
+
+    /**
+     * @return a cursor at the first page of models sorted by id.
+     */
+    public static <T extends Model> PageCursor<T> byId() {
+        return new PageCursor<>(null, null, null, null);
+    }
+
+    /**
+     * @return a cursor at the first page of models sorted by the given date field, most recent first. Models without a
+     * value for the field are not listed.
+     */
+    public static <T extends Model> PageCursor<T> byDateDescending(String fieldName, Function<T, Date> fieldValue) {
+        return new PageCursor<>(fieldName, fieldValue, null, null);
+    }
+
+    /**
+     * @return a cursor at the page identified by the given token (null or {@link #FIRST_PAGE_TOKEN} for the first
+     * page), with the same sort order as this cursor.
+     * @throws IllegalArgumentException if the token is invalid or was issued for another sort order.
+     */
+    public PageCursor<T> at(String token) {
+        if (token == null || FIRST_PAGE_TOKEN.equals(token)) {
+            return new PageCursor<>(dateFieldName, dateFieldValue, null, null);
+        }
+        String[] values;
+        try {
+            values = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+                .split("\\" + TOKEN_SEPARATOR, -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token: " + token);
+        }
+        try {
+            if (dateFieldName == null && values.length == 2 && ID_FIELD_NAME.equals(values[0])) {
+                return new PageCursor<>(null, null, null, values[1]);
+            } else if (dateFieldName != null && values.length == 3 && dateFieldName.equals(values[0])) {
+                return new PageCursor<>(dateFieldName, dateFieldValue, new Date(Long.parseLong(values[1])), values[2]);
+            }
+        } catch (NumberFormatException e) {
+            // Handled below.
+        }
+        throw new IllegalArgumentException("Invalid page token: " + token);
+    }
+
+    /**
+     * @return the filter selecting the items after the previous page, or null for the first page sorted by id.
+     */
+    public Bson getFilter() {
+        if (dateFieldName == null) {
+            return lastId == null ? null : Filters.gt(ID_FIELD_NAME, lastId);
+        }
+        // Comparisons on the date field never match documents without a date (which could not be paged through).
+        if (lastId == null) return Filters.ne(dateFieldName, null);
+        return Filters.or(
+            Filters.lt(dateFieldName, lastDate),
+            Filters.and(Filters.eq(dateFieldName, lastDate), Filters.lt(ID_FIELD_NAME, lastId))
+        );
+    }
+
+    /**
+     * @return the sort order of the pages.
+     */
+    public Bson getSort() {
+        return dateFieldName == null
+            ? Sorts.ascending(ID_FIELD_NAME)
+            : Sorts.descending(dateFieldName, ID_FIELD_NAME);
+    }
+
+    /**
+     * @return the token of the page that follows the given item (the last item of the current page).
+     */
+    public String getNextToken(T lastItem) {
+        String position = dateFieldName == null
+            ? String.join(TOKEN_SEPARATOR, ID_FIELD_NAME, lastItem.id)
+            : String.join(
+                TOKEN_SEPARATOR,
+                dateFieldName,
+                Long.toString(dateFieldValue.apply(lastItem).getTime()),
+                lastItem.id
+            );
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+}
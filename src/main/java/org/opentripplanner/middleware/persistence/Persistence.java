@@ -5,6 +5,8 @@ import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
 import org.bson.codecs.configuration.CodecProvider;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
@@ -15,6 +17,7 @@ import org.opentripplanner.middleware.models.BugsnagEventRequest;
 import org.opentripplanner.middleware.models.CDPUser;
 import org.opentripplanner.middleware.models.MonitoredComponent;
 import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.models.MonitoredTripLock;
 import org.opentripplanner.middleware.models.OtpUser;
 import org.opentripplanner.middleware.models.TrackedJourney;
 import org.opentripplanner.middleware.models.TripHistoryUpload;
@@ -23,6 +26,10 @@ import org.opentripplanner.middleware.models.TripSummary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsText;
@@ -38,6 +45,13 @@ public class Persistence {
     private static final String MONGO_USER = getConfigPropertyAsText("MONGO_USER");
     private static final String MONGO_PASSWORD = getConfigPropertyAsText("MONGO_PASSWORD");
     private static final String MONGO_DB_NAME = getConfigPropertyAsText("MONGO_DB_NAME");
+    /** Whether to only warn about (WARN) or to fail on (FAIL) differences between declared and actual indexes. */
+    private static final String MONGO_INDEX_DRIFT_ACTION = getConfigPropertyAsText("MONGO_INDEX_DRIFT_ACTION", "WARN");
+
+    private static final String AUTH0_USER_ID_FIELD_NAME = "auth0UserId";
+    private static final String USER_ID_FIELD_NAME = "userId";
+    private static final String BATCH_ID_FIELD_NAME = "batchId";
+    private static final String DATE_CREATED_FIELD_NAME = "dateCreated";
 
     private static MongoClient mongoClient;
     private static MongoDatabase mongoDatabase;
@@ -53,6 +67,7 @@ public class Persistence {
     public static TypedPersistence<TripRequest> tripRequests;
     public static TypedPersistence<TripSummary> tripSummaries;
     public static TypedPersistence<MonitoredTrip> monitoredTrips;
+    public static TypedPersistence<MonitoredTripLock> monitoredTripLocks;
 
     // admin and system reliability collections
     public static TypedPersistence<BugsnagEventRequest> bugsnagEventRequests;
@@ -93,20 +108,77 @@ public class Persistence {
         mongoDatabase = mongoClient.getDatabase(MONGO_DB_NAME);
 
         // end user persistence items
-        otpUsers = new TypedPersistence(mongoDatabase, OtpUser.class);
-        adminUsers = new TypedPersistence(mongoDatabase, AdminUser.class);
-        apiUsers = new TypedPersistence(mongoDatabase, ApiUser.class);
-        cdpUsers = new TypedPersistence(mongoDatabase, CDPUser.class);
+        // Users are looked up by their Auth0 id on every authenticated request.
+        otpUsers = new TypedPersistence(mongoDatabase, OtpUser.class)
+            .withIndex(Indexes.ascending(AUTH0_USER_ID_FIELD_NAME));
+        adminUsers = new TypedPersistence(mongoDatabase, AdminUser.class)
+            .withIndex(Indexes.ascending(AUTH0_USER_ID_FIELD_NAME));
+        apiUsers = new TypedPersistence(mongoDatabase, ApiUser.class)
+            .withIndex(Indexes.ascending(AUTH0_USER_ID_FIELD_NAME));
+        cdpUsers = new TypedPersistence(mongoDatabase, CDPUser.class)
+            .withIndex(Indexes.ascending(AUTH0_USER_ID_FIELD_NAME));
         tripHistoryUploads = new TypedPersistence(mongoDatabase, TripHistoryUpload.class);
-        trackedJourneys = new TypedPersistence(mongoDatabase, TrackedJourney.class);
-        tripRequests = new TypedPersistence(mongoDatabase, TripRequest.class);
-        tripSummaries = new TypedPersistence(mongoDatabase, TripSummary.class);
-        monitoredTrips = new TypedPersistence(mongoDatabase, MonitoredTrip.class);
+        trackedJourneys = new TypedPersistence(mongoDatabase, TrackedJourney.class)
+            .withIndex(Indexes.ascending(TrackedJourney.TRIP_ID_FIELD_NAME));
+        tripRequests = new TypedPersistence(mongoDatabase, TripRequest.class)
+            // Trip history of a user, optionally within a date range.
+            .withIndex(Indexes.ascending(USER_ID_FIELD_NAME, DATE_CREATED_FIELD_NAME))
+            // Trip requests of a batch, and the hourly connected data platform export.
+            .withIndex(Indexes.ascending(BATCH_ID_FIELD_NAME, DATE_CREATED_FIELD_NAME))
+            .withIndex(Indexes.ascending(DATE_CREATED_FIELD_NAME));
+        tripSummaries = new TypedPersistence(mongoDatabase, TripSummary.class)
+            .withIndex(Indexes.ascending(BATCH_ID_FIELD_NAME))
+            .withIndex(Indexes.ascending("tripRequestId"));
+        monitoredTrips = new TypedPersistence(mongoDatabase, MonitoredTrip.class)
+            .withIndex(Indexes.ascending(USER_ID_FIELD_NAME))
+            // Supports selecting only the trips that are due in MonitorAllTripsJob, and any query on isActive alone.
+            .withIndex(Indexes.ascending("isActive", MonitoredTrip.NEXT_CHECK_DUE_FIELD_NAME));
+        monitoredTripLocks = new TypedPersistence(mongoDatabase, MonitoredTripLock.class)
+            // Let MongoDB clean up leases that were never released. Expired leases are reclaimed on acquire regardless.
+            .withIndex(Indexes.ascending("expiresAt"), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
 
         // admin and system reliability items
         bugsnagEventRequests = new TypedPersistence(mongoDatabase, BugsnagEventRequest.class);
-        bugsnagEvents = new TypedPersistence(mongoDatabase, BugsnagEvent.class);
+        bugsnagEvents = new TypedPersistence(mongoDatabase, BugsnagEvent.class)
+            .withIndex(Indexes.ascending("receivedAt"));
         monitoredComponents = new TypedPersistence(mongoDatabase, MonitoredComponent.class);
+
+        ensureIndexes();
+    }
+
+    /**
+     * Create the indexes declared on each collection, and report any difference between the declared and the actual
+     * indexes. Depending on {@link #MONGO_INDEX_DRIFT_ACTION}, differences are either logged as warnings or prevent
+     * the application from starting.
+     */
+    private static void ensureIndexes() {
+        List<TypedPersistence<?>> collections = List.of(
+            otpUsers,
+            adminUsers,
+            apiUsers,
+            cdpUsers,
+            tripHistoryUploads,
+            trackedJourneys,
+            tripRequests,
+            tripSummaries,
+            monitoredTrips,
+            monitoredTripLocks,
+            bugsnagEventRequests,
+            bugsnagEvents,
+            monitoredComponents
+        );
+        List<String> drift = new ArrayList<>();
+        for (TypedPersistence<?> collection : collections) {
+            drift.addAll(collection.ensureIndexes());
+        }
+        if (drift.isEmpty()) return;
+        drift.forEach(LOG::warn);
+        if ("FAIL".equalsIgnoreCase(MONGO_INDEX_DRIFT_ACTION)) {
+            throw new IllegalStateException(String.format(
+                "MongoDB indexes do not match the declared indexes (%d differences), see log for details.",
+                drift.size()
+            ));
+        }
     }
 
 }
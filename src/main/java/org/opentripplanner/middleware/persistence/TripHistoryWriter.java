@@ -0,0 +1,299 @@
+package org.opentripplanner.middleware.persistence;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
+import org.opentripplanner.middleware.models.TripRequest;
+import org.opentripplanner.middleware.models.TripSummary;
+import org.opentripplanner.middleware.otp.OtpDispatcherResponse;
+import org.opentripplanner.middleware.otp.response.OtpResponse;
+import org.opentripplanner.middleware.utils.DaemonThreadFactory;
+import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
+
+/**
+ * Write-behind pipeline for trip history (trip requests and summaries) so that plan requests proxied to OTP do not wait
+ * for the database. Plan response bodies are queued and a single background thread parses them and inserts them in
+ * batches.
+ *
+ * The queue is bounded by the size of the queued response bodies, since a plan response can be large. When it is full
+ * (e.g., because MongoDB is slow), callers wait for up to {@link #TRIP_HISTORY_WRITE_MAX_WAIT_MILLIS} for room to free
+ * up, after which the entry is dropped and counted.
+ */
+public class TripHistoryWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(TripHistoryWriter.class);
+
+    private static final int TRIP_HISTORY_WRITE_QUEUE_MAX_MEGABYTES =
+        getConfigPropertyAsInt("TRIP_HISTORY_WRITE_QUEUE_MAX_MEGABYTES", 64);
+    private static final int TRIP_HISTORY_WRITE_BATCH_SIZE =
+        getConfigPropertyAsInt("TRIP_HISTORY_WRITE_BATCH_SIZE", 500);
+    private static final int TRIP_HISTORY_WRITE_MAX_WAIT_MILLIS =
+        getConfigPropertyAsInt("TRIP_HISTORY_WRITE_MAX_WAIT_MILLIS", 50);
+    /** The maximum amount of time to spend writing queued trip history when the application shuts down. */
+    private static final int SHUTDOWN_FLUSH_TIMEOUT_MILLIS = 5000;
+
+    private static final int QUEUE_CAPACITY_KILOBYTES = TRIP_HISTORY_WRITE_QUEUE_MAX_MEGABYTES * 1024;
+
+    private static final BlockingQueue<PendingTripHistory> queue = new LinkedBlockingQueue<>();
+    /** One permit per kilobyte of response body that can still be queued, taken until the entry has been written. */
+    private static final Semaphore queueCapacity = new Semaphore(QUEUE_CAPACITY_KILOBYTES);
+
+    /** Number of entries queued or being written, used to wait for the queue to be flushed. */
+    private static final AtomicLong pendingCount = new AtomicLong();
+    private static final AtomicLong writtenCount = new AtomicLong();
+    private static final AtomicLong failedCount = new AtomicLong();
+    private static final AtomicLong droppedCount = new AtomicLong();
+    /** Number of entries for which the caller had to wait because the queue was full. */
+    private static final AtomicLong blockedCount = new AtomicLong();
+
+    static {
+        Executors.newSingleThreadExecutor(new DaemonThreadFactory("trip-history-writer"))
+            .execute(TripHistoryWriter::writeBatches);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(SHUTDOWN_FLUSH_TIMEOUT_MILLIS)));
+    }
+
+    /**
+     * Queues the trip request and summary contained in the given plan response to be written to the database.
+     * @return false if the entry was dropped because the queue stayed full.
+     */
+    public static boolean enqueue(
+        String userId,
+        String batchId,
+        String fromPlace,
+        String toPlace,
+        OtpDispatcherResponse otpDispatcherResponse
+    ) {
+        PendingTripHistory entry = new PendingTripHistory(
+            userId,
+            batchId,
+            fromPlace,
+            toPlace,
+            otpDispatcherResponse.responseBody,
+            DateTimeUtils.nowAsDate()
+        );
+        pendingCount.incrementAndGet();
+        boolean queued = queueCapacity.tryAcquire(entry.sizeInKilobytes);
+        if (!queued) {
+            blockedCount.incrementAndGet();
+            try {
+                queued = queueCapacity.tryAcquire(
+                    entry.sizeInKilobytes,
+                    TRIP_HISTORY_WRITE_MAX_WAIT_MILLIS,
+                    TimeUnit.MILLISECONDS
+                );
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (queued) {
+            queue.add(entry);
+        } else {
+            droppedCount.incrementAndGet();
+            markCompleted(1);
+            LOG.warn("Trip history queue is full, dropped trip request for user {}", userId);
+        }
+        return queued;
+    }
+
+    /**
+     * Waits until all trip history queued so far has been written (or has failed to be written).
+     * @return true if the queue was flushed within the given time.
+     */
+    public static boolean flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (pendingCount) {
+            while (pendingCount.get() > 0) {
+                long remainingMillis = deadline - System.currentTimeMillis();
+                if (remainingMillis <= 0) return false;
+                try {
+                    pendingCount.wait(remainingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes queued entries as they arrive, and writes them in batches of up to {@link #TRIP_HISTORY_WRITE_BATCH_SIZE}.
+     */
+    private static void writeBatches() {
+        List<PendingTripHistory> batch = new ArrayList<>(TRIP_HISTORY_WRITE_BATCH_SIZE);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, TRIP_HISTORY_WRITE_BATCH_SIZE - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failedCount.addAndGet(batch.size());
+                BugsnagReporter.reportErrorToBugsnag("Unable to write trip history", batch.size(), e);
+            } finally {
+                int batchSizeInKilobytes = 0;
+                for (PendingTripHistory entry : batch) {
+                    batchSizeInKilobytes += entry.sizeInKilobytes;
+                }
+                queueCapacity.release(batchSizeInKilobytes);
+                markCompleted(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the trip requests of the given entries, then the trip summaries of the trip requests that were saved.
+     */
+    private static void writeBatch(List<PendingTripHistory> batch) {
+        List<TripRequest> tripRequests = new ArrayList<>(batch.size());
+        List<TripSummary> tripSummaries = new ArrayList<>(batch.size());
+        int parseFailures = 0;
+        for (PendingTripHistory entry : batch) {
+            if (entry.responseBody == null) {
+                parseFailures++;
+                continue;
+            }
+            OtpResponse otpResponse;
+            try {
+                otpResponse = JsonUtils.getPOJOFromJSON(entry.responseBody, OtpResponse.class);
+            } catch (JsonProcessingException e) {
+                BugsnagReporter.reportErrorToBugsnag("Failed to parse OTP response!", entry.responseBody, e);
+                parseFailures++;
+                continue;
+            }
+            TripRequest tripRequest = new TripRequest(
+                entry.userId,
+                entry.batchId,
+                entry.fromPlace,
+                entry.toPlace,
+                otpResponse.requestParameters
+            );
+            tripRequest.dateCreated = entry.requestDate;
+            tripRequest.lastUpdated = entry.requestDate;
+            TripSummary tripSummary = new TripSummary(
+                otpResponse.plan,
+                otpResponse.error,
+                tripRequest.id,
+                entry.batchId
+            );
+            tripSummary.dateCreated = entry.requestDate;
+            tripSummary.lastUpdated = entry.requestDate;
+            tripRequests.add(tripRequest);
+            tripSummaries.add(tripSummary);
+        }
+        int writeFailures = 0;
+        if (!tripRequests.isEmpty()) {
+            // Only save trip summaries if their trip request was saved.
+            Set<Integer> failedIndexes = Persistence.tripRequests.createBatch(tripRequests);
+            if (!failedIndexes.isEmpty()) {
+                LOG.warn("Unable to save {} trip requests, orphaned trip summaries not saved", failedIndexes.size());
+                List<TripSummary> savedTripSummaries = new ArrayList<>(tripSummaries.size());
+                for (int i = 0; i < tripSummaries.size(); i++) {
+                    if (!failedIndexes.contains(i)) savedTripSummaries.add(tripSummaries.get(i));
+                }
+                tripSummaries = savedTripSummaries;
+                writeFailures += failedIndexes.size();
+            }
+            if (!tripSummaries.isEmpty()) {
+                writeFailures += Persistence.tripSummaries.createBatch(tripSummaries).size();
+            }
+        }
+        writtenCount.addAndGet(tripRequests.size() - writeFailures);
+        failedCount.addAndGet(parseFailures + writeFailures);
+    }
+
+    private static void markCompleted(int count) {
+        if (count == 0) return;
+        synchronized (pendingCount) {
+            if (pendingCount.addAndGet(-count) <= 0) pendingCount.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of entries waiting to be written.
+     */
+    public static int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of trip requests (with their summary) written so far.
+     */
+    public static long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * @return the number of entries that could not be parsed or written.
+     */
+    public static long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return the number of entries dropped because the queue was full.
+     */
+    public static long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the number of entries for which the caller had to wait because the queue was full.
+     */
+    public static long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /**
+     * A plan response body waiting to be written as trip history, along with the details of the request that produced
+     * it. Only the body is kept, rather than the dispatcher response, so that the size of the queue is known.
+     */
+    private static class PendingTripHistory {
+        final String userId;
+        final String batchId;
+        final String fromPlace;
+        final String toPlace;
+        final String responseBody;
+        /** Time of the request, used as the creation date of the trip request and summary. */
+        final Date requestDate;
+        /**
+         * Queue capacity taken by this entry, from the length of the response body (at least one kilobyte, at most the
+         * whole queue).
+         */
+        final int sizeInKilobytes;
+
+        PendingTripHistory(
+            String userId,
+            String batchId,
+            String fromPlace,
+            String toPlace,
+            String responseBody,
+            Date requestDate
+        ) {
+            this.userId = userId;
+            this.batchId = batchId;
+            this.fromPlace = fromPlace;
+            this.toPlace = toPlace;
+            this.responseBody = responseBody;
+            this.requestDate = requestDate;
+            int responseLength = responseBody == null ? 0 : responseBody.length();
+            this.sizeInKilobytes = Math.min(QUEUE_CAPACITY_KILOBYTES, Math.max(1, (responseLength + 1023) / 1024));
+        }
+    }
+}
@@ -1,28 +1,52 @@
 package org.opentripplanner.middleware.persistence;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.DistinctIterable;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.PushOptions;
 import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
 import org.opentripplanner.middleware.controllers.response.ResponseList;
+import org.opentripplanner.middleware.metrics.Metrics;
+import org.opentripplanner.middleware.metrics.Timer;
 import org.opentripplanner.middleware.models.Model;
+import org.opentripplanner.middleware.models.ModelReference;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Filters.gte;
@@ -50,12 +74,31 @@ import static com.mongodb.client.model.Filters.lte;
 public class TypedPersistence<T extends Model> {
 
     private static final Logger LOG = LoggerFactory.getLogger(TypedPersistence.class);
+    /** Keys of the index MongoDB creates on _id for every collection. */
+    private static final String ID_INDEX_KEYS = "_id_1";
+    /**
+     * Duration of the database operations, by collection and operation. Methods returning a {@link FindIterable} are
+     * not timed since the query only runs when the caller iterates the results.
+     */
+    private static final Timer OPERATION_TIMER = Metrics.timer(
+        Metrics.PREFIX + "persistence_operation_seconds",
+        "Duration of database operations.",
+        "collection",
+        "operation"
+    );
+    /** Maximum number of objects counted for an estimated total of filtered objects, see {@link #withTotal}. */
+    private static final int ESTIMATED_COUNT_LIMIT = 1000;
+    /** Projections of the read model classes, see {@link #getReadModelProjection}. */
+    private static final Map<Class<?>, Bson> readModelProjections = new ConcurrentHashMap<>();
     public final Class<T> clazz;
 
     private MongoCollection<T> mongoCollection;
     private Constructor<T> noArgConstructor;
     private String collectionName;
     private final FindOneAndUpdateOptions findOneAndUpdateOptions = new FindOneAndUpdateOptions();
+    private final InsertManyOptions unorderedInsertManyOptions = new InsertManyOptions().ordered(false);
+    /** Indexes required by the queries made on this collection, see {@link #withIndex}. */
+    private final List<IndexModel> declaredIndexes = new ArrayList<>();
 
     public TypedPersistence(MongoDatabase mongoDatabase, Class<T> clazz) {
         this.clazz = clazz;
@@ -73,6 +116,100 @@ public class TypedPersistence<T extends Model> {
 //        findOneAndUpdateOptions.upsert(true);
     }
 
+    /**
+     * Declare an index needed by the queries made on this collection. Declared indexes are created by
+     * {@link #ensureIndexes()} when the application starts.
+     */
+    public TypedPersistence<T> withIndex(Bson keys) {
+        return withIndex(keys, new IndexOptions());
+    }
+
+    /**
+     * Declare an index with the given options (e.g., a TTL index). See {@link #withIndex(Bson)}.
+     */
+    public TypedPersistence<T> withIndex(Bson keys, IndexOptions options) {
+        declaredIndexes.add(new IndexModel(keys, options));
+        return this;
+    }
+
+    /**
+     * Create the declared indexes that do not exist yet (creating an existing index is a no-op), then compare the
+     * indexes of the collection with the declared ones. Indexes that have not been used since the database server
+     * started are logged for information.
+     *
+     * @return a description of each difference between the declared and actual indexes: declared indexes that could
+     * not be created (e.g., because an index with the same keys but different options exists) and indexes that exist
+     * but are not declared. Empty if the indexes match.
+     */
+    public List<String> ensureIndexes() {
+        List<String> drift = new ArrayList<>();
+        Set<String> declaredKeys = new HashSet<>();
+        for (IndexModel index : declaredIndexes) {
+            String keys = describeIndexKeys(
+                index.getKeys().toBsonDocument(BsonDocument.class, mongoCollection.getCodecRegistry())
+            );
+            declaredKeys.add(keys);
+            try {
+                mongoCollection.createIndex(index.getKeys(), index.getOptions());
+            } catch (MongoCommandException e) {
+                drift.add(String.format(
+                    "Index %s on %s could not be created: %s", keys, collectionName, e.getErrorMessage()
+                ));
+            }
+        }
+        for (Document index : mongoCollection.listIndexes()) {
+            String keys = describeIndexKeys(
+                index.get("key", Document.class).toBsonDocument(BsonDocument.class, mongoCollection.getCodecRegistry())
+            );
+            if (!ID_INDEX_KEYS.equals(keys) && !declaredKeys.contains(keys)) {
+                drift.add(String.format("Index %s on %s is not declared", keys, collectionName));
+            }
+        }
+        logUnusedIndexes();
+        return drift;
+    }
+
+    /**
+     * Log the indexes that have not been used since the database server started, according to $indexStats.
+     */
+    private void logUnusedIndexes() {
+        try {
+            for (Document stats : mongoCollection.aggregate(
+                List.of(new Document("$indexStats", new Document())), Document.class
+            )) {
+                Document accesses = stats.get("accesses", Document.class);
+                Number ops = accesses == null ? null : accesses.get("ops", Number.class);
+                if (ops != null && ops.longValue() == 0) {
+                    LOG.info(
+                        "Index {} on {} has not been used since {}",
+                        stats.getString("name"),
+                        collectionName,
+                        accesses.getDate("since")
+                    );
+                }
+            }
+        } catch (MongoException e) {
+            // $indexStats requires a privilege the database user may not have, this check is only informational.
+            LOG.debug("Could not get index usage for {}", collectionName, e);
+        }
+    }
+
+    /**
+     * @return the keys of an index in the format of default index names (e.g., userId_1_dateCreated_-1), normalizing
+     * numeric directions stored as doubles by some clients.
+     */
+    private static String describeIndexKeys(BsonDocument keys) {
+        return keys.entrySet().stream()
+            .map(key -> key.getKey() + "_" + describeIndexDirection(key.getValue()))
+            .collect(Collectors.joining("_"));
+    }
+
+    private static String describeIndexDirection(BsonValue direction) {
+        return direction.isNumber()
+            ? Integer.toString(direction.asNumber().intValue())
+            : direction.asString().getValue();
+    }
+
     public T create(String updateJson) {
         T item = null;
         try {
@@ -82,7 +219,8 @@ public class TypedPersistence<T extends Model> {
         } catch (Exception ex) {
             throw new RuntimeException("Could not use no-arg constructor to instantiate class.", ex);
         }
-        mongoCollection.insertOne(item);
+        T newItem = item;
+        timed("insert", () -> mongoCollection.insertOne(newItem));
         T updatedItem = update(item.id, updateJson);
         return updatedItem;
     }
@@ -93,7 +231,7 @@ public class TypedPersistence<T extends Model> {
     public boolean create(T newObject) {
         try {
             // TODO What happens if an object already exists with the same ID?
-            mongoCollection.insertOne(newObject);
+            timed("insert", () -> mongoCollection.insertOne(newObject));
             return true;
         } catch (Exception e) {
             BugsnagReporter.reportErrorToBugsnag("Unable to create new object", newObject, e);
@@ -103,11 +241,35 @@ public class TypedPersistence<T extends Model> {
 
     public void createMany(List<T> newObjects) {
         // TODO What happens if an object already exists with the same ID?
-        mongoCollection.insertMany(newObjects);
+        timed("insertMany", () -> mongoCollection.insertMany(newObjects));
+    }
+
+    /**
+     * Insert the given objects in a single unordered batch, so that an object that cannot be inserted (e.g., because an
+     * object with the same ID exists) does not prevent the others from being inserted. Failures are reported to
+     * Bugsnag.
+     *
+     * @return the indexes in the given list of the objects that were not inserted.
+     */
+    public Set<Integer> createBatch(List<T> newObjects) {
+        Set<Integer> failedIndexes = new HashSet<>();
+        try {
+            timed("insertMany", () -> mongoCollection.insertMany(newObjects, unorderedInsertManyOptions));
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failedIndexes.add(error.getIndex());
+            }
+            BugsnagReporter.reportErrorToBugsnag(
+                "Unable to create new objects",
+                newObjects.get(e.getWriteErrors().get(0).getIndex()),
+                e
+            );
+        }
+        return failedIndexes;
     }
 
     public void replace(String id, T replaceObject) {
-        mongoCollection.replaceOne(eq(id), replaceObject);
+        timed("replace", () -> mongoCollection.replaceOne(eq(id), replaceObject));
     }
 
     /**
@@ -117,7 +279,10 @@ public class TypedPersistence<T extends Model> {
     public T update(String id, Document updateDocument) {
         // Set last updated.
         updateDocument.put("lastUpdated", DateTimeUtils.nowAsDate());
-        return mongoCollection.findOneAndUpdate(eq(id), new Document("$set", updateDocument), findOneAndUpdateOptions);
+        return timed(
+            "update",
+            () -> mongoCollection.findOneAndUpdate(eq(id), new Document("$set", updateDocument), findOneAndUpdateOptions)
+        );
     }
 
     /**
@@ -134,8 +299,61 @@ public class TypedPersistence<T extends Model> {
         return update(id, new Document(fieldName, value));
     }
 
+    /**
+     * Set the given fields (which may be nested, e.g., journeyState.tripStatus) of the Mongo object referenced by ID in
+     * a single write, without reading the object or rewriting its other fields. Values can be any type known to the
+     * codec registry, including model sub-documents. This also sets the lastUpdated field to the current time.
+     *
+     * @return false if no object exists with the given ID (e.g., it was deleted), true otherwise.
+     */
+    public boolean updateFields(String id, Map<String, Object> values) {
+        List<Bson> updates = new ArrayList<>();
+        values.forEach((fieldName, value) -> updates.add(Updates.set(fieldName, value)));
+        updates.add(Updates.set("lastUpdated", DateTimeUtils.nowAsDate()));
+        UpdateResult result = timed("updateFields", () -> mongoCollection.updateOne(eq(id), Updates.combine(updates)));
+        return result.getMatchedCount() > 0;
+    }
+
+    /**
+     * Append the given values to an array field of the Mongo object referenced by ID, without reading or rewriting the
+     * values already in the array. This also sets the lastUpdated field to the current time.
+     *
+     * @param maxSize if positive, only the last maxSize values of the array are kept.
+     */
+    public void appendToArrayField(String id, String fieldName, List<?> values, int maxSize) {
+        PushOptions pushOptions = new PushOptions();
+        if (maxSize > 0) pushOptions.slice(-maxSize);
+        timed("append", () -> mongoCollection.updateOne(
+            eq(id),
+            Updates.combine(
+                Updates.pushEach(fieldName, values, pushOptions),
+                Updates.set("lastUpdated", DateTimeUtils.nowAsDate())
+            )
+        ));
+    }
+
     public T getById(String id) {
-        return mongoCollection.find(eq(id)).first();
+        return timed("getById", () -> mongoCollection.find(eq(id)).first());
+    }
+
+    /**
+     * Get the object with the given ID, reading only the fields of the supplied projection (e.g.,
+     * Projections.include("applicationId")). Fields outside the projection keep the default values of the model class,
+     * so the returned object must only be used to read the projected fields and must never be saved back.
+     */
+    public T getById(String id, Bson projection) {
+        return timed("getById", () -> mongoCollection.find(eq(id)).projection(projection).first());
+    }
+
+    /**
+     * Get the object with the given ID as a lightweight read model (e.g., {@link ModelReference}), reading only the
+     * fields declared by the read model class.
+     */
+    public <V> V getById(String id, Class<V> readModel) {
+        return timed(
+            "getById",
+            () -> mongoCollection.find(eq(id), readModel).projection(getReadModelProjection(readModel)).first()
+        );
     }
 
     /**
@@ -150,28 +368,93 @@ public class TypedPersistence<T extends Model> {
      * directly to Mongo for now but is expedient. We should really have a bit more abstraction here.
      */
     public List<T> getFilteredWithLimit(Bson filter, int limit) {
-        return mongoCollection.find(filter).limit(limit).into(new ArrayList<>());
+        return timed("find", () -> mongoCollection.find(filter).limit(limit).into(new ArrayList<>()));
     }
 
     /**
-     * Get an optionally sorted set of records from the collection.
-     * @param sort - optional sort to apply to query (null value is OK)
-     * @param offset - number of records to skip
-     * @param limit - max number of records to return
+     * Get a page of objects satisfying the supplied Mongo filter (null for all objects), selected by offset, with the
+     * total number of objects obtained as specified.
      */
-    public FindIterable<T> getSortedIterableWithOffsetAndLimit(Bson sort, int offset, int limit) {
-        return mongoCollection.find()
-            .sort(sort)
-            .skip(offset)
-            .limit(limit);
+    public ResponseList<T> getResponseList(Bson filter, int offset, int limit, ResponseList.TotalCount totalCount) {
+        return getResponseList(filter, null, offset, limit, totalCount);
     }
 
-    public ResponseList<T> getResponseList(int offset, int limit) {
-        return new ResponseList<T>(mongoCollection, offset, limit);
+    /**
+     * Same as {@link #getResponseList(Bson, int, int, ResponseList.TotalCount)}, with objects in the supplied sort
+     * order (null value is OK).
+     */
+    public ResponseList<T> getResponseList(
+        Bson filter,
+        Bson sort,
+        int offset,
+        int limit,
+        ResponseList.TotalCount totalCount
+    ) {
+        List<T> data = timed(
+            "find",
+            () -> mongoCollection.find(filterOrAll(filter)).sort(sort).skip(offset).limit(limit).into(new ArrayList<>())
+        );
+        return withTotal(new ResponseList<>(clazz, data, offset, limit, 0), filter, totalCount);
+    }
+
+    /**
+     * Get the page of objects satisfying the supplied Mongo filter (null for all objects) at the position of the
+     * supplied cursor, with the token of the next page and the total number of objects obtained as specified.
+     */
+    public ResponseList<T> getResponseList(
+        Bson filter,
+        PageCursor<T> cursor,
+        int limit,
+        ResponseList.TotalCount totalCount
+    ) {
+        Bson pageFilter = cursor.getFilter() == null
+            ? filterOrAll(filter)
+            : filter == null ? cursor.getFilter() : Filters.and(filter, cursor.getFilter());
+        // Get one more object than requested to find out whether there is a next page.
+        List<T> data = timed(
+            "find",
+            () -> mongoCollection.find(pageFilter).sort(cursor.getSort()).limit(limit + 1).into(new ArrayList<>())
+        );
+        String nextPageToken = null;
+        if (data.size() > limit) {
+            data = new ArrayList<>(data.subList(0, limit));
+            if (limit > 0) nextPageToken = cursor.getNextToken(data.get(limit - 1));
+        }
+        ResponseList<T> responseList = withTotal(new ResponseList<>(clazz, data, 0, limit, 0), filter, totalCount);
+        responseList.nextPageToken = nextPageToken;
+        return responseList;
+    }
+
+    /**
+     * Set the total of a response list for the supplied filter (null for all objects) as specified.
+     */
+    private ResponseList<T> withTotal(ResponseList<T> responseList, Bson filter, ResponseList.TotalCount totalCount) {
+        switch (totalCount) {
+            case EXACT:
+                responseList.total = filter == null ? getCount() : getCountFiltered(filter);
+                break;
+            case ESTIMATED:
+                responseList.estimatedTotal = true;
+                if (filter == null) {
+                    responseList.total = timed("estimatedCount", () -> mongoCollection.estimatedDocumentCount());
+                } else {
+                    long count = timed(
+                        "count",
+                        () -> mongoCollection.countDocuments(filter, new CountOptions().limit(ESTIMATED_COUNT_LIMIT))
+                    );
+                    // Below the limit, the count is exact.
+                    responseList.estimatedTotal = count >= ESTIMATED_COUNT_LIMIT;
+                    responseList.total = count;
+                }
+                break;
+            default:
+                responseList.total = ResponseList.UNKNOWN_TOTAL;
+        }
+        return responseList;
     }
 
-    public ResponseList<T> getResponseList(Bson filter, int offset, int limit) {
-        return new ResponseList<T>(mongoCollection, filter, offset, limit);
+    private static Bson filterOrAll(Bson filter) {
+        return filter == null ? new BsonDocument() : filter;
     }
 
     /**
@@ -206,14 +489,14 @@ public class TypedPersistence<T extends Model> {
      * Return the number of items based on the supplied Mongo filter
      */
     public long getCountFiltered(Bson filter) {
-        return mongoCollection.countDocuments(filter);
+        return timed("count", () -> mongoCollection.countDocuments(filter));
     }
 
     /**
      * Return the number of items in the collection.
      */
     public long getCount() {
-        return mongoCollection.countDocuments();
+        return timed("count", () -> mongoCollection.countDocuments());
     }
 
     /**
@@ -231,6 +514,37 @@ public class TypedPersistence<T extends Model> {
         return mongoCollection.find(filter).sort(sortBy);
     }
 
+    /**
+     * Get all objects matching the supplied filter and ordered by the supplied sortBy, reading only the fields of the
+     * supplied projection (see {@link #getById(String, Bson)} for the restrictions that apply to projected objects).
+     */
+    public FindIterable<T> getFiltered(Bson filter, Bson sortBy, Bson projection) {
+        return mongoCollection.find(filter).sort(sortBy).projection(projection);
+    }
+
+    /**
+     * Get all objects matching the supplied filter as lightweight read models (e.g., {@link ModelReference}), reading
+     * only the fields declared by the read model class.
+     */
+    public <V> FindIterable<V> getFiltered(Bson filter, Class<V> readModel) {
+        return mongoCollection.find(filter, readModel).projection(getReadModelProjection(readModel));
+    }
+
+    /**
+     * @return a projection of the public instance fields of a read model class (the id field being stored as _id).
+     */
+    static Bson getReadModelProjection(Class<?> readModel) {
+        return readModelProjections.computeIfAbsent(readModel, modelClass -> {
+            List<String> fieldNames = new ArrayList<>();
+            for (Field field : modelClass.getFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) continue;
+                fieldNames.add("id".equals(field.getName()) ? "_id" : field.getName());
+            }
+            return Projections.include(fieldNames);
+        });
+    }
+
     /**
      * Expose the internal MongoCollection to the caller. This ties our persistence directly to Mongo for now but is
      * expedient. We will write all the queries we need in the calling methods, then make an abstraction here on
@@ -246,9 +560,9 @@ public class TypedPersistence<T extends Model> {
      */
     public T getOneFiltered(Bson filter, Bson sortBy) {
         if (sortBy != null) {
-            return mongoCollection.find(filter).sort(sortBy).first();
+            return timed("findOne", () -> mongoCollection.find(filter).sort(sortBy).first());
         } else {
-            return mongoCollection.find(filter).first();
+            return timed("findOne", () -> mongoCollection.find(filter).first());
         }
     }
 
@@ -260,7 +574,7 @@ public class TypedPersistence<T extends Model> {
     }
 
     public boolean removeById(String id) {
-        DeleteResult result = mongoCollection.deleteOne(eq(id));
+        DeleteResult result = timed("delete", () -> mongoCollection.deleteOne(eq(id)));
         if (result.getDeletedCount() == 1) {
             LOG.info("Deleted object id={} type={}", id, collectionName);
             return true;
@@ -273,7 +587,7 @@ public class TypedPersistence<T extends Model> {
     }
 
     public boolean removeFiltered(Bson filter) {
-        DeleteResult result = mongoCollection.deleteMany(filter);
+        DeleteResult result = timed("deleteMany", () -> mongoCollection.deleteMany(filter));
         long count = result.getDeletedCount();
         if (count >= 1) {
             LOG.debug("Deleted {} objects of type {}", count, collectionName);
@@ -290,5 +604,20 @@ public class TypedPersistence<T extends Model> {
     public <X> DistinctIterable<X> getDistinctFieldValues(String field, Bson filter, Class<X> clazz) {
         return mongoCollection.distinct(field, filter, clazz);
     }
+
+    /**
+     * Run an aggregation pipeline on this collection, with the results decoded as the given class. Stages that exceed
+     * the memory limit of the database server (e.g., grouping many documents) may use temporary files.
+     */
+    public <V> AggregateIterable<V> aggregate(List<Bson> pipeline, Class<V> resultClass) {
+        return mongoCollection.aggregate(pipeline, resultClass).allowDiskUse(true);
+    }
+
+    /**
+     * Run a database operation on this collection and record its duration.
+     */
+    private <R> R timed(String operation, Supplier<R> databaseOperation) {
+        return OPERATION_TIMER.time(databaseOperation, collectionName, operation);
+    }
 }
 
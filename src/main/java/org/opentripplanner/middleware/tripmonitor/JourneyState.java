@@ -38,6 +38,13 @@ public class JourneyState implements Cloneable {
      */
     public long lastCheckedEpochMillis;
 
+    /**
+     * Timestamp at which the journey is next due to be checked. This is maintained by the {@link CheckMonitoredTrip}
+     * job so that trip monitoring runs only need to fetch the trips that are due. A value of zero (or a missing value
+     * for trips saved before this field existed) means the trip is due immediately.
+     */
+    public long nextCheckDueEpochMillis;
+
     /**
      * The notifications already sent.
      * FIXME this is never set, so it has no effect.
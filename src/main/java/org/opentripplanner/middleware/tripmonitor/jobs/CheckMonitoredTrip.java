@@ -3,7 +3,10 @@ package org.opentripplanner.middleware.tripmonitor.jobs;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
 import org.opentripplanner.middleware.i18n.Message;
+import org.opentripplanner.middleware.metrics.Metrics;
+import org.opentripplanner.middleware.metrics.Timer;
 import org.opentripplanner.middleware.models.ItineraryExistence;
+import org.opentripplanner.middleware.models.ModelReference;
 import org.opentripplanner.middleware.models.MonitoredTrip;
 import org.opentripplanner.middleware.models.OtpUser;
 import org.opentripplanner.middleware.models.TripMonitorAlertNotification;
@@ -19,6 +22,7 @@ import org.opentripplanner.middleware.persistence.Persistence;
 import org.opentripplanner.middleware.tripmonitor.JourneyState;
 import org.opentripplanner.middleware.utils.ConfigUtils;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.opentripplanner.middleware.utils.ItineraryFingerprint;
 import org.opentripplanner.middleware.utils.ItineraryUtils;
 import org.opentripplanner.middleware.utils.NotificationUtils;
 import org.slf4j.Logger;
@@ -34,6 +38,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
@@ -50,6 +55,20 @@ import static org.opentripplanner.middleware.utils.I18nUtils.label;
 public class CheckMonitoredTrip implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(CheckMonitoredTrip.class);
 
+    private static final String JOURNEY_STATE_FIELD_NAME = "journeyState";
+    private static final String ITINERARY_EXISTENCE_FIELD_NAME = "itineraryExistence";
+    private static final String SNOOZED_FIELD_NAME = "snoozed";
+
+    /**
+     * Duration of each stage of a trip check: skip_check, otp_request, matching, alert_delay_check, notification and
+     * persistence.
+     */
+    private static final Timer STAGE_TIMER = Metrics.timer(
+        Metrics.PREFIX + "trip_check_stage_seconds",
+        "Duration of the stages of trip checks.",
+        "stage"
+    );
+
     private final String OTP_UI_URL = ConfigUtils.getConfigPropertyAsText("OTP_UI_URL");
 
     private final String OTP_UI_NAME = ConfigUtils.getConfigPropertyAsText("OTP_UI_NAME");
@@ -110,6 +129,12 @@ public class CheckMonitoredTrip implements Runnable {
     /** Contains the initial reminder notification, if any is needed for this check. */
     TripMonitorNotification initialReminderNotification;
 
+    /**
+     * The trip fields changed by this check (by field name), which are written at once by {@link #saveMonitoredTrip}
+     * at the end of the check, rather than rewriting the whole trip (and its itinerary) each time the state changes.
+     */
+    private final Map<String, Object> changedFields = new LinkedHashMap<>();
+
     public CheckMonitoredTrip(MonitoredTrip trip) throws CloneNotSupportedException {
         this.trip = trip;
         previousJourneyState = trip.journeyState;
@@ -117,6 +142,15 @@ public class CheckMonitoredTrip implements Runnable {
         previousMatchingItinerary = trip.journeyState.matchingItinerary;
     }
 
+    /**
+     * Create a check for a trip whose user is already known, so that the user is not looked up again.
+     */
+    CheckMonitoredTrip(MonitoredTrip trip, OtpUser otpUser) throws CloneNotSupportedException {
+        this(trip);
+        cachedUser = otpUser;
+        userChecked = true;
+    }
+
     @Override
     public void run() {
         // Add a prefix of the current trip ID for logging purposes to every log message generated from within an
@@ -134,8 +168,17 @@ public class CheckMonitoredTrip implements Runnable {
         LOG.info("Begin checking trip.");
         // Check if the trip check should be skipped (based on time, day of week, etc.)
         try {
-            if (shouldSkipMonitoredTripCheck()) {
+            long skipCheckStartNanos = System.nanoTime();
+            boolean shouldSkip = shouldSkipMonitoredTripCheck();
+            STAGE_TIMER.recordSince(skipCheckStartNanos, "skip_check");
+            if (shouldSkip) {
                 LOG.debug("Skipping check for trip");
+                if (changedFields.isEmpty()) {
+                    updateNextCheckDueTime();
+                } else {
+                    // The journey state was advanced to the next trip date before deciding to skip the check.
+                    saveMonitoredTrip();
+                }
                 return;
             }
         } catch (Exception e) {
@@ -146,13 +189,22 @@ public class CheckMonitoredTrip implements Runnable {
 
         // Check monitored trip.
         runCheckLogic();
+        // The user may have deleted the trip while it was being checked (e.g., while waiting for OTP), in which case
+        // no notifications should be sent.
+        if (!tripExists()) {
+            LOG.info("Trip no longer exists, notifications were not sent.");
+            return;
+        }
+        long notificationStartNanos = System.nanoTime();
         // Initial reminder notification, if needed, with text based on other notifications for this trip.
         addInitialReminderIfNeeded();
         // Send notifications to user. This should happen before updating the journey state so that we can check the
         // last notification sent.
         sendNotifications();
+        STAGE_TIMER.recordSince(notificationStartNanos, "notification");
         // Update trip and journey state.
-        updateMonitoredTrip();
+        updateJourneyState();
+        saveMonitoredTrip();
     }
 
     /**
@@ -188,6 +240,7 @@ public class CheckMonitoredTrip implements Runnable {
             return;
         }
         // Matching itinerary found in OTP response. Run real-time checks.
+        long alertDelayCheckStartNanos = System.nanoTime();
         enqueueNotification(
             // Check for notifications related to service alerts.
             checkTripForNewAlerts(),
@@ -195,6 +248,7 @@ public class CheckMonitoredTrip implements Runnable {
             checkTripForDelay(NotificationType.DEPARTURE_DELAY),
             checkTripForDelay(NotificationType.ARRIVAL_DELAY)
         );
+        STAGE_TIMER.recordSince(alertDelayCheckStartNanos, "alert_delay_check");
     }
 
     /**
@@ -206,42 +260,21 @@ public class CheckMonitoredTrip implements Runnable {
      *          verifying that the same transit schedule/routes exist and that the street network is the same
      */
     public boolean makeOTPRequestAndUpdateMatchingItinerary() {
-        OtpDispatcherResponse otpDispatcherResponse;
+        long otpRequestStartNanos = System.nanoTime();
+        OtpResponse otpResponse;
         try {
-            // Generate the appropriate OTP query params for the trip for the current check by replacing the date query
-            // parameter with the appropriate date.
-            Map<String, String> params = trip.parseQueryParams();
-            params.put(ItineraryUtils.DATE_PARAM, targetZonedDateTime.format(DateTimeUtils.DEFAULT_DATE_FORMATTER));
-            otpDispatcherResponse = OtpDispatcher.sendOtpPlanRequest(OtpVersion.OTP1, ItineraryUtils.toQueryString(params));
-        } catch (Exception e) {
-            BugsnagReporter.reportErrorToBugsnag(
-                "Encountered an error while making a request ot the OTP server.",
-                e
-            );
-            return false;
+            otpResponse = requestOtpResponse();
+        } finally {
+            STAGE_TIMER.recordSince(otpRequestStartNanos, "otp_request");
         }
+        if (otpResponse == null) return false;
 
-        if (otpDispatcherResponse == null) return false;
-
-        if (otpDispatcherResponse.statusCode >= 400) {
-            BugsnagReporter.reportErrorToBugsnag(
-                "Received an error from the OTP server.",
-                otpDispatcherResponse,
-                null
-            );
-            return false;
-        }
-        OtpResponse otpResponse = null;
-        try {
-            otpResponse = otpDispatcherResponse.getResponse();
-        } catch (JsonProcessingException e) {
-            // don't report to Bugsnag since the getResponse method will already have reported to Bugsnag.
-            LOG.error("Unable to parse OTP response!", e);
-            return false;
-        }
+        long matchingStartNanos = System.nanoTime();
+        ItineraryFingerprint referenceFingerprint = new ItineraryFingerprint(trip.itinerary);
         for (int i = 0; i < otpResponse.plan.itineraries.size(); i++) {
             Itinerary candidateItinerary = otpResponse.plan.itineraries.get(i);
-            if (ItineraryUtils.itinerariesMatch(trip.itinerary, candidateItinerary)) {
+            if (ItineraryUtils.itinerariesMatch(referenceFingerprint, trip.itinerary, candidateItinerary)) {
+                STAGE_TIMER.recordSince(matchingStartNanos, "matching");
                 // matching itinerary found!
                 LOG.info("Found matching itinerary!");
 
@@ -259,6 +292,7 @@ public class CheckMonitoredTrip implements Runnable {
                 ItineraryExistence.ItineraryExistenceResult itinExistenceTargetDay = trip.itineraryExistence
                     .getResultForDayOfWeek(targetZonedDateTime.getDayOfWeek());
                 itinExistenceTargetDay.invalidDates = new ArrayList<>();
+                changedFields.put(ITINERARY_EXISTENCE_FIELD_NAME, trip.itineraryExistence);
 
                 // If the updated trip status is upcoming and the end time of the current matching itinerary is in the
                 // past, this means the trip has completed and the next possible time the trip occurs should be
@@ -267,16 +301,18 @@ public class CheckMonitoredTrip implements Runnable {
                     LOG.info("Matching Itinerary has concluded, advancing to next possible trip date.");
                     targetZonedDateTime = targetZonedDateTime.plusDays(1);
                     advanceToNextActiveTripDate();
-                    updateMonitoredTrip();
+                    updateJourneyState();
 
                     // return false to indicate that no further checks for delays/alerts/etc should occur
                     return false;
                 }
 
                 LOG.info("Trip status set to {}", journeyState.tripStatus);
-                return updateMonitoredTrip();
+                updateJourneyState();
+                return true;
             }
         }
+        STAGE_TIMER.recordSince(matchingStartNanos, "matching");
 
         // If this point is reached, a matching itinerary was not found
         LOG.warn("No comparison itinerary found in otp response for trip");
@@ -304,7 +340,8 @@ public class CheckMonitoredTrip implements Runnable {
         trip.itineraryExistence
             .getResultForDayOfWeek(targetZonedDateTime.getDayOfWeek())
             .handleInvalidDate(targetZonedDateTime);
-        updateMonitoredTrip();
+        changedFields.put(ITINERARY_EXISTENCE_FIELD_NAME, trip.itineraryExistence);
+        updateJourneyState();
 
         // send an appropriate notification if the trip is still possible on another day of the week, or if it is now
         // not possible on any day of the week that the trip should be monitored
@@ -317,6 +354,46 @@ public class CheckMonitoredTrip implements Runnable {
         return false;
     }
 
+    /**
+     * Make the OTP plan request for the current check of the trip.
+     *
+     * @return the parsed OTP response, or null if the request failed (errors are reported).
+     */
+    private OtpResponse requestOtpResponse() {
+        OtpDispatcherResponse otpDispatcherResponse;
+        try {
+            // Generate the appropriate OTP query params for the trip for the current check by replacing the date query
+            // parameter with the appropriate date.
+            Map<String, String> params = trip.parseQueryParams();
+            params.put(ItineraryUtils.DATE_PARAM, targetZonedDateTime.format(DateTimeUtils.DEFAULT_DATE_FORMATTER));
+            otpDispatcherResponse = OtpDispatcher.sendOtpPlanRequest(OtpVersion.OTP1, ItineraryUtils.toQueryString(params));
+        } catch (Exception e) {
+            BugsnagReporter.reportErrorToBugsnag(
+                "Encountered an error while making a request ot the OTP server.",
+                e
+            );
+            return null;
+        }
+
+        if (otpDispatcherResponse == null) return null;
+
+        if (otpDispatcherResponse.statusCode >= 400) {
+            BugsnagReporter.reportErrorToBugsnag(
+                "Received an error from the OTP server.",
+                otpDispatcherResponse,
+                null
+            );
+            return null;
+        }
+        try {
+            return otpDispatcherResponse.getResponse();
+        } catch (JsonProcessingException e) {
+            // don't report to Bugsnag since the getResponse method will already have reported to Bugsnag.
+            LOG.error("Unable to parse OTP response!", e);
+            return null;
+        }
+    }
+
     /**
      * Updates the journey state's trip status according to whether the matching itinerary occurs in the past, present
      * or future
@@ -664,8 +741,9 @@ public class CheckMonitoredTrip implements Runnable {
             // advance the trip to the next active date
             advanceToNextActiveTripDate();
 
-            // save journey state with updated matching itinerary and target date
-            if (!updateMonitoredTrip()) {
+            // update journey state with updated matching itinerary and target date (saved at the end of the check)
+            updateJourneyState();
+            if (!tripExists()) {
                 // trip no longer exists, skip check
                 LOG.info("Skipping: Trip no longer exists.");
                 return true;
@@ -792,21 +870,18 @@ public class CheckMonitoredTrip implements Runnable {
         journeyState.hasRealtimeData = false;
 
         // reset the snoozed parameter to false
-        trip.snoozed = false;
+        if (trip.snoozed) {
+            trip.snoozed = false;
+            changedFields.put(SNOOZED_FIELD_NAME, false);
+        }
         updateTripStatus();
     }
 
     /**
-     * Update the monitored trip with the updated journey state with updated matching itinerary and target date. Returns
-     * false if the update was unsuccessful due to the trip no longer existing in the database.
+     * Update the trip with the updated journey state with updated matching itinerary and target date. The journey state
+     * is written by {@link #saveMonitoredTrip} at the end of the check.
      */
-    private boolean updateMonitoredTrip() {
-        // make sure the trip still exists before saving it. It is possible that the user deleted the trip after this
-        // job started but before this database update.
-        if (Persistence.monitoredTrips.getById(trip.id) == null) {
-            // trip has been deleted!
-            return false;
-        }
+    private void updateJourneyState() {
         journeyState.matchingItinerary = matchingItinerary;
         journeyState.targetDate = targetZonedDateTime.format(DateTimeUtils.DEFAULT_DATE_FORMATTER);
         journeyState.lastCheckedEpochMillis = DateTimeUtils.currentTimeMillis();
@@ -815,8 +890,48 @@ public class CheckMonitoredTrip implements Runnable {
             journeyState.lastNotificationTimeMillis = notificationTimestampMillis;
         }
         trip.journeyState = journeyState;
-        Persistence.monitoredTrips.replace(trip.id, trip);
-        return true;
+        journeyState.nextCheckDueEpochMillis = TripCheckScheduler.computeNextCheckDueMillis(trip);
+        changedFields.put(JOURNEY_STATE_FIELD_NAME, journeyState);
+    }
+
+    /**
+     * Write the trip fields changed by this check (e.g., the journey state) in a single partial update, leaving the
+     * other fields (e.g., the saved itinerary) untouched. Returns false if the update was unsuccessful due to the trip no
+     * longer existing in the database (it is possible that the user deleted the trip after this job started).
+     */
+    boolean saveMonitoredTrip() {
+        if (changedFields.isEmpty()) return true;
+        long persistenceStartNanos = System.nanoTime();
+        boolean tripExists = Persistence.monitoredTrips.updateFields(trip.id, changedFields);
+        STAGE_TIMER.recordSince(persistenceStartNanos, "persistence");
+        changedFields.clear();
+        if (!tripExists) LOG.info("Trip no longer exists, changes were not saved.");
+        return tripExists;
+    }
+
+    /**
+     * @return whether the trip still exists in the database, which is checked by only reading its id and owner.
+     */
+    private boolean tripExists() {
+        return Persistence.monitoredTrips.getById(trip.id, ModelReference.class) != null;
+    }
+
+    /**
+     * Persist the time at which a skipped trip is next due to be checked, so that trip monitoring runs do not fetch it
+     * again before then. Only the due time is written, leaving the rest of the journey state untouched.
+     */
+    private void updateNextCheckDueTime() {
+        if (trip.isInactive()) return;
+        long nextCheckDueEpochMillis = TripCheckScheduler.computeNextCheckDueMillis(trip);
+        if (nextCheckDueEpochMillis != trip.journeyState.nextCheckDueEpochMillis) {
+            trip.journeyState.nextCheckDueEpochMillis = nextCheckDueEpochMillis;
+            long persistenceStartNanos = System.nanoTime();
+            Persistence.monitoredTrips.updateFields(
+                trip.id,
+                Map.of(MonitoredTrip.NEXT_CHECK_DUE_FIELD_NAME, nextCheckDueEpochMillis)
+            );
+            STAGE_TIMER.recordSince(persistenceStartNanos, "persistence");
+        }
     }
 
     /**
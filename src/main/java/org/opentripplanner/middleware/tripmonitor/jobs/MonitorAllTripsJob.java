@@ -1,98 +1,76 @@
 package org.opentripplanner.middleware.tripmonitor.jobs;
 
-import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.conversions.Bson;
+import org.opentripplanner.middleware.metrics.Metrics;
+import org.opentripplanner.middleware.metrics.Timer;
+import org.opentripplanner.middleware.models.MonitoredTrip;
 import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.utils.DateTimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * This job will analyze applicable monitored trips and create further individual tasks to analyze each individual trip.
+ * This job will analyze applicable monitored trips and hand each individual trip to the {@link TripCheckScheduler},
+ * which checks them in order of when each trip is due.
  */
 public class MonitorAllTripsJob implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(MonitorAllTripsJob.class);
     public static final int ONE_MINUTE_IN_MILLIS = 60000;
 
-    private final int numCores = Runtime.getRuntime().availableProcessors();
-    private final int BLOCKING_QUEUE_SIZE = numCores;
-    private static final int BLOCKING_QUEUE_DEPLETE_WAIT_TIME_MILLIS = 250;
-    private static final int BLOCKING_QUEUE_INSERT_TIMEOUT_SECONDS = 30;
-    private final int N_TRIP_ANALYZERS = numCores;
+    /**
+     * Only the due time needed to order the trips is fetched when setting up this job. The full data for each trip is
+     * fetched at the time the actual analysis takes place.
+     */
+    private static final Bson TRIP_SCHEDULING_PROJECTION = Projections.include(MonitoredTrip.NEXT_CHECK_DUE_FIELD_NAME);
+
+    private static final Timer RUN_TIMER = Metrics.timer(
+        Metrics.PREFIX + "monitor_all_trips_run_seconds",
+        "Duration of the runs of the job that submits due trip checks."
+    );
 
     @Override
     public void run() {
         long start = System.currentTimeMillis();
         LOG.info("MonitorAllTripsJob started");
-        // analyze all trips
-
-        // create a blocking queue of monitored trip IDs to process
-        BlockingQueue<String> tripAnalysisQueue = new ArrayBlockingQueue<>(BLOCKING_QUEUE_SIZE);
-
-        // create an Atomic Boolean for TripAnalyzer threads to check whether the queue is actually depleted
-        AtomicBoolean queueDepleted = new AtomicBoolean();
-
-        // create a list of analyzer statuses to check whether any analyzers are still processing trips
-        List<AtomicBoolean> analyzerStatuses = new ArrayList<>();
-
-        // create new threads for analyzers of monitored trips
-        for (int j = 0; j < N_TRIP_ANALYZERS; j++) {
-            AtomicBoolean analyzerIsIdle = new AtomicBoolean();
-            analyzerStatuses.add(analyzerIsIdle);
-            new Thread(new TripAnalyzer(tripAnalysisQueue, queueDepleted, analyzerIsIdle)).start();
+        TripCheckScheduler.resetRunStatistics();
+
+        // Request at once all monitored trips that are due from the Mongo collection, and loop through them.
+        // If we looped using a Mongo-provided iterator instead, and the Mongo connection is dropped for any reason
+        // while the iterator is open, this thread would become blocked and prevent subsequent runs of this job.
+        List<MonitoredTrip> trips = Persistence.monitoredTrips.getMongoCollection()
+            .find(makeTripFilter(DateTimeUtils.currentTimeMillis()))
+            .projection(TRIP_SCHEDULING_PROJECTION)
+            .into(new ArrayList<>());
+
+        CountDownLatch tripsAnalyzed = new CountDownLatch(trips.size());
+        for (MonitoredTrip trip : trips) {
+            long dueEpochMillis = trip.journeyState == null ? 0 : trip.journeyState.nextCheckDueEpochMillis;
+            if (!TripCheckScheduler.submit(trip.id, dueEpochMillis, tripsAnalyzed)) {
+                tripsAnalyzed.countDown();
+            }
         }
 
         try {
-            // Request at once all applicable monitored trip IDs from the Mongo collection, and loop through them.
-            // If we looped using a Mongo-provided iterator instead, and the Mongo connection is dropped for any reason
-            // while the iterator is open, this thread would become blocked and prevent subsequent runs of this job.
-            // Performance note: Don't retrieve the full data for each trip at this time.
-            // This saves bandwidth and memory, as only the ID field is used to set up this job.
-            // The full data for each trip will be fetched at the time the actual analysis takes place.
-            List<String> allTripIds = Persistence.monitoredTrips.getDistinctFieldValues(
-                "_id",
-                makeTripFilter(),
-                String.class
-            ).into(new ArrayList<>());
-            for (String tripId : allTripIds) {
-                // attempt to add trip ID to tripAnalysisQueue until a spot opens up in the queue. If the timeout is
-                // exceeded, an InterruptedException is throw.
-                tripAnalysisQueue.offer(tripId, BLOCKING_QUEUE_INSERT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-            }
-
-            // wait for queue to deplete
-            int queueIterations = 0;
-            while (!tripAnalysisQueue.isEmpty()) {
-                Thread.sleep(BLOCKING_QUEUE_DEPLETE_WAIT_TIME_MILLIS);
-                queueIterations++;
-                // Report queue status every minute (unless this job finishes before).
-                int runMillis = queueIterations * BLOCKING_QUEUE_DEPLETE_WAIT_TIME_MILLIS;
-                if ((runMillis % ONE_MINUTE_IN_MILLIS) == 0) {
-                    LOG.info("There are {} queued. after {} sec.", tripAnalysisQueue.size(), runMillis / 1000);
-                }
-            }
-            queueDepleted.set(true);
-
-            // wait for analyzers to complete
-            int idleIterations = 0;
-            while (!allAnalyzersAreIdle(analyzerStatuses)) {
-                Thread.sleep(BLOCKING_QUEUE_DEPLETE_WAIT_TIME_MILLIS);
-                idleIterations++;
-                // Report analyzers statuses every minute (unless this job finishes before).
-                int runMillis = idleIterations * BLOCKING_QUEUE_DEPLETE_WAIT_TIME_MILLIS;
-                if ((runMillis % ONE_MINUTE_IN_MILLIS) == 0) {
-                    long notIdleCount = analyzerStatuses.stream().filter(s -> !s.get()).count();
-                    LOG.info("There are {} analyzers not idle after {} sec.", notIdleCount, runMillis / 1000);
-                }
+            // Wait for all trips to be analyzed, reporting queue status every minute (unless this job finishes before).
+            while (!tripsAnalyzed.await(1, TimeUnit.MINUTES)) {
+                LOG.info(
+                    "There are {} trips remaining ({} queued) after {} sec. Max lag behind due time: {} ms.",
+                    tripsAnalyzed.getCount(),
+                    TripCheckScheduler.getQueueDepth(),
+                    (System.currentTimeMillis() - start) / 1000,
+                    TripCheckScheduler.getMaxLagMillis()
+                );
             }
         } catch (InterruptedException e) {
-            LOG.error("error encountered while waiting during MonitorAllTripsJob.");
-            e.printStackTrace();
+            LOG.error("error encountered while waiting during MonitorAllTripsJob.", e);
+            Thread.currentThread().interrupt();
             return;
         }
 
@@ -101,33 +79,33 @@ public class MonitorAllTripsJob implements Runnable {
 
         // TODO report successful run to error & notification system
 
-        LOG.info("MonitorAllTripsJob completed in {} sec", (System.currentTimeMillis() - start) / 1000);
-    }
-
-    /**
-     * Create a BSON clause to filter out trips that would not be checked.
-     */
-    private static BasicDBObject makeTripFilter() {
-        BasicDBObject tripFilter = new BasicDBObject();
-
-        //.Trips must be active.
-        tripFilter.put("isActive", true);
-
-        // Other conditions (e.g. in CheckMonitoredTrip) that would result in a trip to be not checked
-        // should eventually be moved here.
-
-        return tripFilter;
+        long runMillis = System.currentTimeMillis() - start;
+        TripCheckScheduler.recordRunDuration(runMillis);
+        RUN_TIMER.record(TimeUnit.MILLISECONDS.toNanos(runMillis));
+        LOG.info(
+            "MonitorAllTripsJob completed {} trips in {} sec (mean lag {} ms, max lag {} ms)",
+            trips.size(),
+            runMillis / 1000,
+            TripCheckScheduler.getMeanLagMillis(),
+            TripCheckScheduler.getMaxLagMillis()
+        );
     }
 
     /**
-     * Checks each analyzer idle status and returns false if any are not idle.
+     * Create a BSON clause to select the active trips that are due to be checked. The due time is maintained by
+     * {@link CheckMonitoredTrip}; trips saved before it existed have no due time and are always selected. This query is
+     * backed by the index on {@link MonitoredTrip#NEXT_CHECK_DUE_FIELD_NAME} created in
+     * {@link Persistence#initialize()}.
      */
-    private boolean allAnalyzersAreIdle(List<AtomicBoolean> analyzerStatuses) {
-        for (AtomicBoolean analyzerStatus : analyzerStatuses) {
-            if (!analyzerStatus.get()) {
-                return false;
-            }
-        }
-        return true;
+    static Bson makeTripFilter(long nowEpochMillis) {
+        return Filters.and(
+            // Trips must be active.
+            Filters.eq("isActive", true),
+            // Trips must be due.
+            Filters.or(
+                Filters.lte(MonitoredTrip.NEXT_CHECK_DUE_FIELD_NAME, nowEpochMillis),
+                Filters.exists(MonitoredTrip.NEXT_CHECK_DUE_FIELD_NAME, false)
+            )
+        );
     }
 }
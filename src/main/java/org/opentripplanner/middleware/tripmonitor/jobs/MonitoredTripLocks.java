@@ -1,75 +1,203 @@
 package org.opentripplanner.middleware.tripmonitor.jobs;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoServerException;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Updates;
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.utils.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import spark.Request;
 
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lte;
 import static org.opentripplanner.middleware.utils.JsonUtils.logMessageAndHalt;
 
 /**
- * A helper class that manages locks placed on individual monitored trip instances.
+ * A helper class that manages locks placed on individual monitored trip instances. Locks are leases stored in MongoDB
+ * (see {@link org.opentripplanner.middleware.models.MonitoredTripLock}), so that they hold across all middleware
+ * instances sharing a database. A lease is acquired atomically with an upsert that only matches a missing or expired
+ * lock, and expires on its own if the holder never releases it (e.g., because its instance crashed). While a lease is
+ * held, it is renewed in the background well before it expires, so that checks or updates taking longer than the
+ * lease duration (e.g., because of slow OTP requests or notifications) keep their lock until they release it.
  */
 public class MonitoredTripLocks {
+    private static final Logger LOG = LoggerFactory.getLogger(MonitoredTripLocks.class);
+
     /** the maximum amount of time in milliseconds to wait for a lock to be released */
     private static final int MAX_UNLOCKING_WAIT_TIME_MILLIS = 4000;
-    /** the amount of time in milliseconds to wait to check if a lock has been released */
-    private static final int LOCK_CHECK_WAIT_MILLIS = 500;
+    /**
+     * The maximum amount of time in milliseconds to wait before retrying to obtain a lock. Releases made by this
+     * instance wake waiting threads immediately, this only bounds the wait for releases made by other instances.
+     */
+    private static final int REMOTE_RELEASE_CHECK_MILLIS = 500;
+    /** the amount of time in milliseconds after which a lease that has not been released is considered abandoned */
+    public static final int LEASE_DURATION_MILLIS = 2 * MonitorAllTripsJob.ONE_MINUTE_IN_MILLIS;
+    /**
+     * The interval in milliseconds at which held leases are renewed, short enough for a renewal to be retried before
+     * the lease expires if the database is briefly unavailable.
+     */
+    public static final int LEASE_RENEWAL_INTERVAL_MILLIS = LEASE_DURATION_MILLIS / 4;
+
+    private static final String LEASE_TOKEN_FIELD_NAME = "leaseToken";
+    private static final String EXPIRES_AT_FIELD_NAME = "expiresAt";
+
+    /** Signalled whenever this instance releases a lock. */
+    private static final Object releaseMonitor = new Object();
+    /** Incremented on every release, so that a release happening just before a wait is not missed. */
+    private static final AtomicLong releaseCount = new AtomicLong();
+
+    /** Renews the leases held by this instance. */
+    private static final ScheduledExecutorService renewalExecutor = Executors.newSingleThreadScheduledExecutor(
+        new DaemonThreadFactory("trip-lock-renewal")
+    );
+    /** The scheduled renewals of the leases held by this instance, by lease token. */
+    private static final Map<String, ScheduledFuture<?>> renewals = new ConcurrentHashMap<>();
 
-    private static final ConcurrentHashMap<String, Boolean> locks = new ConcurrentHashMap<>();
+    /**
+     * Attempts to lock the given MonitoredTrip.
+     * @return the lease token to pass to {@link #unlock}, or null if the trip is already locked.
+     */
+    public static String lock(String tripId) {
+        String leaseToken = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        try {
+            Persistence.monitoredTripLocks.getMongoCollection().findOneAndUpdate(
+                and(eq(tripId), lte(EXPIRES_AT_FIELD_NAME, new Date(now))),
+                Updates.combine(
+                    Updates.set(LEASE_TOKEN_FIELD_NAME, leaseToken),
+                    Updates.set(EXPIRES_AT_FIELD_NAME, new Date(now + LEASE_DURATION_MILLIS)),
+                    Updates.setOnInsert("dateCreated", new Date(now))
+                ),
+                new FindOneAndUpdateOptions().upsert(true)
+            );
+            scheduleRenewal(tripId, leaseToken);
+            return leaseToken;
+        } catch (MongoServerException e) {
+            // An unexpired lock exists, so the upsert collided with it.
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) == ErrorCategory.DUPLICATE_KEY) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Removes a lock for a given MonitoredTrip, provided it is still held with the given lease token, and wakes up any
+     * threads of this instance waiting for the lock.
+     */
+    public static void unlock(String tripId, String leaseToken) {
+        if (leaseToken == null) return;
+        cancelRenewal(leaseToken);
+        Persistence.monitoredTripLocks.removeFiltered(and(eq(tripId), eq(LEASE_TOKEN_FIELD_NAME, leaseToken)));
+        synchronized (releaseMonitor) {
+            releaseCount.incrementAndGet();
+            releaseMonitor.notifyAll();
+        }
+    }
 
     /**
-     * Locks the given MonitoredTrip
+     * Extends the lease on the given MonitoredTrip, provided it is still held with the given lease token.
+     * @return true if the lease was renewed, false if it is no longer held (e.g., it expired and was taken over).
      */
-    public static void lock(String tripId) {
-        locks.put(tripId, true);
+    public static boolean renew(String tripId, String leaseToken) {
+        return Persistence.monitoredTripLocks.getMongoCollection().updateOne(
+            and(eq(tripId), eq(LEASE_TOKEN_FIELD_NAME, leaseToken)),
+            Updates.set(EXPIRES_AT_FIELD_NAME, new Date(System.currentTimeMillis() + LEASE_DURATION_MILLIS))
+        ).getMatchedCount() > 0;
     }
 
     /**
-     * Removes a lock for a given MonitoredTrip
+     * Periodically renews the given lease until it is released or lost.
      */
-    public static void unlock(String tripId) {
-        locks.remove(tripId);
+    private static void scheduleRenewal(String tripId, String leaseToken) {
+        renewals.put(leaseToken, renewalExecutor.scheduleWithFixedDelay(
+            () -> {
+                try {
+                    if (!renew(tripId, leaseToken)) {
+                        LOG.warn("Lock on trip {} was lost before being released.", tripId);
+                        cancelRenewal(leaseToken);
+                    }
+                } catch (Exception e) {
+                    // Keep renewing, the lease may still be renewed before it expires.
+                    LOG.error("Could not renew lock on trip {}", tripId, e);
+                }
+            },
+            LEASE_RENEWAL_INTERVAL_MILLIS,
+            LEASE_RENEWAL_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS
+        ));
+    }
+
+    private static void cancelRenewal(String leaseToken) {
+        ScheduledFuture<?> renewal = renewals.remove(leaseToken);
+        if (renewal != null) renewal.cancel(false);
     }
 
     /**
-     * Returns true if a lock exists for the given MonitoredTrip
+     * Returns true if an unexpired lock exists for the given MonitoredTrip
      */
     public static boolean isLocked(String tripId) {
-        return locks.containsKey(tripId);
+        return Persistence.monitoredTripLocks.getCountFiltered(
+            and(eq(tripId), gt(EXPIRES_AT_FIELD_NAME, new Date()))
+        ) > 0;
     }
 
     /**
      * Attempts to lock the trip for updating within the context of a web request. If an existing monitored trip check
-     * is currently happening, this method will retry for 4 seconds to obtain a lock for the trip. If a lock couldn't be
+     * is currently happening, this method will wait up to 4 seconds for the lock to be released. If a lock couldn't be
      * obtained, then the request is halted.
+     * @return the lease token to pass to {@link #unlock}.
      */
-    public static void lockTripForUpdating(MonitoredTrip monitoredTrip, Request req) {
+    public static String lockTripForUpdating(MonitoredTrip monitoredTrip, Request req) {
         // Wait for any existing CheckMonitoredTrip jobs to complete before proceeding
         String busyMessage = "A trip monitor check prevented the trip from being updated. Please try again in a moment.";
-        if (isLocked(monitoredTrip.id)) {
-            int timeWaitedMillis = 0;
-            do {
-                try {
-                    Thread.sleep(LOCK_CHECK_WAIT_MILLIS);
-                } catch (InterruptedException e) {
-                    logMessageAndHalt(req, HttpStatus.INTERNAL_SERVER_ERROR_500, busyMessage);
-                }
-                timeWaitedMillis += LOCK_CHECK_WAIT_MILLIS;
-
-                // if the lock has been released, exit this wait loop
-                if (!isLocked(monitoredTrip.id)) break;
-            } while (timeWaitedMillis <= MAX_UNLOCKING_WAIT_TIME_MILLIS);
+        long deadline = System.currentTimeMillis() + MAX_UNLOCKING_WAIT_TIME_MILLIS;
+        long observedReleaseCount = releaseCount.get();
+        // lock the trip so that the a CheckMonitoredTrip job won't concurrently analyze/update the trip.
+        String leaseToken = lock(monitoredTrip.id);
+        while (leaseToken == null) {
+            long remainingMillis = deadline - System.currentTimeMillis();
+            if (remainingMillis <= 0) break;
+            try {
+                awaitRelease(observedReleaseCount, Math.min(remainingMillis, REMOTE_RELEASE_CHECK_MILLIS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logMessageAndHalt(req, HttpStatus.INTERNAL_SERVER_ERROR_500, busyMessage);
+            }
+            observedReleaseCount = releaseCount.get();
+            leaseToken = lock(monitoredTrip.id);
         }
 
         // If a lock still exists, prevent the update
-        if (isLocked(monitoredTrip.id)) {
+        if (leaseToken == null) {
             logMessageAndHalt(req, HttpStatus.INTERNAL_SERVER_ERROR_500, busyMessage);
-            return;
         }
+        return leaseToken;
+    }
 
-        // lock the trip so that the a CheckMonitoredTrip job won't concurrently analyze/update the trip.
-        lock(monitoredTrip.id);
+    /**
+     * Waits until this instance releases a lock (unless one was released since the given count was observed) or until
+     * the timeout elapses.
+     */
+    private static void awaitRelease(long observedReleaseCount, long timeoutMillis) throws InterruptedException {
+        synchronized (releaseMonitor) {
+            if (releaseCount.get() == observedReleaseCount) {
+                releaseMonitor.wait(timeoutMillis);
+            }
+        }
     }
 }
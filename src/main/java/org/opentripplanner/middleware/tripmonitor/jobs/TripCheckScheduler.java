@@ -0,0 +1,169 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.tripmonitor.JourneyState;
+import org.opentripplanner.middleware.tripmonitor.TripStatus;
+import org.opentripplanner.middleware.utils.DaemonThreadFactory;
+import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.opentripplanner.middleware.tripmonitor.jobs.MonitorAllTripsJob.ONE_MINUTE_IN_MILLIS;
+
+/**
+ * Long-lived engine that runs {@link TripAnalyzer} tasks on a bounded pool of worker threads. Pending checks are held
+ * in a priority queue ordered by each trip's next-due time, so that trips that are about to begin are always checked
+ * before trips that can wait, regardless of how large the backlog of checks is.
+ *
+ * The check intervals used to compute the due time mirror the thresholds in
+ * {@link CheckMonitoredTrip#shouldSkipMonitoredTripCheck()}, which remains the final authority on whether a trip is
+ * checked.
+ */
+public class TripCheckScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(TripCheckScheduler.class);
+
+    private static final int N_TRIP_ANALYZERS = Runtime.getRuntime().availableProcessors();
+
+    /** Trip ids that are queued or being analyzed, so that an overrunning job does not queue a trip twice. */
+    private static final Set<String> pendingTripIds = ConcurrentHashMap.newKeySet();
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        N_TRIP_ANALYZERS,
+        N_TRIP_ANALYZERS,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new PriorityBlockingQueue<>(),
+        new DaemonThreadFactory("trip-analyzer")
+    );
+
+    /** Greatest delay, in milliseconds, between a trip's due time and the start of its analysis in the current run. */
+    private static final AtomicLong maxLagMillis = new AtomicLong();
+    /** Sum of the delays in the current run, used to derive the mean lag. */
+    private static final AtomicLong totalLagMillis = new AtomicLong();
+    private static final AtomicLong analyzedTripCount = new AtomicLong();
+    private static final AtomicLong lastRunDurationMillis = new AtomicLong();
+
+    /**
+     * Queue a check for the given trip. Returns false (and does not count down the latch) if a check for the same trip
+     * is already pending.
+     */
+    public static boolean submit(String tripId, long dueEpochMillis, CountDownLatch completionLatch) {
+        if (!pendingTripIds.add(tripId)) {
+            LOG.warn("Trip {} is still queued from a previous run, not queueing again.", tripId);
+            return false;
+        }
+        executor.execute(new TripAnalyzer(tripId, dueEpochMillis, () -> {
+            pendingTripIds.remove(tripId);
+            completionLatch.countDown();
+        }));
+        return true;
+    }
+
+    /**
+     * Record how late (relative to its due time) a trip analysis started.
+     */
+    static void recordLag(long dueEpochMillis) {
+        long lag = Math.max(0, DateTimeUtils.currentTimeMillis() - dueEpochMillis);
+        maxLagMillis.accumulateAndGet(lag, Math::max);
+        totalLagMillis.addAndGet(lag);
+        analyzedTripCount.incrementAndGet();
+    }
+
+    /**
+     * Reset the per-run lag statistics. Called at the start of each {@link MonitorAllTripsJob} run.
+     */
+    static void resetRunStatistics() {
+        maxLagMillis.set(0);
+        totalLagMillis.set(0);
+        analyzedTripCount.set(0);
+    }
+
+    static void recordRunDuration(long durationMillis) {
+        lastRunDurationMillis.set(durationMillis);
+    }
+
+    /**
+     * @return the number of trip checks waiting for a worker.
+     */
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of workers currently analyzing a trip.
+     */
+    public static int getActiveAnalyzerCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the greatest delay, in milliseconds, between a trip's due time and the start of its analysis during the
+     * current (or most recent) run.
+     */
+    public static long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    /**
+     * @return the mean delay, in milliseconds, between a trip's due time and the start of its analysis during the
+     * current (or most recent) run.
+     */
+    public static long getMeanLagMillis() {
+        long count = analyzedTripCount.get();
+        return count == 0 ? 0 : totalLagMillis.get() / count;
+    }
+
+    /**
+     * @return the time, in milliseconds, that the most recent {@link MonitorAllTripsJob} run took to complete.
+     */
+    public static long getLastRunDurationMillis() {
+        return lastRunDurationMillis.get();
+    }
+
+    /**
+     * Estimate the time, in epoch milliseconds, at which the given trip is next due to be checked, based on when it was
+     * last checked and when its (matching) itinerary starts. Trips that have never been checked, or whose itinerary has
+     * already started, are due immediately so that their journey state can be advanced. This value is persisted as
+     * {@link JourneyState#nextCheckDueEpochMillis} after each check.
+     */
+    public static long computeNextCheckDueMillis(MonitoredTrip trip) {
+        JourneyState journeyState = trip.journeyState;
+        if (journeyState == null) return 0;
+        // A trip that is no longer possible is always skipped, so it never becomes due.
+        if (journeyState.tripStatus == TripStatus.NO_LONGER_POSSIBLE) return Long.MAX_VALUE;
+        if (journeyState.lastCheckedEpochMillis == 0) return 0;
+        Itinerary itinerary = journeyState.matchingItinerary != null
+            ? journeyState.matchingItinerary
+            : trip.itinerary;
+        if (itinerary == null || itinerary.startTime == null) return 0;
+
+        // Snoozed trips and trips whose next occurrence is not possible are not checked until the itinerary concludes.
+        boolean waitForItineraryEnd = trip.snoozed || journeyState.tripStatus == TripStatus.NEXT_TRIP_NOT_POSSIBLE;
+        if (waitForItineraryEnd && itinerary.endTime != null) return itinerary.endTime.getTime();
+
+        long lastChecked = journeyState.lastCheckedEpochMillis;
+        long tripStart = itinerary.startTime.getTime();
+        long minutesUntilTrip = (tripStart - DateTimeUtils.currentTimeMillis()) / ONE_MINUTE_IN_MILLIS;
+        if (minutesUntilTrip <= 0) return 0;
+
+        // Not checked until the lead time begins.
+        if (minutesUntilTrip > trip.leadTimeInMinutes) {
+            return tripStart - (long) trip.leadTimeInMinutes * ONE_MINUTE_IN_MILLIS;
+        }
+        // Hourly checks more than an hour out, every minute within 30 minutes, otherwise every 15 minutes. Trips within
+        // 30 minutes are due immediately: the last check time is set once the check completes, which is after the
+        // start of the job run, so adding a minute to it would leave the trip out of the next (one minute later) run.
+        if (minutesUntilTrip > 60) return lastChecked + 60L * ONE_MINUTE_IN_MILLIS;
+        if (minutesUntilTrip <= 30) return 0;
+        return Math.min(lastChecked + 15L * ONE_MINUTE_IN_MILLIS, tripStart - 30L * ONE_MINUTE_IN_MILLIS);
+    }
+}
@@ -0,0 +1,324 @@
+package org.opentripplanner.middleware.triptracker;
+
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.otp.response.Leg;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The path a journey is expected to follow, decoded once from the leg geometries of an itinerary, along with the time
+ * at which the traveler is expected at each point of the path.
+ *
+ * The segments of the path are bucketed in a grid of square cells, so that the nearest point of the path to a tracked
+ * location is found by only looking at the segments in the few cells around the location, instead of scanning the
+ * whole path. Points are projected onto a flat plane (in meters) centered on the start of the itinerary, which is
+ * accurate enough at the scale of a trip.
+ *
+ * Instances are immutable once built and can be shared between threads.
+ */
+public class ItineraryGeometry {
+    private static final Logger LOG = LoggerFactory.getLogger(ItineraryGeometry.class);
+
+    private static final double EARTH_RADIUS_METERS = 6_371_000;
+    private static final double METERS_PER_DEGREE_LAT = Math.PI * EARTH_RADIUS_METERS / 180;
+
+    /** The size of the grid cells, in meters. */
+    static final double CELL_SIZE_METERS = 100;
+
+    private final double originLat;
+    private final double originLon;
+    private final double metersPerDegreeLon;
+    /** Projected coordinates of the points of the path, in meters. */
+    private final double[] xs;
+    private final double[] ys;
+    /** Expected time at each point of the path, in epoch milliseconds. */
+    private final long[] times;
+    private final int pointCount;
+    /** Indexes of the segments (identified by their first point) that go through each cell. */
+    private final Map<Long, int[]> segmentsByCell;
+
+    private ItineraryGeometry(double[] lats, double[] lons, long[] times, int pointCount) {
+        this.pointCount = pointCount;
+        this.times = times;
+        originLat = pointCount > 0 ? lats[0] : 0;
+        originLon = pointCount > 0 ? lons[0] : 0;
+        metersPerDegreeLon = METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(originLat));
+        xs = new double[pointCount];
+        ys = new double[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            xs[i] = toX(lons[i]);
+            ys[i] = toY(lats[i]);
+        }
+        segmentsByCell = buildGrid();
+    }
+
+    /**
+     * Build the geometry of the given itinerary from the encoded polylines of its legs. The points of a leg without a
+     * geometry (or with a malformed one) are taken from its origin and destination. The expected time at each point is
+     * interpolated between the start and end times of its leg, proportionally to the distance covered within the leg.
+     */
+    public static ItineraryGeometry fromItinerary(Itinerary itinerary) {
+        PointList points = new PointList();
+        if (itinerary != null && itinerary.legs != null) {
+            for (Leg leg : itinerary.legs) {
+                int legStart = points.size;
+                boolean decoded = false;
+                if (leg.legGeometry != null && leg.legGeometry.points != null) {
+                    try {
+                        decodePolyline(leg.legGeometry.points, points);
+                        decoded = true;
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("Ignoring malformed leg geometry: {}", e.getMessage());
+                        // Drop the points decoded before the error.
+                        points.size = legStart;
+                    }
+                }
+                if (!decoded) {
+                    if (leg.from != null && leg.from.lat != null && leg.from.lon != null) {
+                        points.add(leg.from.lat, leg.from.lon);
+                    }
+                    if (leg.to != null && leg.to.lat != null && leg.to.lon != null) {
+                        points.add(leg.to.lat, leg.to.lon);
+                    }
+                }
+                setLegTimes(leg, points, legStart);
+            }
+        }
+        return new ItineraryGeometry(points.lats, points.lons, points.times, points.size);
+    }
+
+    /**
+     * Decode a polyline encoded with the Google polyline algorithm (with five decimal places, as produced by OTP), and
+     * append its points to the given list. Points decoded before an error are left in the list.
+     *
+     * @throws IllegalArgumentException if the polyline is truncated or contains characters outside of the encoding.
+     */
+    static void decodePolyline(String encoded, PointList points) {
+        int[] index = {0};
+        int lat = 0;
+        int lon = 0;
+        while (index[0] < encoded.length()) {
+            lat += decodeValue(encoded, index);
+            lon += decodeValue(encoded, index);
+            points.add(lat / 1e5, lon / 1e5);
+        }
+    }
+
+    /**
+     * Decode the value starting at the given index of a polyline, and advance the index past it.
+     */
+    private static int decodeValue(String encoded, int[] index) {
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (index[0] >= encoded.length() || shift > 30) {
+                throw new IllegalArgumentException("Truncated polyline at index " + index[0]);
+            }
+            b = encoded.charAt(index[0]) - 63;
+            if (b < 0 || b > 63) {
+                throw new IllegalArgumentException("Invalid polyline character at index " + index[0]);
+            }
+            index[0]++;
+            result |= (b & 0x1f) << shift;
+            shift += 5;
+        } while (b >= 0x20);
+        return (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+    }
+
+    /**
+     * Set the expected times of the points of a leg (from index legStart), interpolating between the leg start and end
+     * times according to the distance covered.
+     */
+    private static void setLegTimes(Leg leg, PointList points, int legStart) {
+        int legEnd = points.size;
+        if (legEnd == legStart) return;
+        long startMillis = leg.startTime != null ? leg.startTime.getTime() : 0;
+        long endMillis = leg.endTime != null ? leg.endTime.getTime() : startMillis;
+        double[] cumulativeDistances = new double[legEnd - legStart];
+        for (int i = legStart + 1; i < legEnd; i++) {
+            cumulativeDistances[i - legStart] = cumulativeDistances[i - legStart - 1] + approximateDistanceMeters(
+                points.lats[i - 1], points.lons[i - 1], points.lats[i], points.lons[i]
+            );
+        }
+        double legDistance = cumulativeDistances[cumulativeDistances.length - 1];
+        for (int i = legStart; i < legEnd; i++) {
+            double fraction = legDistance > 0 ? cumulativeDistances[i - legStart] / legDistance : 0;
+            points.times[i] = startMillis + Math.round((endMillis - startMillis) * fraction);
+        }
+    }
+
+    private static double approximateDistanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dy = (lat2 - lat1) * METERS_PER_DEGREE_LAT;
+        double dx = (lon2 - lon1) * METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Bucket each segment in the cells it goes through. Long segments are walked in steps of one cell, so that a
+     * segment is only added to the cells around it, rather than to all the cells of its bounding box.
+     */
+    private Map<Long, int[]> buildGrid() {
+        Map<Long, List<Integer>> lists = new HashMap<>();
+        for (int i = 0; i < pointCount - 1; i++) {
+            double length = Math.hypot(xs[i + 1] - xs[i], ys[i + 1] - ys[i]);
+            int steps = Math.max(1, (int) Math.ceil(length / CELL_SIZE_METERS));
+            for (int step = 0; step < steps; step++) {
+                double t0 = (double) step / steps;
+                double t1 = (double) (step + 1) / steps;
+                double x0 = xs[i] + (xs[i + 1] - xs[i]) * t0;
+                double y0 = ys[i] + (ys[i + 1] - ys[i]) * t0;
+                double x1 = xs[i] + (xs[i + 1] - xs[i]) * t1;
+                double y1 = ys[i] + (ys[i + 1] - ys[i]) * t1;
+                for (int cx = toCell(Math.min(x0, x1)); cx <= toCell(Math.max(x0, x1)); cx++) {
+                    for (int cy = toCell(Math.min(y0, y1)); cy <= toCell(Math.max(y0, y1)); cy++) {
+                        List<Integer> segments = lists.computeIfAbsent(cellKey(cx, cy), k -> new ArrayList<>());
+                        // Segments are added in order, so a duplicate can only be the last one added.
+                        if (segments.isEmpty() || segments.get(segments.size() - 1) != i) segments.add(i);
+                    }
+                }
+            }
+        }
+        Map<Long, int[]> grid = new HashMap<>(lists.size() * 4 / 3 + 1);
+        for (Map.Entry<Long, List<Integer>> entry : lists.entrySet()) {
+            grid.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return grid;
+    }
+
+    /**
+     * Find the nearest point of the path to the given location, among the points no further than the given distance.
+     *
+     * @return the nearest point, or null if the path has no point within the given distance.
+     */
+    public SnappedLocation snap(double lat, double lon, double maxDistanceMeters) {
+        if (pointCount == 0) return null;
+        double x = toX(lon);
+        double y = toY(lat);
+        if (pointCount == 1) {
+            double distance = Math.hypot(x - xs[0], y - ys[0]);
+            return distance <= maxDistanceMeters ? new SnappedLocation(distance, times[0], 0) : null;
+        }
+        int cx = toCell(x);
+        int cy = toCell(y);
+        int maxRing = (int) Math.ceil(maxDistanceMeters / CELL_SIZE_METERS);
+        double bestDistance = Double.MAX_VALUE;
+        int bestSegment = -1;
+        double bestFraction = 0;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Segments in cells of this ring (and beyond) are at least this far from the location.
+            if (bestSegment >= 0 && bestDistance <= (ring - 1) * CELL_SIZE_METERS) break;
+            for (int i = cx - ring; i <= cx + ring; i++) {
+                for (int j = cy - ring; j <= cy + ring; j++) {
+                    // Only visit the cells on the edge of the ring.
+                    if (i != cx - ring && i != cx + ring && j != cy - ring && j != cy + ring) continue;
+                    int[] segments = segmentsByCell.get(cellKey(i, j));
+                    if (segments == null) continue;
+                    for (int segment : segments) {
+                        double fraction = projectOnSegment(x, y, segment);
+                        double px = xs[segment] + (xs[segment + 1] - xs[segment]) * fraction;
+                        double py = ys[segment] + (ys[segment + 1] - ys[segment]) * fraction;
+                        double distance = Math.hypot(x - px, y - py);
+                        // Prefer the earliest segment of the path on ties, e.g. where the path goes back on itself.
+                        if (distance < bestDistance || (distance == bestDistance && segment < bestSegment)) {
+                            bestDistance = distance;
+                            bestSegment = segment;
+                            bestFraction = fraction;
+                        }
+                    }
+                }
+            }
+        }
+        if (bestSegment < 0 || bestDistance > maxDistanceMeters) return null;
+        long expectedTime = times[bestSegment] +
+            Math.round((times[bestSegment + 1] - times[bestSegment]) * bestFraction);
+        return new SnappedLocation(bestDistance, expectedTime, bestSegment);
+    }
+
+    /**
+     * @return the position (between 0 and 1) along the given segment of the projection of a point onto it.
+     */
+    private double projectOnSegment(double x, double y, int segment) {
+        double dx = xs[segment + 1] - xs[segment];
+        double dy = ys[segment + 1] - ys[segment];
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) return 0;
+        double fraction = ((x - xs[segment]) * dx + (y - ys[segment]) * dy) / lengthSquared;
+        return Math.max(0, Math.min(1, fraction));
+    }
+
+    /**
+     * @return whether the itinerary provided no points to follow.
+     */
+    public boolean isEmpty() {
+        return pointCount == 0;
+    }
+
+    /**
+     * @return the number of points of the path.
+     */
+    public int size() {
+        return pointCount;
+    }
+
+    private double toX(double lon) {
+        return (lon - originLon) * metersPerDegreeLon;
+    }
+
+    private double toY(double lat) {
+        return (lat - originLat) * METERS_PER_DEGREE_LAT;
+    }
+
+    private static int toCell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE_METERS);
+    }
+
+    private static long cellKey(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    /**
+     * The nearest point of the path to a tracked location.
+     */
+    public static class SnappedLocation {
+        /** The distance between the tracked location and the path, in meters. */
+        public final double distanceMeters;
+        /** The time at which the traveler is expected at this point of the path, in epoch milliseconds. */
+        public final long expectedTimeMillis;
+        /** The index of the segment of the path this point is on. */
+        public final int segmentIndex;
+
+        SnappedLocation(double distanceMeters, long expectedTimeMillis, int segmentIndex) {
+            this.distanceMeters = distanceMeters;
+            this.expectedTimeMillis = expectedTimeMillis;
+            this.segmentIndex = segmentIndex;
+        }
+    }
+
+    /**
+     * Growable arrays of decoded points, to avoid boxing each coordinate of long geometries.
+     */
+    static class PointList {
+        double[] lats = new double[64];
+        double[] lons = new double[64];
+        long[] times = new long[64];
+        int size;
+
+        void add(double lat, double lon) {
+            if (size == lats.length) {
+                lats = Arrays.copyOf(lats, size * 2);
+                lons = Arrays.copyOf(lons, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            lats[size] = lat;
+            lons[size] = lon;
+            size++;
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package org.opentripplanner.middleware.triptracker;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.auth.Auth0Connection;
+import org.opentripplanner.middleware.models.ModelReference;
+import org.opentripplanner.middleware.models.MonitoredTrip;
 import org.opentripplanner.middleware.models.TrackedJourney;
+import org.opentripplanner.middleware.otp.response.Itinerary;
 import org.opentripplanner.middleware.persistence.Persistence;
 import org.opentripplanner.middleware.triptracker.payload.EndTrackingPayload;
 import org.opentripplanner.middleware.triptracker.payload.ForceEndTrackingPayload;
@@ -13,8 +19,16 @@ import org.opentripplanner.middleware.triptracker.payload.UpdatedTrackingPayload
 import org.opentripplanner.middleware.triptracker.response.EndTrackingResponse;
 import org.opentripplanner.middleware.triptracker.response.StartTrackingResponse;
 import org.opentripplanner.middleware.triptracker.response.UpdateTrackingResponse;
+import org.opentripplanner.middleware.tripmonitor.JourneyState;
+import org.opentripplanner.middleware.utils.DateTimeUtils;
 import spark.Request;
 
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import static com.mongodb.client.model.Filters.eq;
 import static org.opentripplanner.middleware.utils.ConfigUtils.getConfigPropertyAsInt;
 import static org.opentripplanner.middleware.utils.JsonUtils.getPOJOFromRequestBody;
@@ -28,6 +42,26 @@ public class ManageTripTracking {
     public static final int TRIP_TRACKING_UPDATE_FREQUENCY_SECONDS
         = getConfigPropertyAsInt("TRIP_TRACKING_UPDATE_FREQUENCY_SECONDS", 5);
 
+    /** The maximum number of (most recent) locations kept for a tracked journey. Zero or less keeps all locations. */
+    public static final int TRIP_TRACKING_MAX_LOCATIONS = getConfigPropertyAsInt("TRIP_TRACKING_MAX_LOCATIONS", 0);
+
+    /** The distance from the expected path beyond which the traveler has deviated from their trip. */
+    public static final int TRIP_TRACKING_DEVIATION_THRESHOLD_METERS =
+        getConfigPropertyAsInt("TRIP_TRACKING_DEVIATION_THRESHOLD_METERS", 50);
+
+    /** The delay, compared to the expected time at their location, beyond which the traveler is behind schedule. */
+    public static final int TRIP_TRACKING_BEHIND_THRESHOLD_SECONDS =
+        getConfigPropertyAsInt("TRIP_TRACKING_BEHIND_THRESHOLD_SECONDS", 300);
+
+    /**
+     * The geometry of the itinerary followed by each ongoing journey, so that it is only decoded and indexed once per
+     * journey rather than on every location update.
+     */
+    private static final Cache<String, ItineraryGeometry> geometriesByJourneyId = CacheBuilder.newBuilder()
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .maximumSize(1000)
+        .build();
+
     /**
      * Start tracking by providing a unique journey id and tracking update frequency to the caller.
      */
@@ -46,7 +80,7 @@ public class ManageTripTracking {
             TRIP_TRACKING_UPDATE_FREQUENCY_SECONDS,
             getInstructions(TripStage.START),
             trackedJourney.id,
-            getTripStatus(TripStage.START)
+            getTripStatus(TripStage.START, trackedJourney, payload.location)
         );
     }
 
@@ -63,14 +97,23 @@ public class ManageTripTracking {
             return null;
         }
 
-        // Update tracked journey.
-        trackedJourney.update(payload);
-        Persistence.trackedJourneys.updateField(trackedJourney.id, TrackedJourney.LOCATIONS_FIELD_NAME, trackedJourney.locations);
+        // Update tracked journey by only appending the new locations, so that the cost of an update does not grow with
+        // the length of the journey.
+        if (!payload.locations.isEmpty()) {
+            Persistence.trackedJourneys.appendToArrayField(
+                trackedJourney.id,
+                TrackedJourney.LOCATIONS_FIELD_NAME,
+                payload.locations,
+                TRIP_TRACKING_MAX_LOCATIONS
+            );
+        }
 
-        // Provide response.
+        // Provide response, based on the most recent location.
+        List<TrackingLocation> locations = payload.locations;
+        TrackingLocation latestLocation = locations.isEmpty() ? null : locations.get(locations.size() - 1);
         return new UpdateTrackingResponse(
             getInstructions(TripStage.UPDATE),
-            getTripStatus(TripStage.UPDATE)
+            getTripStatus(TripStage.UPDATE, trackedJourney, latestLocation)
         );
     }
 
@@ -114,11 +157,12 @@ public class ManageTripTracking {
         trackedJourney.end(isForciblyEnded);
         Persistence.trackedJourneys.updateField(trackedJourney.id, TrackedJourney.END_TIME_FIELD_NAME, trackedJourney.endTime);
         Persistence.trackedJourneys.updateField(trackedJourney.id, TrackedJourney.END_CONDITION_FIELD_NAME, trackedJourney.endCondition);
+        geometriesByJourneyId.invalidate(trackedJourney.id);
 
         // Provide response.
         return new EndTrackingResponse(
             getInstructions(isForciblyEnded ? TripStage.FORCE_END : TripStage.END),
-            getTripStatus(isForciblyEnded ? TripStage.FORCE_END : TripStage.END)
+            getTripStatus(isForciblyEnded ? TripStage.FORCE_END : TripStage.END, trackedJourney, null)
         );
 
     }
@@ -141,12 +185,11 @@ public class ManageTripTracking {
     /**
      * Provides the trip status based on the trip stage and location.
      */
-    private static String getTripStatus(TripStage tripStage) {
-        // This is to be expanded on in later PRs. For now, it is used for unit testing.
+    private static String getTripStatus(TripStage tripStage, TrackedJourney trackedJourney, TrackingLocation location) {
         switch (tripStage) {
             case START:
             case UPDATE:
-                return TripStatus.ON_TRACK.name();
+                return getTripStatus(getItineraryGeometry(trackedJourney), location).name();
             case END:
             case FORCE_END:
                 return TripStatus.ENDED.name();
@@ -155,13 +198,94 @@ public class ManageTripTracking {
         }
     }
 
+    /**
+     * Compare a tracked location with the path and times of the itinerary followed. The traveler has deviated if they
+     * are further than {@link #TRIP_TRACKING_DEVIATION_THRESHOLD_METERS} from the path, and is behind if they are later
+     * than {@link #TRIP_TRACKING_BEHIND_THRESHOLD_SECONDS} at the nearest point of the path. Without a location or a
+     * path to compare it with, the traveler is assumed to be on track.
+     */
+    public static TripStatus getTripStatus(ItineraryGeometry geometry, TrackingLocation location) {
+        if (geometry == null || geometry.isEmpty() || location == null || location.lat == null || location.lon == null) {
+            return TripStatus.ON_TRACK;
+        }
+        ItineraryGeometry.SnappedLocation snappedLocation = geometry.snap(
+            location.lat,
+            location.lon,
+            TRIP_TRACKING_DEVIATION_THRESHOLD_METERS
+        );
+        if (snappedLocation == null) {
+            return TripStatus.DEVIATED;
+        }
+        if (
+            location.timestamp != null &&
+            location.timestamp.getTime() - snappedLocation.expectedTimeMillis >
+                TimeUnit.SECONDS.toMillis(TRIP_TRACKING_BEHIND_THRESHOLD_SECONDS)
+        ) {
+            return TripStatus.BEHIND;
+        }
+        return TripStatus.ON_TRACK;
+    }
+
+    /**
+     * Get the geometry of the itinerary followed by a journey, built on first use from the itinerary of the monitored
+     * trip for the day of the journey (see {@link #getItineraryForJourney}).
+     */
+    private static ItineraryGeometry getItineraryGeometry(TrackedJourney trackedJourney) {
+        ItineraryGeometry geometry = geometriesByJourneyId.getIfPresent(trackedJourney.id);
+        if (geometry == null) {
+            MonitoredTrip monitoredTrip = Persistence.monitoredTrips.getById(trackedJourney.tripId);
+            if (monitoredTrip == null) return null;
+            Date journeyStartTime = trackedJourney.startTime != null
+                ? trackedJourney.startTime
+                : DateTimeUtils.nowAsDate();
+            geometry = ItineraryGeometry.fromItinerary(getItineraryForJourney(monitoredTrip, journeyStartTime));
+            geometriesByJourneyId.put(trackedJourney.id, geometry);
+        }
+        return geometry;
+    }
+
+    /**
+     * Get the itinerary that a journey started at the given time is expected to follow: the itinerary of the monitored
+     * trip matched for the day of the journey if available, or else the itinerary saved with the trip. The itinerary
+     * saved with the trip (or a matching itinerary from an earlier day) has the times of the day it was planned for,
+     * so its times are moved by whole days to the occurrence of the itinerary nearest to the start of the journey.
+     * The monitored trip is modified and should not be used afterwards.
+     */
+    static Itinerary getItineraryForJourney(MonitoredTrip monitoredTrip, Date journeyStartTime) {
+        ZonedDateTime journeyStart = DateTimeUtils.makeOtpZonedDateTime(journeyStartTime);
+        String journeyDate = journeyStart.format(DateTimeUtils.DEFAULT_DATE_FORMATTER);
+        JourneyState journeyState = monitoredTrip.journeyState;
+        Itinerary itinerary = journeyState != null &&
+            journeyState.matchingItinerary != null &&
+            journeyDate.equals(journeyState.targetDate)
+            ? journeyState.matchingItinerary
+            : monitoredTrip.itinerary;
+        if (itinerary == null || itinerary.startTime == null || itinerary.legs == null) return itinerary;
+
+        ZonedDateTime itineraryStart = DateTimeUtils.makeOtpZonedDateTime(itinerary.startTime);
+        ZonedDateTime shiftedStart = itineraryStart.with(journeyStart.toLocalDate());
+        // The journey may start the day before (or after) its itinerary, e.g. around midnight.
+        for (ZonedDateTime candidate : List.of(shiftedStart.minusDays(1), shiftedStart.plusDays(1))) {
+            if (
+                Math.abs(Duration.between(journeyStart, candidate).toMillis()) <
+                    Math.abs(Duration.between(journeyStart, shiftedStart).toMillis())
+            ) {
+                shiftedStart = candidate;
+            }
+        }
+        long offsetMillis = Duration.between(itineraryStart, shiftedStart).toMillis();
+        if (offsetMillis != 0) itinerary.offsetTimes(offsetMillis);
+        return itinerary;
+    }
+
     /**
      * Confirm that the monitored trip that the user is on belongs to them.
      */
     private static boolean isTripAssociatedWithUser(Request request, String tripId) {
         var user = Auth0Connection.getUserFromRequest(request);
 
-        var monitoredTrip = Persistence.monitoredTrips.getById(tripId);
+        // Only the owner of the trip is needed, so avoid reading the trip itinerary and journey state.
+        var monitoredTrip = Persistence.monitoredTrips.getById(tripId, ModelReference.class);
         if (monitoredTrip == null || (user.otpUser != null && !monitoredTrip.userId.equals(user.otpUser.id))) {
             logMessageAndHalt(request, HttpStatus.FORBIDDEN_403, "Monitored trip is not associated with this user!");
             return false;
@@ -188,10 +312,13 @@ public class ManageTripTracking {
 
     /**
      * Get active, tracked journey, based on the tracked journey id. If the end time is populated the journey has
-     * already been completed.
+     * already been completed. The locations of the journey are not loaded.
      */
     private static TrackedJourney getActiveJourney(Request request, String trackedJourneyId) {
-        var trackedJourney = Persistence.trackedJourneys.getById(trackedJourneyId);
+        var trackedJourney = Persistence.trackedJourneys.getMongoCollection()
+            .find(eq(trackedJourneyId))
+            .projection(Projections.exclude(TrackedJourney.LOCATIONS_FIELD_NAME))
+            .first();
         if (trackedJourney != null && trackedJourney.endTime == null) {
             return trackedJourney;
         } else {
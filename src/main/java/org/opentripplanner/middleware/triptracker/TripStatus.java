@@ -5,6 +5,8 @@ package org.opentripplanner.middleware.triptracker;
  */
 public enum TripStatus {
     ON_TRACK,
+    /** The traveler is on the expected path, but later than expected at their location. */
+    BEHIND,
     ENDED,
     DEVIATED,
     NO_STATUS
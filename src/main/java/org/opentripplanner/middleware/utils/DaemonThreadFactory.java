@@ -0,0 +1,27 @@
+package org.opentripplanner.middleware.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the executors used by background tasks, so that the threads are identifiable in
+ * logs and thread dumps and never prevent the JVM from exiting.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String namePrefix;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * @param namePrefix prefix for the thread names, which are suffixed with a sequence number (e.g. trip-analyzer-1).
+     */
+    public DaemonThreadFactory(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
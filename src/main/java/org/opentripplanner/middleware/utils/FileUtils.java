@@ -7,18 +7,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 /**
  * File utility class for extracting and parsing file content
@@ -42,26 +38,6 @@ public class FileUtils {
         return IOUtils.toString(fileInputStream, StandardCharsets.UTF_8);
     }
 
-    /**
-     * Adds a single existing file to a new zip file. The contents of the file is streamed to avoid out-of-memory
-     * errors.
-     */
-    public static void addSingleFileToZip(String pathToFile, String zipPathAndFileName) throws IOException {
-        Path source = Paths.get(pathToFile);
-        try (
-            ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipPathAndFileName));
-            FileInputStream fis = new FileInputStream(source.toFile());
-        ) {
-            ZipEntry zipEntry = new ZipEntry(source.getFileName().toString());
-            zos.putNextEntry(zipEntry);
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = fis.read(buffer)) > 0) {
-                zos.write(buffer, 0, len);
-            }
-        }
-    }
-
     /**
      * Writes content to a file. If the file does not exist it is created. The file contents will either be written over
      * or appended to depending on the append parameter.
@@ -9,6 +9,9 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
 import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
@@ -30,6 +33,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 
@@ -51,6 +55,50 @@ public class HttpUtils {
      */
     public static final Filter NO_FILTER = (request, response) -> {};
 
+    private static final int HTTP_CLIENT_MAX_CONNECTIONS =
+        ConfigUtils.getConfigPropertyAsInt("HTTP_CLIENT_MAX_CONNECTIONS", 200);
+    private static final int HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE =
+        ConfigUtils.getConfigPropertyAsInt("HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE", 50);
+    private static final int HTTP_CLIENT_IDLE_CONNECTION_TIMEOUT_SECONDS =
+        ConfigUtils.getConfigPropertyAsInt("HTTP_CLIENT_IDLE_CONNECTION_TIMEOUT_SECONDS", 30);
+
+    /**
+     * Connection pool shared by all outgoing requests (OTP, Bugsnag, etc.), so that keep-alive connections are reused
+     * instead of paying for a new TCP/TLS handshake on every request.
+     */
+    private static final PoolingHttpClientConnectionManager CONNECTION_MANAGER = createConnectionManager();
+    private static final CloseableHttpClient HTTP_CLIENT = createHttpClient(true);
+    private static final CloseableHttpClient NO_REDIRECT_HTTP_CLIENT = createHttpClient(false);
+
+    private static PoolingHttpClientConnectionManager createConnectionManager() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(HTTP_CLIENT_MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE);
+        // Clients built with a shared connection manager do not evict connections themselves, so start an evictor
+        // (on a daemon thread) that closes expired connections and those idle for longer than the timeout.
+        new IdleConnectionEvictor(
+            connectionManager,
+            HTTP_CLIENT_IDLE_CONNECTION_TIMEOUT_SECONDS,
+            TimeUnit.SECONDS
+        ).start();
+        return connectionManager;
+    }
+
+    private static CloseableHttpClient createHttpClient(boolean allowRedirects) {
+        HttpClientBuilder builder = HttpClientBuilder.create()
+            .setConnectionManager(CONNECTION_MANAGER)
+            .setConnectionManagerShared(true);
+        if (!allowRedirects) builder.disableRedirectHandling();
+        return builder.build();
+    }
+
+    /**
+     * @return the statistics (leased, available and pending connections) of the shared connection pool.
+     */
+    public static PoolStats getConnectionPoolStats() {
+        return CONNECTION_MANAGER.getTotalStats();
+    }
+
     /**
      * Constructs a url based on the uri.  endpoint and query params if provided
      */
@@ -130,12 +178,11 @@ public class HttpUtils {
             }
         }
 
-        CloseableHttpClient httpClient = allowRedirects
-            ? HttpClientBuilder.create().build()
-            : HttpClientBuilder.create().disableRedirectHandling().build();
+        CloseableHttpClient httpClient = allowRedirects ? HTTP_CLIENT : NO_REDIRECT_HTTP_CLIENT;
 
         try  {
-            // Extract required information from the response and return to caller. The connection is closed once complete.
+            // Extract required information from the response and return to caller. The response entity is consumed
+            // once complete, which returns the connection to the pool for reuse.
             return httpClient.execute(httpUriRequest, new HttpResponseHandler(httpUriRequest));
         } catch (HttpTimeoutException e) {
             LOG.error("Request to {} timed out after {} seconds.", uri, timeoutInSeconds, e);
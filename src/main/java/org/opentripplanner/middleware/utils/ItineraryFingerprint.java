@@ -0,0 +1,158 @@
+package org.opentripplanner.middleware.utils;
+
+import com.spatial4j.core.distance.DistanceUtils;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.otp.response.Leg;
+import org.opentripplanner.middleware.otp.response.Place;
+
+import java.time.Instant;
+import java.time.zone.ZoneRules;
+import java.util.Date;
+
+/**
+ * A compact summary of a reference itinerary, computed once, that is used to quickly reject candidate itineraries
+ * before running the full comparison of {@link ItineraryUtils#itinerariesMatch}. For each transit leg, it holds the mode
+ * and interlining of the leg, the scheduled time of day (in seconds, in the OTP time zone) of the leg start and end,
+ * and the quantized coordinates of the leg stops.
+ *
+ * The checks made with a fingerprint are conservative: a candidate is only rejected if the full comparison would not
+ * match it either. Checks that are as costly as the full comparison (e.g., case-insensitive name comparisons) are left
+ * to the full comparison.
+ */
+public class ItineraryFingerprint {
+    /** Stop coordinates are quantized to millionths of a degree (about 0.1 meters). */
+    private static final double QUANTIZATION = 1e6;
+    private static final double METERS_PER_MICRODEGREE =
+        DistanceUtils.EARTH_MEAN_RADIUS_KM * 1000 * Math.PI / 180 / QUANTIZATION;
+    /** The maximum distance between matching stops, see {@link ItineraryUtils#stopsMatch}. */
+    private static final double MAX_STOP_DISTANCE_METERS = 5;
+    /** Tolerance (in quantized units) added to account for rounding and for the flat-earth approximation. */
+    private static final int QUANTIZATION_MARGIN = 2;
+    /** The difference in quantized latitude beyond which stops are certainly too far apart. */
+    private static final int LAT_TOLERANCE =
+        (int) Math.ceil(MAX_STOP_DISTANCE_METERS / METERS_PER_MICRODEGREE) + QUANTIZATION_MARGIN;
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final long FULL_CIRCLE = Math.round(360 * QUANTIZATION);
+
+    private final boolean monitorable;
+    private final int legCount;
+    private final ZoneRules zoneRules;
+    /** Whether each leg is checked, i.e. is a transit leg. */
+    private final boolean[] transit;
+    private final String[] modes;
+    private final Boolean[] interlineWithPreviousLeg;
+    private final int[] startSecondOfDay;
+    private final int[] endSecondOfDay;
+    private final int[] fromLat;
+    private final int[] fromLon;
+    private final int[] fromLonTolerance;
+    private final int[] toLat;
+    private final int[] toLon;
+    private final int[] toLonTolerance;
+
+    public ItineraryFingerprint(Itinerary itinerary) {
+        monitorable = itinerary.canBeMonitored();
+        legCount = itinerary.legs == null ? 0 : itinerary.legs.size();
+        zoneRules = DateTimeUtils.getOtpZoneId().getRules();
+        transit = new boolean[legCount];
+        modes = new String[legCount];
+        interlineWithPreviousLeg = new Boolean[legCount];
+        startSecondOfDay = new int[legCount];
+        endSecondOfDay = new int[legCount];
+        fromLat = new int[legCount];
+        fromLon = new int[legCount];
+        fromLonTolerance = new int[legCount];
+        toLat = new int[legCount];
+        toLon = new int[legCount];
+        toLonTolerance = new int[legCount];
+        for (int i = 0; i < legCount; i++) {
+            Leg leg = itinerary.legs.get(i);
+            // Non-transit legs are not compared (see ItineraryUtils#legsMatch).
+            transit[i] = Boolean.TRUE.equals(leg.transitLeg);
+            modes[i] = leg.mode;
+            interlineWithPreviousLeg[i] = leg.interlineWithPreviousLeg;
+            startSecondOfDay[i] = secondOfDay(leg.startTime, leg.departureDelay);
+            endSecondOfDay[i] = secondOfDay(leg.endTime, leg.arrivalDelay);
+            fromLat[i] = quantizedLat(leg.from);
+            fromLon[i] = quantizedLon(leg.from);
+            fromLonTolerance[i] = lonTolerance(leg.from);
+            toLat[i] = quantizedLat(leg.to);
+            toLon[i] = quantizedLon(leg.to);
+            toLonTolerance[i] = lonTolerance(leg.to);
+        }
+    }
+
+    /**
+     * @return false if the candidate itinerary certainly does not match the reference itinerary, true if it may match,
+     * in which case the full comparison should be made.
+     */
+    public boolean mayMatch(Itinerary candidate) {
+        if (!monitorable || candidate.legs == null || candidate.legs.size() != legCount) return false;
+        for (int i = 0; i < legCount; i++) {
+            if (!transit[i]) continue;
+            Leg leg = candidate.legs.get(i);
+            if (
+                (modes[i] != null && !modes[i].equals(leg.mode)) ||
+                interlineWithPreviousLeg[i] != leg.interlineWithPreviousLeg ||
+                !sameValue(startSecondOfDay[i], secondOfDay(leg.startTime, leg.departureDelay)) ||
+                !sameValue(endSecondOfDay[i], secondOfDay(leg.endTime, leg.arrivalDelay)) ||
+                !closeEnough(fromLat[i], quantizedLat(leg.from), LAT_TOLERANCE) ||
+                !closeEnough(fromLon[i], quantizedLon(leg.from), fromLonTolerance[i]) ||
+                !closeEnough(toLat[i], quantizedLat(leg.to), LAT_TOLERANCE) ||
+                !closeEnough(toLon[i], quantizedLon(leg.to), toLonTolerance[i])
+            ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the second of the day, in the OTP time zone, of the scheduled time (actual time minus delay).
+     */
+    private int secondOfDay(Date time, Integer delaySeconds) {
+        if (time == null || delaySeconds == null) return UNKNOWN;
+        long epochSecond = Math.floorDiv(time.getTime(), 1000L) - delaySeconds;
+        int offsetSeconds = zoneRules.getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+        return (int) Math.floorMod(epochSecond + offsetSeconds, (long) SECONDS_PER_DAY);
+    }
+
+    private static int quantizedLat(Place place) {
+        return place == null || place.lat == null ? UNKNOWN : (int) Math.round(place.lat * QUANTIZATION);
+    }
+
+    private static int quantizedLon(Place place) {
+        return place == null || place.lon == null ? UNKNOWN : (int) Math.round(place.lon * QUANTIZATION);
+    }
+
+    /**
+     * @return the difference in quantized longitude beyond which stops at the latitude of the given place are certainly
+     * too far apart, or {@link #UNKNOWN} if this should not be checked.
+     */
+    private static int lonTolerance(Place place) {
+        if (place == null || place.lat == null) return UNKNOWN;
+        // Allow 1% for the change of latitude between the stops and the flat-earth approximation.
+        double metersPerMicrodegree = METERS_PER_MICRODEGREE * Math.cos(Math.toRadians(place.lat)) * 0.99;
+        // Close to the poles, longitudes do not tell stops apart.
+        if (metersPerMicrodegree < METERS_PER_MICRODEGREE / 100) return UNKNOWN;
+        return (int) Math.ceil(MAX_STOP_DISTANCE_METERS / metersPerMicrodegree) + QUANTIZATION_MARGIN;
+    }
+
+    /**
+     * @return true unless both values are known and different.
+     */
+    private static boolean sameValue(int reference, int candidate) {
+        return reference == UNKNOWN || candidate == UNKNOWN || reference == candidate;
+    }
+
+    /**
+     * @return true unless both values are known and further apart than the tolerance. Differences are measured both
+     * ways around the globe, so that longitudes on either side of the antimeridian are close.
+     */
+    private static boolean closeEnough(int reference, int candidate, int tolerance) {
+        if (reference == UNKNOWN || candidate == UNKNOWN || tolerance == UNKNOWN) return true;
+        long difference = Math.abs((long) reference - candidate);
+        return Math.min(difference, FULL_CIRCLE - difference) <= tolerance;
+    }
+}
@@ -171,6 +171,24 @@ public class ItineraryUtils {
         return true;
     }
 
+    /**
+     * Same as {@link #itinerariesMatch(Itinerary, Itinerary)}, but first uses the precomputed fingerprint of the
+     * reference itinerary to cheaply reject candidates that certainly do not match. Use this when comparing the same
+     * reference itinerary with many candidates.
+     *
+     * @param referenceFingerprint The fingerprint of the reference itinerary.
+     * @param referenceItinerary The reference itinerary that others are compared against.
+     * @param candidateItinerary A new itinerary that might match the previous itinerary.
+     */
+    public static boolean itinerariesMatch(
+        ItineraryFingerprint referenceFingerprint,
+        Itinerary referenceItinerary,
+        Itinerary candidateItinerary
+    ) {
+        return referenceFingerprint.mayMatch(candidateItinerary) &&
+            itinerariesMatch(referenceItinerary, candidateItinerary);
+    }
+
     /**
      * Checks that the specified itinerary is on the same day as the specified date/time.
      * @param itinerary the itinerary to check.
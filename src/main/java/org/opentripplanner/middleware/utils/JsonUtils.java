@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.type.CollectionType;
 import org.apache.http.HttpResponse;
@@ -44,6 +45,13 @@ public class JsonUtils {
         return json;
     }
 
+    /**
+     * Get a writer with the same configuration as {@link #toJson}, for streaming JSON values to an output.
+     */
+    public static ObjectWriter getWriter() {
+        return mapper.writer();
+    }
+
     /**
      * Wrapper around Spark halt method that formats message as JSON using {@link #formatJSON}.
      */
@@ -11,6 +11,7 @@ import com.twilio.rest.verify.v2.service.VerificationCreator;
 import com.twilio.type.PhoneNumber;
 import freemarker.template.TemplateException;
 import org.eclipse.jetty.http.HttpMethod;
+import org.opentripplanner.middleware.auth.RequestingUserCache;
 import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
 import org.opentripplanner.middleware.models.AdminUser;
 import org.opentripplanner.middleware.models.OtpUser;
@@ -366,6 +367,7 @@ public class NotificationUtils {
         if (numPushDevices != otpUser.pushDevices) {
             otpUser.pushDevices = numPushDevices;
             Persistence.otpUsers.replace(otpUser.id, otpUser);
+            RequestingUserCache.invalidate(otpUser);
       	}
     }
 
@@ -0,0 +1,141 @@
+package org.opentripplanner.middleware.utils;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output stream that uploads what is written to it as an S3 object, without the object ever being held in full on local
+ * disk or in memory. Bytes are buffered up to the size of a part, and each full part is uploaded as part of a multipart
+ * upload, which is completed when the stream is closed. An object smaller than a part is uploaded in a single request
+ * instead. Nothing is sent to S3 until a part is full or the stream is closed.
+ *
+ * If writing the object fails, {@link #abort} must be called so that the parts already uploaded are discarded and no
+ * partial object is created.
+ */
+public class S3UploadOutputStream extends OutputStream {
+    private static final Logger LOG = LoggerFactory.getLogger(S3UploadOutputStream.class);
+
+    /** The size of each uploaded part, which is the minimum size allowed by S3 (except for the last part). */
+    static final int PART_SIZE_BYTES = 5 * 1024 * 1024;
+
+    private final AmazonS3 s3Client;
+    private final String bucketName;
+    private final String key;
+    private final List<PartETag> partETags = new ArrayList<>();
+    /** Bytes of the current part, allocated on the first write. */
+    private byte[] buffer;
+    private int bufferedBytes;
+    /** Id of the multipart upload, or null if no part has been uploaded yet. */
+    private String uploadId;
+    private boolean isClosed;
+
+    S3UploadOutputStream(AmazonS3 s3Client, String bucketName, String key) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.key = key;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (isClosed) throw new IOException("Upload of " + key + " is closed");
+        if (buffer == null) buffer = new byte[PART_SIZE_BYTES];
+        while (length > 0) {
+            int copiedBytes = Math.min(length, PART_SIZE_BYTES - bufferedBytes);
+            System.arraycopy(bytes, offset, buffer, bufferedBytes, copiedBytes);
+            bufferedBytes += copiedBytes;
+            offset += copiedBytes;
+            length -= copiedBytes;
+            if (bufferedBytes == PART_SIZE_BYTES) uploadPart(false);
+        }
+    }
+
+    /**
+     * Upload the remaining bytes and complete the upload.
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed) return;
+        isClosed = true;
+        try {
+            if (uploadId == null) {
+                // The object fits in a single part.
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(bufferedBytes);
+                s3Client.putObject(new PutObjectRequest(bucketName, key, getBufferedBytes(), metadata));
+            } else {
+                if (bufferedBytes > 0) uploadPart(true);
+                s3Client.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags)
+                );
+            }
+            LOG.info("Uploaded to AWS: {}/{}", bucketName, key);
+        } catch (AmazonClientException e) {
+            throw new IOException(String.format("Unable to upload %s to S3 bucket %s", key, bucketName), e);
+        } finally {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Discard the upload, including any parts already uploaded. Nothing else can be written to the stream afterwards.
+     */
+    public void abort() {
+        isClosed = true;
+        buffer = null;
+        if (uploadId == null) return;
+        try {
+            s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+        } catch (AmazonClientException e) {
+            // The parts left behind are removed by the bucket's lifecycle rules, if any.
+            LOG.error("Unable to abort upload of {} to S3 bucket {}", key, bucketName, e);
+        }
+    }
+
+    /**
+     * Upload the buffered bytes as the next part, starting the multipart upload if needed.
+     */
+    private void uploadPart(boolean isLastPart) throws IOException {
+        try {
+            if (uploadId == null) {
+                uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key))
+                    .getUploadId();
+            }
+            partETags.add(s3Client.uploadPart(new UploadPartRequest()
+                .withBucketName(bucketName)
+                .withKey(key)
+                .withUploadId(uploadId)
+                .withPartNumber(partETags.size() + 1)
+                .withInputStream(getBufferedBytes())
+                .withPartSize(bufferedBytes)
+                .withLastPart(isLastPart)
+            ).getPartETag());
+            bufferedBytes = 0;
+        } catch (AmazonClientException e) {
+            throw new IOException(String.format("Unable to upload part of %s to S3 bucket %s", key, bucketName), e);
+        }
+    }
+
+    private ByteArrayInputStream getBufferedBytes() {
+        return new ByteArrayInputStream(buffer == null ? new byte[0] : buffer, 0, bufferedBytes);
+    }
+}
@@ -12,7 +12,6 @@ import org.opentripplanner.middleware.bugsnag.BugsnagReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
@@ -28,17 +27,40 @@ public class S3Utils {
 
     public static final Logger LOG = LoggerFactory.getLogger(S3Utils.class);
 
+    /** Client used instead of connecting to AWS S3 (e.g., a local stand-in for testing), if set. */
+    private static AmazonS3 amazonS3Override;
+
+    /** Client connected to AWS S3, created on first use and shared by all threads (clients are thread-safe). */
+    private static AmazonS3 amazonS3;
+
     private S3Utils() {}
 
     /**
-     * Create connection to AWS S3.
+     * Use the given client for all interactions with S3 instead of connecting to AWS S3 (e.g., a local stand-in for
+     * testing). Passing null restores the connection to AWS S3.
+     */
+    public static synchronized void setAmazonS3(AmazonS3 s3Client) {
+        amazonS3Override = s3Client;
+    }
+
+    /**
+     * Get the connection to AWS S3, creating it on first use. A client holds its own connection pool and credentials,
+     * so it is reused rather than created for each interaction.
      */
-    private static AmazonS3 getAmazonS3() {
-        AmazonS3ClientBuilder amazonS3ClientBuilder = AmazonS3ClientBuilder.standard();
-        if (hasConfigProperty("AWS_PROFILE")) {
-            amazonS3ClientBuilder.withCredentials(new ProfileCredentialsProvider(getConfigPropertyAsText("AWS_PROFILE")));
+    private static synchronized AmazonS3 getAmazonS3() {
+        if (amazonS3Override != null) {
+            return amazonS3Override;
+        }
+        if (amazonS3 == null) {
+            AmazonS3ClientBuilder amazonS3ClientBuilder = AmazonS3ClientBuilder.standard();
+            if (hasConfigProperty("AWS_PROFILE")) {
+                amazonS3ClientBuilder.withCredentials(
+                    new ProfileCredentialsProvider(getConfigPropertyAsText("AWS_PROFILE"))
+                );
+            }
+            amazonS3 = amazonS3ClientBuilder.build();
         }
-        return amazonS3ClientBuilder.build();
+        return amazonS3;
     }
 
     /**
@@ -86,20 +108,11 @@ public class S3Utils {
     }
 
     /**
-     * Upload an object to S3.
+     * Create a stream that uploads what is written to it as an object on S3, in parts as it is written (see
+     * {@link S3UploadOutputStream}). The object is created when the stream is closed.
      */
-    public static void putObject(String bucketName, String folderAndFileName, File file) throws S3Exception {
-        try {
-            AmazonS3 s3Client = getAmazonS3();
-            s3Client.putObject(bucketName, folderAndFileName, file);
-            LOG.info("Uploading to AWS: {}/{}", bucketName, folderAndFileName);
-        } catch (Exception e) {
-            // If some unexpected exception is thrown by AWS, catch it, report to Bugsnag, and throw.
-            String message = "Unable to create object";
-            S3Exception exception = new S3Exception(bucketName, folderAndFileName, message, e);
-            BugsnagReporter.reportErrorToBugsnag(message, folderAndFileName, exception);
-            throw exception;
-        }
+    public static S3UploadOutputStream createUploadStream(String bucketName, String folderAndFileName) {
+        return new S3UploadOutputStream(getAmazonS3(), bucketName, folderAndFileName);
     }
 
     /**
@@ -0,0 +1,30 @@
+package org.opentripplanner.middleware.auth;
+
+import com.auth0.jwk.SigningKeyNotFoundException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the handling of tokens signed with keys unknown to Auth0 by {@link JwtVerifierCache}.
+ */
+public class JwtVerifierCacheTest {
+    @Test
+    void canRememberUnknownKeyIds() {
+        AtomicInteger keyRequestCount = new AtomicInteger();
+        JwtVerifierCache verifierCache = new JwtVerifierCache("example.auth0.com", keyId -> {
+            keyRequestCount.incrementAndGet();
+            throw new SigningKeyNotFoundException("No key found for key id " + keyId, null);
+        });
+
+        assertThrows(SigningKeyNotFoundException.class, () -> verifierCache.getVerifier("unknown-key-id"));
+        assertThrows(SigningKeyNotFoundException.class, () -> verifierCache.getVerifier("unknown-key-id"));
+        assertEquals(1, keyRequestCount.get(), "An unknown key id should only be fetched once.");
+
+        assertThrows(SigningKeyNotFoundException.class, () -> verifierCache.getVerifier(null));
+        assertEquals(1, keyRequestCount.get(), "A token without a key id should not cause a key request.");
+    }
+}
@@ -0,0 +1,60 @@
+package org.opentripplanner.middleware.auth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.models.AdminUser;
+import org.opentripplanner.middleware.models.OtpUser;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.testutils.PersistenceTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests the caching of {@link RequestingUser} instances per Auth0 user.
+ */
+public class RequestingUserCacheTest extends OtpMiddlewareTestEnvironment {
+    private OtpUser otpUser;
+
+    @BeforeEach
+    public void setUp() {
+        otpUser = PersistenceTestUtils.createUser("requesting-user-cache@example.com");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        RequestingUserCache.invalidate(otpUser);
+        otpUser.delete(false);
+    }
+
+    @Test
+    public void canCacheRequestingUserUntilInvalidated() {
+        DecodedJWT jwt = makeToken(otpUser.auth0UserId, OtpUser.AUTH0_SCOPE);
+        RequestingUser requestingUser = RequestingUserCache.get(jwt);
+        assertEquals(otpUser.id, requestingUser.otpUser.id);
+        assertSame(requestingUser, RequestingUserCache.get(jwt), "Requesting user should be served from the cache.");
+
+        RequestingUserCache.invalidate(otpUser);
+        assertNotSame(requestingUser, RequestingUserCache.get(jwt), "Requesting user should be looked up again.");
+    }
+
+    @Test
+    public void shouldNotServeCachedUserForOtherScope() {
+        RequestingUser requestingUser = RequestingUserCache.get(makeToken(otpUser.auth0UserId, OtpUser.AUTH0_SCOPE));
+        RequestingUser adminRequestingUser = RequestingUserCache.get(
+            makeToken(otpUser.auth0UserId, AdminUser.AUTH0_SCOPE)
+        );
+        assertNotSame(requestingUser, adminRequestingUser);
+        assertNull(adminRequestingUser.otpUser);
+    }
+
+    private static DecodedJWT makeToken(String subject, String scope) {
+        return JWT.decode(JWT.create().withSubject(subject).withClaim("scope", scope).sign(Algorithm.none()));
+    }
+}
@@ -0,0 +1,141 @@
+package org.opentripplanner.middleware.connecteddataplatform;
+
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.models.TripRequest;
+import org.opentripplanner.middleware.models.TripSummary;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.otp.response.Leg;
+import org.opentripplanner.middleware.otp.response.Place;
+import org.opentripplanner.middleware.otp.response.TripPlan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests which coordinates of the trip request places and itinerary legs are provided by {@link AnonymizedTripRequest}.
+ */
+public class AnonymizedTripRequestTest {
+    private static final String FROM_PLACE = "Airport, College Park, GA, USA :: 33.64070037704429,-84.44622866991179";
+    private static final String TO_PLACE =
+        "177 Gibson Street SE, Atlanta, GA, USA :: 33.748893261983575,-84.35611735540574";
+
+    /**
+     * Confirm that hiding the coordinates of non-transit legs leaves the legs of the trip summary unchanged.
+     */
+    @Test
+    void canAnonymizeWithoutModifyingSourceLegs() {
+        Itinerary itinerary = makeItinerary(makeLeg(false, 1), makeLeg(true, 2), makeLeg(false, 3));
+
+        AnonymizedTripRequest tripRequest = anonymize(itinerary);
+
+        List<AnonymizedLeg> legs = tripRequest.itineraries.get(0).legs;
+        assertNull(legs.get(0).from);
+        assertNull(legs.get(2).to);
+        for (int i = 0; i < itinerary.legs.size(); i++) {
+            Leg leg = itinerary.legs.get(i);
+            assertEquals(i + 1, leg.from.lat);
+            assertEquals(i + 1, leg.from.lon);
+            assertEquals(i + 1.5, leg.to.lat);
+            assertEquals(i + 1.5, leg.to.lon);
+        }
+    }
+
+    /**
+     * Confirm that the last leg of each itinerary is checked, including when itineraries have different numbers of
+     * legs, and that only the non-transit legs outside the transit part of an itinerary have their coordinates hidden.
+     */
+    @Test
+    void canHideLastLegCoordinatesOfItinerariesWithDifferentLengths() {
+        Itinerary shortItinerary = makeItinerary(makeLeg(true, 1), makeLeg(true, 2));
+        Itinerary longItinerary = makeItinerary(
+            makeLeg(true, 1),
+            makeLeg(true, 2),
+            makeLeg(false, 3),
+            makeLeg(true, 4),
+            makeLeg(false, 5)
+        );
+
+        AnonymizedTripRequest tripRequest = anonymize(shortItinerary, longItinerary);
+
+        assertNotNull(tripRequest.fromPlace);
+        // The last leg of the long itinerary is a walk leg, even though its leg at the last index of the short
+        // itinerary is a transit leg.
+        assertNull(tripRequest.toPlace);
+        List<AnonymizedLeg> legs = tripRequest.itineraries.get(1).legs;
+        // Walk leg between transit legs.
+        assertEquals(3, legs.get(2).from.lat);
+        assertEquals(3.5, legs.get(2).to.lat);
+        // Walk leg after the last transit leg.
+        assertNull(legs.get(4).from);
+        assertNull(legs.get(4).to);
+        assertEquals("stop-5-from", legs.get(4).fromStop);
+
+        AnonymizedTripRequest allTransitTripRequest = anonymize(shortItinerary, makeItinerary(makeLeg(true, 1)));
+        assertNotNull(allTransitTripRequest.toPlace);
+        assertEquals(33.748893261983575, allTransitTripRequest.toPlace.lat);
+    }
+
+    /**
+     * Confirm that a leg without a transit leg value is treated as a non-transit leg.
+     */
+    @Test
+    void canHandleLegsWithoutTransitLegValue() {
+        Itinerary itinerary = makeItinerary(makeLeg(null, 1), makeLeg(true, 2), makeLeg(null, 3));
+
+        AnonymizedTripRequest tripRequest = anonymize(itinerary);
+
+        assertNull(tripRequest.fromPlace);
+        assertNull(tripRequest.toPlace);
+        List<AnonymizedLeg> legs = tripRequest.itineraries.get(0).legs;
+        assertNull(legs.get(0).from);
+        assertNull(legs.get(0).routeId);
+        assertEquals(2, legs.get(1).from.lat);
+        assertNull(legs.get(2).to);
+    }
+
+    /**
+     * Anonymize a trip request with a single trip summary containing the given itineraries.
+     */
+    private static AnonymizedTripRequest anonymize(Itinerary... itineraries) {
+        HashMap<String, String> requestParameters = new HashMap<>();
+        requestParameters.put("date", "2021-09-22");
+        requestParameters.put("time", "15:54");
+        TripRequest tripRequest = new TripRequest("user-id", "batch-id", FROM_PLACE, TO_PLACE, requestParameters);
+        TripPlan tripPlan = new TripPlan();
+        tripPlan.itineraries = List.of(itineraries);
+        TripSummary tripSummary = new TripSummary(tripPlan, null, "trip-request-id", "batch-id");
+        return new AnonymizedTripRequest(tripRequest, "WALK,BUS", List.of(tripSummary));
+    }
+
+    private static Itinerary makeItinerary(Leg... legs) {
+        Itinerary itinerary = new Itinerary();
+        itinerary.legs = new ArrayList<>(List.of(legs));
+        return itinerary;
+    }
+
+    /**
+     * Create a leg whose 'from' coordinates are the given value and whose 'to' coordinates are half a degree more.
+     */
+    private static Leg makeLeg(Boolean transitLeg, double coordinate) {
+        Leg leg = new Leg();
+        leg.transitLeg = transitLeg;
+        leg.mode = Boolean.TRUE.equals(transitLeg) ? "BUS" : "WALK";
+        leg.routeId = Boolean.TRUE.equals(transitLeg) ? "route-id" : null;
+        leg.from = makePlace(String.format("stop-%d-from", (int) coordinate), coordinate);
+        leg.to = makePlace(String.format("stop-%d-to", (int) coordinate), coordinate + 0.5);
+        return leg;
+    }
+
+    private static Place makePlace(String stopId, double coordinate) {
+        Place place = new Place();
+        place.stopId = stopId;
+        place.lat = coordinate;
+        place.lon = coordinate;
+        return place;
+    }
+}
@@ -0,0 +1,129 @@
+package org.opentripplanner.middleware.connecteddataplatform;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.models.TripRequest;
+import org.opentripplanner.middleware.models.TripSummary;
+import org.opentripplanner.middleware.otp.response.OtpResponse;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.opentripplanner.middleware.connecteddataplatform.ConnectedDataManager.getFileName;
+
+/**
+ * Tests writing trip data with {@link NdjsonTripDataWriter}, by decoding what was written with its dictionary.
+ */
+public class NdjsonTripDataWriterTest extends OtpMiddlewareTestEnvironment {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final LocalDateTime HOUR = LocalDateTime.of(2021, 9, 22, 15, 0);
+
+    @Test
+    void canWriteTripRequestsWithDictionary() throws Exception {
+        List<AnonymizedTripRequest> tripRequests = List.of(createTripRequest("1"), createTripRequest("2"));
+        ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+        try (TripDataWriter writer = TripDataFormat.NDJSON.createWriter(new ZipOutputStream(zipFile), HOUR)) {
+            for (AnonymizedTripRequest tripRequest : tripRequests) {
+                writer.write(tripRequest);
+            }
+        }
+
+        Map<String, String> files = readZipFile(zipFile.toByteArray());
+        assertEquals(2, files.size());
+        NdjsonTripDataWriter.Dictionary dictionary = mapper.readValue(
+            files.get(getFileName(HOUR, ConnectedDataManager.DICTIONARY_FILE_NAME_SUFFIX)),
+            NdjsonTripDataWriter.Dictionary.class
+        );
+        assertEquals(NdjsonTripDataWriter.SCHEMA_VERSION, dictionary.schemaVersion);
+        String[] lines = files.get(getFileName(HOUR, ConnectedDataManager.NDJSON_DATA_FILE_NAME_SUFFIX)).split("\n");
+        assertEquals(tripRequests.size(), lines.length);
+
+        for (int i = 0; i < lines.length; i++) {
+            AnonymizedTripRequest expected = tripRequests.get(i);
+            NdjsonTripDataWriter.TripRequestRecord record = mapper.readValue(
+                lines[i],
+                NdjsonTripDataWriter.TripRequestRecord.class
+            );
+            assertEquals(expected.requestId, record.requestId);
+            assertEquals(expected.mode.size(), record.modes.size());
+            for (int m = 0; m < record.modes.size(); m++) {
+                assertEquals(expected.mode.get(m), dictionary.modes.get(record.modes.get(m)));
+            }
+            assertEquals(expected.fromPlace, record.fromPlace);
+            assertEquals(expected.toPlace, record.toPlace);
+            assertEquals(expected.itineraries.size(), record.itineraries.size());
+            for (int itin = 0; itin < record.itineraries.size(); itin++) {
+                List<AnonymizedLeg> expectedLegs = expected.itineraries.get(itin).legs;
+                List<NdjsonTripDataWriter.LegRecord> legs = record.itineraries.get(itin).legs;
+                assertEquals(expectedLegs.size(), legs.size());
+                for (int l = 0; l < legs.size(); l++) {
+                    AnonymizedLeg expectedLeg = expectedLegs.get(l);
+                    NdjsonTripDataWriter.LegRecord leg = legs.get(l);
+                    assertEquals(expectedLeg.mode, dictionary.modes.get(leg.mode));
+                    assertEquals(expectedLeg.routeId, leg.routeId);
+                    assertStop(dictionary, expectedLeg.fromStop, leg.fromStop);
+                    assertEquals(expectedLeg.from, leg.from);
+                    assertStop(dictionary, expectedLeg.toStop, leg.toStop);
+                    assertEquals(expectedLeg.to, leg.to);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that the stop id at the given index of the dictionary is the expected stop id.
+     */
+    private static void assertStop(NdjsonTripDataWriter.Dictionary dictionary, String expectedStopId, Integer index) {
+        if (expectedStopId == null) {
+            assertNull(index);
+        } else {
+            assertEquals(expectedStopId, dictionary.stopIds.get(index));
+        }
+    }
+
+    /**
+     * Create an anonymized trip request from the default plan response.
+     */
+    private static AnonymizedTripRequest createTripRequest(String batchId) throws Exception {
+        OtpResponse response = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse();
+        HashMap<String, String> requestParameters = new HashMap<>();
+        requestParameters.put("date", "2021-09-22");
+        requestParameters.put("time", "15:54");
+        requestParameters.put("arriveBy", "false");
+        TripRequest tripRequest = new TripRequest(
+            "user-id",
+            batchId,
+            "Airport, College Park, GA, USA :: 33.64070037704429,-84.44622866991179",
+            "177 Gibson Street SE, Atlanta, GA, USA :: 33.748893261983575,-84.35611735540574",
+            requestParameters
+        );
+        TripSummary tripSummary = new TripSummary(response.plan, response.error, "trip-request-id", batchId);
+        return new AnonymizedTripRequest(tripRequest, "WALK,BUS,RAIL", List.of(tripSummary));
+    }
+
+    /**
+     * @return the contents of each file of the zip file, by file name.
+     */
+    private static Map<String, String> readZipFile(byte[] zipFile) throws Exception {
+        Map<String, String> files = new HashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipFile))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                files.put(entry.getName(), new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return files;
+    }
+}
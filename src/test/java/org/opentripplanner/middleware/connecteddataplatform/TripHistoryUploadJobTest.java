@@ -0,0 +1,185 @@
+package org.opentripplanner.middleware.connecteddataplatform;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opentripplanner.middleware.models.TripHistoryUpload;
+import org.opentripplanner.middleware.models.TripRequest;
+import org.opentripplanner.middleware.models.TripSummary;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.testutils.LocalS3;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.testutils.PersistenceTestUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
+import org.opentripplanner.middleware.utils.S3Utils;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.opentripplanner.middleware.connecteddataplatform.ConnectedDataManager.getFileName;
+import static org.opentripplanner.middleware.utils.DateTimeUtils.getPreviousWholeHourFromNow;
+import static org.opentripplanner.middleware.utils.FileUtils.getContentsOfFileInZip;
+
+/**
+ * Tests processing trip history upload hours in parallel and resuming interrupted processing, with a local stand-in
+ * for S3.
+ */
+public class TripHistoryUploadJobTest extends OtpMiddlewareTestEnvironment {
+    private static final LocalDateTime PREVIOUS_WHOLE_HOUR_FROM_NOW = getPreviousWholeHourFromNow();
+    private static final int NUMBER_OF_UPLOAD_HOURS = 3;
+
+    @TempDir
+    static Path s3Directory;
+    private static LocalS3 localS3;
+
+    private final List<TripRequest> tripRequests = new ArrayList<>();
+    private final List<TripSummary> tripSummaries = new ArrayList<>();
+
+    @BeforeAll
+    public static void setUp() {
+        localS3 = new LocalS3(s3Directory);
+        S3Utils.setAmazonS3(localS3);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        S3Utils.setAmazonS3(null);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        for (TripHistoryUpload tripHistoryUpload : Persistence.tripHistoryUploads.getAll()) {
+            Persistence.tripHistoryUploads.removeById(tripHistoryUpload.id);
+        }
+        tripRequests.forEach(tripRequest -> Persistence.tripRequests.removeById(tripRequest.id));
+        tripRequests.clear();
+        tripSummaries.forEach(tripSummary -> Persistence.tripSummaries.removeById(tripSummary.id));
+        tripSummaries.clear();
+    }
+
+    /**
+     * Confirm that all pending upload hours are uploaded and completed, each with its own trip data.
+     */
+    @Test
+    void canProcessUploadHoursInParallel() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        List<TripHistoryUpload> uploads = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_UPLOAD_HOURS; i++) {
+            LocalDateTime uploadHour = PREVIOUS_WHOLE_HOUR_FROM_NOW.minusHours(i);
+            String batchId = "batch-" + i;
+            TripRequest tripRequest = PersistenceTestUtils.createTripRequest(userId, batchId, uploadHour);
+            tripRequests.add(tripRequest);
+            tripSummaries.add(PersistenceTestUtils.createTripSummary(tripRequest.id, batchId, uploadHour));
+            TripHistoryUpload upload = new TripHistoryUpload(uploadHour);
+            Persistence.tripHistoryUploads.create(upload);
+            uploads.add(upload);
+        }
+
+        TripHistoryUploadJob.processTripHistory(false);
+
+        for (TripHistoryUpload upload : uploads) {
+            TripHistoryUpload processed = Persistence.tripHistoryUploads.getById(upload.id);
+            assertEquals(TripHistoryUploadStatus.COMPLETED.getValue(), processed.status);
+            assertEquals(1, processed.numTripRequestsUploaded);
+            assertNull(processed.leaseToken);
+            File zipFile = localS3.getObjectFile(
+                ConnectedDataManager.CONNECTED_DATA_PLATFORM_S3_BUCKET_NAME,
+                String.join(
+                    "/",
+                    ConnectedDataManager.CONNECTED_DATA_PLATFORM_S3_FOLDER_NAME,
+                    getFileName(upload.uploadHour, ConnectedDataManager.ZIP_FILE_NAME_SUFFIX)
+                )
+            );
+            assertTrue(zipFile.exists());
+            String fileContents = getContentsOfFileInZip(
+                zipFile.getAbsolutePath(),
+                getFileName(upload.uploadHour, ConnectedDataManager.DATA_FILE_NAME_SUFFIX)
+            );
+            List<AnonymizedTripRequest> anonymizedTripRequests = JsonUtils.getPOJOFromJSONAsList(
+                fileContents,
+                AnonymizedTripRequest.class
+            );
+            assertEquals(1, anonymizedTripRequests.size());
+        }
+    }
+
+    /**
+     * Confirm that an upload hour leased by a worker that stopped is processed again once its lease has expired, and
+     * that an upload hour being processed by another worker is left alone.
+     */
+    @Test
+    void canResumeInterruptedUploadHours() {
+        long now = System.currentTimeMillis();
+        TripHistoryUpload abandoned = createLeasedUpload(PREVIOUS_WHOLE_HOUR_FROM_NOW.minusHours(1), new Date(now - 1));
+        TripHistoryUpload inProgress = createLeasedUpload(
+            PREVIOUS_WHOLE_HOUR_FROM_NOW,
+            new Date(now + TripHistoryUploadJob.UPLOAD_HOUR_LEASE_DURATION_MILLIS)
+        );
+
+        TripHistoryUploadJob.processTripHistory(false);
+
+        TripHistoryUpload resumed = Persistence.tripHistoryUploads.getById(abandoned.id);
+        assertEquals(TripHistoryUploadStatus.COMPLETED.getValue(), resumed.status);
+        assertNull(resumed.leaseToken);
+        TripHistoryUpload skipped = Persistence.tripHistoryUploads.getById(inProgress.id);
+        assertEquals(TripHistoryUploadStatus.PENDING.getValue(), skipped.status);
+        assertNotNull(skipped.leaseToken);
+
+        // Once its worker releases it, the upload hour is processed on the next run.
+        TripHistoryUpload.release(skipped.id, skipped.leaseToken);
+        TripHistoryUploadJob.processTripHistory(false);
+        assertEquals(
+            TripHistoryUploadStatus.COMPLETED.getValue(),
+            Persistence.tripHistoryUploads.getById(inProgress.id).status
+        );
+        assertEquals(0, localS3.getUnfinishedUploadCount());
+    }
+
+    /**
+     * Confirm that the lease on an upload hour is extended only while it is held.
+     */
+    @Test
+    void canRenewLeaseOnlyWhileHeld() {
+        TripHistoryUpload upload = new TripHistoryUpload(PREVIOUS_WHOLE_HOUR_FROM_NOW);
+        Persistence.tripHistoryUploads.create(upload);
+        String leaseToken = TripHistoryUpload.lease(upload.id, 1000);
+        assertNotNull(leaseToken);
+
+        assertTrue(
+            TripHistoryUpload.renew(upload.id, leaseToken, TripHistoryUploadJob.UPLOAD_HOUR_LEASE_DURATION_MILLIS)
+        );
+        Date leaseExpiresAt = Persistence.tripHistoryUploads.getById(upload.id).leaseExpiresAt;
+        assertTrue(leaseExpiresAt.getTime() > System.currentTimeMillis() + 1000, "The lease should be extended.");
+        assertNull(TripHistoryUpload.lease(upload.id, 1000), "A renewed lease should not be taken over.");
+        assertFalse(TripHistoryUpload.renew(upload.id, UUID.randomUUID().toString(), 1000));
+
+        TripHistoryUpload.release(upload.id, leaseToken);
+        assertFalse(TripHistoryUpload.renew(upload.id, leaseToken, 1000), "A released lease should not be renewed.");
+    }
+
+    /**
+     * Create a pending upload hour leased by another worker until the given time.
+     */
+    private static TripHistoryUpload createLeasedUpload(LocalDateTime uploadHour, Date leaseExpiresAt) {
+        TripHistoryUpload upload = new TripHistoryUpload(uploadHour);
+        Persistence.tripHistoryUploads.create(upload);
+        Persistence.tripHistoryUploads.updateFields(
+            upload.id,
+            Map.of("leaseToken", UUID.randomUUID().toString(), "leaseExpiresAt", leaseExpiresAt)
+        );
+        return upload;
+    }
+}
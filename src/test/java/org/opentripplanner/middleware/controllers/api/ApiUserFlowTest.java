@@ -15,6 +15,7 @@ import org.opentripplanner.middleware.models.MonitoredTrip;
 import org.opentripplanner.middleware.models.OtpUser;
 import org.opentripplanner.middleware.models.TripRequest;
 import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.persistence.TripHistoryWriter;
 import org.opentripplanner.middleware.testutils.ApiTestUtils;
 import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
 import org.opentripplanner.middleware.testutils.PersistenceTestUtils;
@@ -30,6 +31,7 @@ import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.opentripplanner.middleware.auth.Auth0Connection.isAuthDisabled;
 import static org.opentripplanner.middleware.auth.Auth0Users.createAuth0UserForEmail;
@@ -279,6 +281,9 @@ public class ApiUserFlowTest extends OtpMiddlewareTestEnvironment {
             planTripResponseAsApiUser.responseBody.substring(0, 300));
         assertEquals(HttpStatus.OK_200, planTripResponseAsApiUser.status);
 
+        // Trip history is written in the background, so wait for it before requesting it.
+        assertTrue(TripHistoryWriter.flush(5000));
+
         // Get trip request history for user authenticating as an Otp user. This will fail because the user was created
         // by an Api user and therefore does not have a Auth0 account.
         String tripRequestsPath = String.format("api/secure/triprequests?userId=%s", otpUserResponse.id);
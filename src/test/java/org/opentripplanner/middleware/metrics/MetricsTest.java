@@ -0,0 +1,79 @@
+package org.opentripplanner.middleware.metrics;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.utils.HttpResponseValues;
+import org.opentripplanner.middleware.utils.HttpUtils;
+
+import java.net.URI;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests recording metrics with {@link Metrics} and scraping them from the /metrics endpoint.
+ */
+public class MetricsTest extends OtpMiddlewareTestEnvironment {
+    private static final String TEST_TIMER_NAME = "otp_middleware_test_histogram_seconds";
+
+    @AfterEach
+    public void tearDown() {
+        Metrics.unregister(TEST_TIMER_NAME);
+    }
+
+    @Test
+    public void canWriteTimerAsHistogram() {
+        Timer timer = Metrics.timer(TEST_TIMER_NAME, "Test timer.", "stage");
+        timer.record(TimeUnit.MILLISECONDS.toNanos(3), "a");
+        timer.record(TimeUnit.MILLISECONDS.toNanos(200), "a");
+        timer.record(TimeUnit.SECONDS.toNanos(20), "a");
+        timer.record(TimeUnit.MILLISECONDS.toNanos(1), "b\"quoted\"");
+
+        String scrape = Metrics.scrape();
+        assertTrue(scrape.contains("# TYPE otp_middleware_test_histogram_seconds histogram\n"));
+        // Buckets are cumulative, and durations beyond the last bound are only counted in the +Inf bucket.
+        assertTrue(scrape.contains("otp_middleware_test_histogram_seconds_bucket{stage=\"a\",le=\"0.005\"} 1\n"));
+        assertTrue(scrape.contains("otp_middleware_test_histogram_seconds_bucket{stage=\"a\",le=\"0.25\"} 2\n"));
+        assertTrue(scrape.contains("otp_middleware_test_histogram_seconds_bucket{stage=\"a\",le=\"10\"} 2\n"));
+        assertTrue(scrape.contains("otp_middleware_test_histogram_seconds_bucket{stage=\"a\",le=\"+Inf\"} 3\n"));
+        assertTrue(scrape.contains("otp_middleware_test_histogram_seconds_sum{stage=\"a\"} 20.20"));
+        assertTrue(scrape.contains("otp_middleware_test_histogram_seconds_count{stage=\"a\"} 3\n"));
+        // Label values are escaped.
+        assertTrue(scrape.contains("otp_middleware_test_histogram_seconds_count{stage=\"b\\\"quoted\\\"\"} 1\n"));
+
+        assertThrows(IllegalArgumentException.class, () -> timer.record(1, "a", "extra"));
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> Metrics.timer(TEST_TIMER_NAME, "Duplicate.")
+        );
+    }
+
+    @Test
+    public void canScrapeMetricsEndpoint() {
+        // Make a database operation so that it is timed.
+        Persistence.otpUsers.getById(UUID.randomUUID().toString());
+
+        HttpResponseValues response = HttpUtils.httpRequestRawResponse(
+            URI.create("http://localhost:4567/metrics"),
+            1000,
+            HttpMethod.GET,
+            null,
+            ""
+        );
+        assertEquals(HttpStatus.OK_200, response.status);
+        assertTrue(response.originalClosedResponse.getFirstHeader("content-type").getValue().startsWith("text/plain"));
+        String scrape = response.responseBody;
+        assertTrue(scrape.contains("# TYPE otp_middleware_trip_check_queue_depth gauge\n"));
+        assertTrue(scrape.contains("# TYPE otp_middleware_otp_plan_cache_hits_total counter\n"));
+        assertTrue(scrape.contains(
+            "otp_middleware_persistence_operation_seconds_count{collection=\"OtpUser\",operation=\"getById\"}"
+        ));
+    }
+}
@@ -0,0 +1,127 @@
+package org.opentripplanner.middleware.models;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.otp.OtpDispatcherResponse;
+import org.opentripplanner.middleware.otp.OtpRequest;
+import org.opentripplanner.middleware.otp.response.OtpResponse;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+import org.opentripplanner.middleware.utils.DateTimeUtils;
+import org.opentripplanner.middleware.utils.ItineraryUtils;
+import org.opentripplanner.middleware.utils.JsonUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.opentripplanner.middleware.utils.ItineraryUtilsTest.MONITORED_TRIP_DATES;
+import static org.opentripplanner.middleware.utils.ItineraryUtilsTest.QUERY_TIME;
+import static org.opentripplanner.middleware.utils.ItineraryUtilsTest.getMockDatedOtpResponses;
+
+/**
+ * Tests the concurrent OTP requests of {@link ItineraryExistence#checkExistence()}, with OTP requests answered by the
+ * test instead of the mock OTP server.
+ */
+public class ItineraryExistenceTest extends OtpMiddlewareTestEnvironment {
+    private static final long CHECK_TIMEOUT_MILLIS = 1000;
+    /** Time after which a late response is received, before the check gives up. */
+    private static final long LATE_RESPONSE_DELAY_MILLIS = 800;
+    /** Time taken to parse a late response, which ends after the check has given up. */
+    private static final long SLOW_PARSING_MILLIS = 500;
+
+    private final ScheduledExecutorService responseExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    public void tearDown() {
+        responseExecutor.shutdownNow();
+    }
+
+    /**
+     * Confirm that, with several requests in flight at once, a date whose request does not complete in time is marked
+     * invalid, while a date whose response was received before the check gave up is still matched.
+     */
+    @Test
+    void canMarkDatesWithRequestsThatTimeOutInvalid() throws Exception {
+        // Dates are Thursday, Saturday, Sunday, Monday and Tuesday.
+        List<OtpResponse> otpResponses = getMockDatedOtpResponses(MONITORED_TRIP_DATES);
+        List<OtpRequest> otpRequests = ItineraryUtils.getOtpRequestsForDates(
+            Map.of(),
+            MONITORED_TRIP_DATES.stream()
+                .map(date -> DateTimeUtils.makeOtpZonedDateTime(date, QUERY_TIME))
+                .collect(Collectors.toList())
+        );
+        List<CompletableFuture<OtpDispatcherResponse>> sentRequests = new ArrayList<>();
+        ItineraryExistence existence = new ItineraryExistence(
+            otpRequests,
+            otpResponses.get(0).plan.itineraries.get(0),
+            false,
+            3,
+            CHECK_TIMEOUT_MILLIS,
+            otpRequest -> {
+                int index = otpRequests.indexOf(otpRequest);
+                CompletableFuture<OtpDispatcherResponse> request = new CompletableFuture<>();
+                sentRequests.add(request);
+                OtpDispatcherResponse response = makeResponse(otpResponses.get(index));
+                if (index == 1) {
+                    // The Saturday request never completes.
+                } else if (index == 2) {
+                    // The Sunday response is received before the check gives up, but is matched after.
+                    responseExecutor.schedule(
+                        () -> request.complete(new SlowOtpDispatcherResponse(response)),
+                        LATE_RESPONSE_DELAY_MILLIS,
+                        TimeUnit.MILLISECONDS
+                    );
+                } else {
+                    request.complete(response);
+                }
+                return request;
+            }
+        );
+
+        existence.checkExistence();
+
+        assertEquals(otpRequests.size(), sentRequests.size());
+        assertTrue(sentRequests.get(1).isCancelled());
+        assertTrue(existence.thursday.isValid());
+        assertFalse(existence.saturday.isValid());
+        assertTrue(existence.sunday.isValid());
+        assertTrue(existence.monday.isValid());
+        assertTrue(existence.tuesday.isValid());
+        assertTrue(existence.error);
+        assertTrue(existence.message.contains("Saturday"), existence.message);
+        assertFalse(existence.message.contains("Sunday"), existence.message);
+    }
+
+    private static OtpDispatcherResponse makeResponse(OtpResponse otpResponse) {
+        return new OtpDispatcherResponse(JsonUtils.toJson(otpResponse), OtpTestUtils.DEFAULT_PLAN_URI);
+    }
+
+    /**
+     * A response that takes {@link #SLOW_PARSING_MILLIS} to parse.
+     */
+    private static class SlowOtpDispatcherResponse extends OtpDispatcherResponse {
+        SlowOtpDispatcherResponse(OtpDispatcherResponse response) {
+            super(response.responseBody, response.requestUri);
+        }
+
+        @Override
+        public synchronized OtpResponse getResponse() throws JsonProcessingException {
+            try {
+                Thread.sleep(SLOW_PARSING_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getResponse();
+        }
+    }
+}
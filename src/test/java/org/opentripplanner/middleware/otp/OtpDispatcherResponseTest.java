@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.opentripplanner.middleware.testutils.CommonTestUtils;
 import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
 
 import java.io.IOException;
 import java.net.URI;
@@ -32,4 +33,15 @@ public class OtpDispatcherResponseTest extends OtpMiddlewareTestEnvironment {
 
         Assertions.assertEquals(expected, dispatcherResponse.toString());
     }
+
+    @Test
+    public void shouldParseResponseOnlyOnce() throws Exception {
+        OtpDispatcherResponse dispatcherResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone();
+        Assertions.assertSame(dispatcherResponse.getResponse(), dispatcherResponse.getResponse());
+
+        // A clone should hold its own parsed response.
+        OtpDispatcherResponse clonedResponse = dispatcherResponse.clone();
+        Assertions.assertEquals(dispatcherResponse.responseBody, clonedResponse.responseBody);
+        Assertions.assertNotSame(dispatcherResponse.getResponse(), clonedResponse.getResponse());
+    }
 }
@@ -0,0 +1,42 @@
+package org.opentripplanner.middleware.otp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.opentripplanner.middleware.otp.OtpDispatcher.OTP_PLAN_ENDPOINT;
+
+public class OtpPlanResponseCacheTest {
+    @Test
+    public void cacheKeyShouldIgnoreQueryParameterOrder() {
+        String key = OtpPlanResponseCache.makeKey(
+            OtpVersion.OTP1,
+            OTP_PLAN_ENDPOINT,
+            "fromPlace=28.45119,-81.36818&toPlace=28.54834,-81.37745&time=08:35&date=2023-02-13"
+        );
+        assertEquals(
+            key,
+            OtpPlanResponseCache.makeKey(
+                OtpVersion.OTP1,
+                OTP_PLAN_ENDPOINT,
+                "date=2023-02-13&time=08%3A35&toPlace=28.54834%2C-81.37745&fromPlace=28.45119%2C-81.36818"
+            )
+        );
+        assertNotEquals(
+            key,
+            OtpPlanResponseCache.makeKey(
+                OtpVersion.OTP1,
+                OTP_PLAN_ENDPOINT,
+                "fromPlace=28.45119,-81.36818&toPlace=28.54834,-81.37745&time=08:36&date=2023-02-13"
+            )
+        );
+        assertNotEquals(
+            key,
+            OtpPlanResponseCache.makeKey(
+                OtpVersion.OTP2,
+                OTP_PLAN_ENDPOINT,
+                "fromPlace=28.45119,-81.36818&toPlace=28.54834,-81.37745&time=08:35&date=2023-02-13"
+            )
+        );
+    }
+}
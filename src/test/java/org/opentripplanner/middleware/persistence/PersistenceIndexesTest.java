@@ -0,0 +1,39 @@
+package org.opentripplanner.middleware.persistence;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that the indexes declared on {@link TypedPersistence} collections are created when the application starts.
+ */
+public class PersistenceIndexesTest extends OtpMiddlewareTestEnvironment {
+    @Test
+    public void canCreateDeclaredIndexes() {
+        List<String> indexNames = new ArrayList<>();
+        for (Document index : Persistence.tripRequests.getMongoCollection().listIndexes()) {
+            indexNames.add(index.getString("name"));
+        }
+        assertTrue(indexNames.contains("userId_1_dateCreated_1"), "Trip requests should be indexed by user and date.");
+        assertTrue(indexNames.contains("batchId_1_dateCreated_1"), "Trip requests should be indexed by batch.");
+    }
+
+    @Test
+    public void canReportUndeclaredIndexes() {
+        Persistence.tripSummaries.getMongoCollection().createIndex(new Document("undeclaredField", 1));
+        try {
+            List<String> drift = Persistence.tripSummaries.ensureIndexes();
+            assertTrue(
+                drift.stream().anyMatch(message -> message.contains("undeclaredField_1")),
+                "An index that is not declared should be reported."
+            );
+        } finally {
+            Persistence.tripSummaries.getMongoCollection().dropIndex("undeclaredField_1");
+        }
+    }
+}
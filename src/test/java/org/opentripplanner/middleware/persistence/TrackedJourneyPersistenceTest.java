@@ -0,0 +1,58 @@
+package org.opentripplanner.middleware.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.models.TrackedJourney;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.triptracker.TrackingLocation;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests appending tracking locations to a {@link TrackedJourney} with {@link TypedPersistence#appendToArrayField}.
+ */
+public class TrackedJourneyPersistenceTest extends OtpMiddlewareTestEnvironment {
+    private TrackedJourney trackedJourney;
+
+    @AfterEach
+    public void tearDown() {
+        if (trackedJourney != null) trackedJourney.delete();
+    }
+
+    @Test
+    public void canAppendLocationsWithinLimit() {
+        trackedJourney = new TrackedJourney();
+        trackedJourney.locations.add(makeLocation(1));
+        Persistence.trackedJourneys.create(trackedJourney);
+
+        Persistence.trackedJourneys.appendToArrayField(
+            trackedJourney.id,
+            TrackedJourney.LOCATIONS_FIELD_NAME,
+            List.of(makeLocation(2), makeLocation(3)),
+            0
+        );
+        assertEquals(3, Persistence.trackedJourneys.getById(trackedJourney.id).locations.size());
+
+        // Only the most recent locations are kept when a limit is given.
+        Persistence.trackedJourneys.appendToArrayField(
+            trackedJourney.id,
+            TrackedJourney.LOCATIONS_FIELD_NAME,
+            List.of(makeLocation(4)),
+            2
+        );
+        List<TrackingLocation> locations = Persistence.trackedJourneys.getById(trackedJourney.id).locations;
+        assertEquals(2, locations.size());
+        assertEquals(3, locations.get(0).speed);
+        assertEquals(4, locations.get(1).speed);
+    }
+
+    /**
+     * Create a location, using the speed to tell locations apart.
+     */
+    private static TrackingLocation makeLocation(int speed) {
+        return new TrackingLocation(0, 33.0, -84.0, speed, new Date());
+    }
+}
@@ -1,27 +1,38 @@
 package org.opentripplanner.middleware.persistence;
 
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import org.bson.conversions.Bson;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.opentripplanner.middleware.controllers.response.ResponseList;
+import org.opentripplanner.middleware.models.ModelReference;
 import org.opentripplanner.middleware.models.OtpUser;
 import org.opentripplanner.middleware.models.TripRequest;
 import org.opentripplanner.middleware.models.TripSummary;
+import org.opentripplanner.middleware.otp.response.Leg;
 import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
 import org.opentripplanner.middleware.utils.DateTimeUtils;
 
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static com.mongodb.client.model.Filters.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.opentripplanner.middleware.testutils.PersistenceTestUtils.*;
 import static org.opentripplanner.middleware.persistence.TypedPersistence.filterByUserAndDateRange;
+import static org.opentripplanner.middleware.persistence.TypedPersistence.filterByUserId;
 
 /**
  * Tests to verify that trip request and trip summary persistence in MongoDB collections are functioning properly. A
@@ -100,7 +111,12 @@ public class TripHistoryPersistenceTest extends OtpMiddlewareTestEnvironment {
             .atZone(DateTimeUtils.getSystemZoneId())
             .toInstant());
         Bson filter = filterByUserAndDateRange(otpUser.id, fromDate, toDate);
-        ResponseList<TripRequest> result = Persistence.tripRequests.getResponseList(filter, 0, LIMIT);
+        ResponseList<TripRequest> result = Persistence.tripRequests.getResponseList(
+            filter,
+            PageCursor.byId().at(PageCursor.FIRST_PAGE_TOKEN),
+            LIMIT,
+            ResponseList.TotalCount.NONE
+        );
         assertEquals(result.data.size(), tripRequests.size());
     }
 
@@ -148,4 +164,78 @@ public class TripHistoryPersistenceTest extends OtpMiddlewareTestEnvironment {
         List<TripRequest> result = Persistence.tripRequests.getFilteredWithLimit(filter, max);
         assertEquals(result.size(), max);
     }
+
+    @Test
+    public void canGetTripHistoryWithProjections() throws Exception {
+        TripRequest request = createTripRequest(otpUser.id);
+        TripSummary summary = createTripSummary(request.id);
+        try {
+            // A read model only holds the fields it declares.
+            ModelReference reference = Persistence.tripRequests.getById(request.id, ModelReference.class);
+            assertEquals(request.id, reference.id);
+            assertEquals(otpUser.id, reference.userId);
+            assertEquals(request.dateCreated, reference.dateCreated);
+
+            // Fields outside a projection keep their default values.
+            TripRequest projectedRequest = Persistence.tripRequests.getById(request.id, Projections.include("batchId"));
+            assertEquals(request.batchId, projectedRequest.batchId);
+            assertNull(projectedRequest.fromPlace);
+
+            TripSummary projectedSummary = Persistence.tripSummaries.getFiltered(
+                eq("_id", summary.id),
+                null,
+                Projections.exclude("itineraries.legs.legGeometry")
+            ).first();
+            Leg leg = projectedSummary.itineraries.get(0).legs.get(0);
+            assertNotNull(leg.mode);
+            assertNull(leg.legGeometry);
+        } finally {
+            TripRequest.deleteById(request.id);
+        }
+    }
+
+    @Test
+    public void canGetTripRequestsWithCursor() {
+        Bson filter = filterByUserId(otpUser.id);
+        Set<String> expectedIds = new HashSet<>();
+        Persistence.tripRequests.getFiltered(filter).forEach(request -> expectedIds.add(request.id));
+        PageCursor<TripRequest> newestFirst = PageCursor.byDateDescending(
+            TRIP_REQUEST_DATE_CREATED_FIELD_NAME,
+            request -> request.dateCreated
+        );
+
+        // Go through all pages, which should list every trip request once, most recent first.
+        List<TripRequest> listed = new ArrayList<>();
+        String token = PageCursor.FIRST_PAGE_TOKEN;
+        while (token != null) {
+            ResponseList<TripRequest> page = Persistence.tripRequests.getResponseList(
+                filter,
+                newestFirst.at(token),
+                2,
+                ResponseList.TotalCount.NONE
+            );
+            assertTrue(page.data.size() <= 2);
+            assertEquals(ResponseList.UNKNOWN_TOTAL, page.total);
+            listed.addAll(page.data);
+            token = page.nextPageToken;
+        }
+        assertEquals(expectedIds.size(), listed.size());
+        for (int i = 0; i < listed.size(); i++) {
+            assertTrue(expectedIds.contains(listed.get(i).id));
+            if (i > 0) assertFalse(listed.get(i).dateCreated.after(listed.get(i - 1).dateCreated));
+        }
+
+        // Counts below the estimate limit are exact.
+        ResponseList<TripRequest> firstPage = Persistence.tripRequests.getResponseList(
+            filter,
+            newestFirst.at(PageCursor.FIRST_PAGE_TOKEN),
+            2,
+            ResponseList.TotalCount.ESTIMATED
+        );
+        assertEquals(expectedIds.size(), firstPage.total);
+        assertFalse(firstPage.estimatedTotal);
+
+        assertThrows(IllegalArgumentException.class, () -> newestFirst.at("not a token"));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.byId().at(firstPage.nextPageToken));
+    }
 }
@@ -0,0 +1,56 @@
+package org.opentripplanner.middleware.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.models.TripRequest;
+import org.opentripplanner.middleware.models.TripSummary;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that trip history queued with {@link TripHistoryWriter} ends up in the database.
+ */
+public class TripHistoryWriterTest extends OtpMiddlewareTestEnvironment {
+    private final String userId = UUID.randomUUID().toString();
+    private final String batchId = UUID.randomUUID().toString();
+
+    @AfterEach
+    public void tearDown() {
+        Persistence.tripRequests.removeFiltered(eq("userId", userId));
+        Persistence.tripSummaries.removeFiltered(eq("batchId", batchId));
+    }
+
+    @Test
+    public void canWriteTripHistoryInBackground() {
+        int count = 3;
+        for (int i = 0; i < count; i++) {
+            assertTrue(TripHistoryWriter.enqueue(
+                userId,
+                batchId,
+                "fromPlace",
+                "toPlace",
+                OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone()
+            ));
+        }
+        assertTrue(TripHistoryWriter.flush(5000), "Queued trip history should be written.");
+
+        List<TripRequest> tripRequests = Persistence.tripRequests.getFiltered(eq("userId", userId))
+            .into(new ArrayList<>());
+        assertEquals(count, tripRequests.size());
+        for (TripRequest tripRequest : tripRequests) {
+            assertEquals(batchId, tripRequest.batchId);
+            List<TripSummary> tripSummaries = Persistence.tripSummaries.getFiltered(
+                eq("tripRequestId", tripRequest.id)
+            ).into(new ArrayList<>());
+            assertEquals(1, tripSummaries.size(), "Each trip request should have its trip summary.");
+        }
+    }
+}
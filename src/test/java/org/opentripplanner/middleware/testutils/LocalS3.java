@@ -0,0 +1,161 @@
+package org.opentripplanner.middleware.testutils;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Filesystem-backed stand-in for AWS S3, to be used with
+ * {@link org.opentripplanner.middleware.utils.S3Utils#setAmazonS3}. Objects are stored as files under a root
+ * directory, in a subdirectory per bucket. The parts of multipart uploads are stored in a separate directory until the
+ * upload is completed. Only the operations used by the middleware uploads are supported.
+ */
+public class LocalS3 extends AbstractAmazonS3 {
+    private static final String UPLOADS_DIRECTORY_NAME = ".uploads";
+    private final Path rootDirectory;
+
+    public LocalS3(Path rootDirectory) {
+        this.rootDirectory = rootDirectory;
+    }
+
+    /**
+     * @return the file holding the given object (which may not exist).
+     */
+    public File getObjectFile(String bucketName, String key) {
+        return rootDirectory.resolve(bucketName).resolve(key).toFile();
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, File file) {
+        return putObject(new PutObjectRequest(bucketName, key, file));
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest putObjectRequest) {
+        Path target = getObjectFile(putObjectRequest.getBucketName(), putObjectRequest.getKey()).toPath();
+        try {
+            Files.createDirectories(target.getParent());
+            if (putObjectRequest.getFile() != null) {
+                Files.copy(putObjectRequest.getFile().toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (InputStream inputStream = putObjectRequest.getInputStream()) {
+                    Files.copy(inputStream, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to store object " + putObjectRequest.getKey(), e);
+        }
+        return new PutObjectResult();
+    }
+
+    /**
+     * @return the number of multipart uploads started and neither completed nor aborted.
+     */
+    public int getUnfinishedUploadCount() {
+        File[] uploads = rootDirectory.resolve(UPLOADS_DIRECTORY_NAME).toFile().listFiles();
+        return uploads == null ? 0 : uploads.length;
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+        String uploadId = UUID.randomUUID().toString();
+        try {
+            Files.createDirectories(getUploadDirectory(uploadId));
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to start upload of " + request.getKey(), e);
+        }
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) {
+        Path part = getUploadDirectory(request.getUploadId()).resolve(Integer.toString(request.getPartNumber()));
+        try (InputStream inputStream = request.getInputStream()) {
+            Files.copy(inputStream, part, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to store part of " + request.getKey(), e);
+        }
+        UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag(part.getFileName().toString());
+        return result;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        Path uploadDirectory = getUploadDirectory(request.getUploadId());
+        Path target = getObjectFile(request.getBucketName(), request.getKey()).toPath();
+        try {
+            Files.createDirectories(target.getParent());
+            try (OutputStream outputStream = Files.newOutputStream(target)) {
+                request.getPartETags().stream()
+                    .sorted(Comparator.comparingInt(PartETag::getPartNumber))
+                    .forEach(partETag -> {
+                        try {
+                            Files.copy(uploadDirectory.resolve(partETag.getETag()), outputStream);
+                        } catch (IOException e) {
+                            throw new SdkClientException("Unable to read part of " + request.getKey(), e);
+                        }
+                    });
+            }
+            FileUtils.deleteDirectory(uploadDirectory.toFile());
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to complete upload of " + request.getKey(), e);
+        }
+        CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        return result;
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+        try {
+            FileUtils.deleteDirectory(getUploadDirectory(request.getUploadId()).toFile());
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to abort upload of " + request.getKey(), e);
+        }
+    }
+
+    @Override
+    public boolean doesObjectExist(String bucketName, String objectName) {
+        return getObjectFile(bucketName, objectName).exists();
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) {
+        try {
+            Files.deleteIfExists(getObjectFile(bucketName, key).toPath());
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to delete object " + key, e);
+        }
+    }
+
+    private Path getUploadDirectory(String uploadId) {
+        return rootDirectory.resolve(UPLOADS_DIRECTORY_NAME).resolve(uploadId);
+    }
+}
@@ -210,4 +210,31 @@ public class OtpTestUtils {
         journeyState.baselineDepartureTimeEpochMillis = defaultItinerary.startTime.getTime();
         return journeyState;
     }
+
+    /**
+     * Encode the given points with the Google polyline algorithm (five decimal places), as OTP does for leg geometries.
+     */
+    public static String encodePolyline(double[] lats, double[] lons) {
+        StringBuilder encoded = new StringBuilder();
+        long previousLat = 0;
+        long previousLon = 0;
+        for (int i = 0; i < lats.length; i++) {
+            long lat = Math.round(lats[i] * 1e5);
+            long lon = Math.round(lons[i] * 1e5);
+            encodePolylineValue(lat - previousLat, encoded);
+            encodePolylineValue(lon - previousLon, encoded);
+            previousLat = lat;
+            previousLon = lon;
+        }
+        return encoded.toString();
+    }
+
+    private static void encodePolylineValue(long value, StringBuilder encoded) {
+        long shifted = value < 0 ? ~(value << 1) : value << 1;
+        while (shifted >= 0x20) {
+            encoded.append((char) ((0x20 | (shifted & 0x1f)) + 63));
+            shifted >>= 5;
+        }
+        encoded.append((char) (shifted + 63));
+    }
 }
@@ -139,7 +139,7 @@ public class PersistenceTestUtils {
      * Create trip summary from static plan response file and store in database.
      */
     public static TripSummary createTripSummary(String tripRequestId, String batchId, LocalDateTime createDate) throws Exception {
-        OtpResponse planResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.getResponse();
+        OtpResponse planResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse();
         TripSummary tripSummary = new TripSummary(planResponse.plan, planResponse.error, tripRequestId, batchId);
         if (createDate != null) {
             tripSummary.dateCreated = DateTimeUtils.convertToDate(createDate);
@@ -159,7 +159,7 @@ public class PersistenceTestUtils {
      * Create trip summary from static plan error response file and store in database.
      */
     public static TripSummary createTripSummaryWithError(String tripRequestId, String batchId, LocalDateTime createDate) throws Exception {
-        OtpResponse planErrorResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_ERROR_RESPONSE.getResponse();
+        OtpResponse planErrorResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_ERROR_RESPONSE.clone().getResponse();
         TripSummary tripSummary = new TripSummary(null, planErrorResponse.error, tripRequestId, batchId);
         if (createDate != null) {
             tripSummary.dateCreated = DateTimeUtils.convertToDate(createDate);
@@ -210,7 +210,7 @@ public class PersistenceTestUtils {
         boolean persist,
         JourneyState journeyState
     ) throws Exception {
-        MonitoredTrip monitoredTrip = new MonitoredTrip(otpDispatcherResponse);
+        MonitoredTrip monitoredTrip = new MonitoredTrip(otpDispatcherResponse.clone());
         monitoredTrip.userId = userId;
         monitoredTrip.tripName = "test trip";
         monitoredTrip.leadTimeInMinutes = 240;
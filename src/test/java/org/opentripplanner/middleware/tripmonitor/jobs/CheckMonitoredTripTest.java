@@ -36,8 +36,10 @@ import static com.mongodb.client.model.Filters.eq;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.text.MatchesPattern.matchesPattern;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 /**
@@ -94,7 +96,7 @@ public class CheckMonitoredTripTest extends OtpMiddlewareTestEnvironment {
         LOG.info("Created trip {}", monitoredTrip.id);
 
         // Setup an OTP mock response in order to trigger some of the monitor checks.
-        OtpResponse mockResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.getResponse();
+        OtpResponse mockResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse();
         Itinerary mockMondayJune15Itinerary = mockResponse.plan.itineraries.get(0);
 
         // parse original itinerary date/time and then update mock itinerary to occur on Monday June 15
@@ -397,7 +399,7 @@ public class CheckMonitoredTripTest extends OtpMiddlewareTestEnvironment {
             .withMinute(35);
 
         // create an OTP mock to return
-        OtpResponse mockWeekdayResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.getResponse();
+        OtpResponse mockWeekdayResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse();
         Itinerary mockMondayJune15Itinerary = mockWeekdayResponse.plan.itineraries.get(0);
         // parse original itinerary date/time and then update mock itinerary to occur on Monday June 15
         OtpTestUtils.updateBaseItineraryTime(
@@ -417,6 +419,8 @@ public class CheckMonitoredTripTest extends OtpMiddlewareTestEnvironment {
 
         // execute makeOTPRequestAndUpdateMatchingItinerary method and verify the expected outcome
         assertEquals(true, mockCheckMonitoredTrip.makeOTPRequestAndUpdateMatchingItinerary());
+        // changes are written at the end of a check
+        assertTrue(mockCheckMonitoredTrip.saveMonitoredTrip());
 
         // fetch updated trip from persistence
         MonitoredTrip updatedTrip = Persistence.monitoredTrips.getById(mockTrip.id);
@@ -436,6 +440,53 @@ public class CheckMonitoredTripTest extends OtpMiddlewareTestEnvironment {
         );
     }
 
+    /**
+     * Tests that only the fields changed by a check are saved, so that changes made to other fields of the trip while
+     * it is being checked (e.g., by the user) are kept, and that nothing is saved if the trip was deleted.
+     */
+    @Test
+    public void canSaveOnlyFieldsChangedByCheck() throws Exception {
+        CheckMonitoredTrip mockCheckMonitoredTrip = createCheckMonitoredTrip();
+        MonitoredTrip mockTrip = mockCheckMonitoredTrip.trip;
+        mockTrip.itineraryExistence.monday = new ItineraryExistence.ItineraryExistenceResult();
+        Persistence.monitoredTrips.create(mockTrip);
+        mockCheckMonitoredTrip.targetZonedDateTime = noonMonday8June2020
+            .withDayOfMonth(15)
+            .withHour(8)
+            .withMinute(35);
+
+        OtpResponse mockWeekdayResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse();
+        Itinerary mockMondayJune15Itinerary = mockWeekdayResponse.plan.itineraries.get(0);
+        OtpTestUtils.updateBaseItineraryTime(
+            mockMondayJune15Itinerary,
+            DateTimeUtils.makeOtpZonedDateTime(mockMondayJune15Itinerary.startTime)
+                .withDayOfMonth(15)
+        );
+        OtpTestUtils.setupOtpMocks(List.of(mockWeekdayResponse));
+        DateTimeUtils.useFixedClockAt(
+            noonMonday8June2020
+                .withDayOfMonth(15)
+                .withHour(8)
+                .withMinute(45)
+        );
+
+        assertTrue(mockCheckMonitoredTrip.makeOTPRequestAndUpdateMatchingItinerary());
+        // Rename the trip while it is being checked.
+        Persistence.monitoredTrips.updateField(mockTrip.id, "tripName", "Renamed trip");
+        assertTrue(mockCheckMonitoredTrip.saveMonitoredTrip());
+
+        MonitoredTrip updatedTrip = Persistence.monitoredTrips.getById(mockTrip.id);
+        assertEquals("Renamed trip", updatedTrip.tripName);
+        assertEquals(TripStatus.TRIP_ACTIVE, updatedTrip.journeyState.tripStatus);
+        assertNotNull(updatedTrip.journeyState.matchingItinerary);
+
+        // Changes to a deleted trip are not saved (and the trip is not recreated).
+        PersistenceTestUtils.deleteMonitoredTrip(mockTrip);
+        assertTrue(mockCheckMonitoredTrip.makeOTPRequestAndUpdateMatchingItinerary());
+        assertFalse(mockCheckMonitoredTrip.saveMonitoredTrip());
+        assertNull(Persistence.monitoredTrips.getById(mockTrip.id));
+    }
+
     /**
      * Tests whether an OTP request can be made and if the trip is properly updated after not being able to find a
      * matching itinerary.
@@ -461,7 +512,7 @@ public class CheckMonitoredTripTest extends OtpMiddlewareTestEnvironment {
             .withMinute(35);
 
         // create an OTP mock to return
-        OtpResponse mockWeekdayResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.getResponse();
+        OtpResponse mockWeekdayResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse();
         Itinerary mockMondayJune15Itinerary = mockWeekdayResponse.plan.itineraries.get(0);
         // parse original itinerary date/time and then update mock itinerary to occur on Monday June 15, but at a time
         // that does not match the previous itinerary
@@ -483,6 +534,8 @@ public class CheckMonitoredTripTest extends OtpMiddlewareTestEnvironment {
 
         // execute makeOTPRequestAndUpdateMatchingItinerary method and verify the expected outcome
         assertEquals(false, mockCheckMonitoredTrip.makeOTPRequestAndUpdateMatchingItinerary());
+        // changes are written at the end of a check
+        assertTrue(mockCheckMonitoredTrip.saveMonitoredTrip());
 
         // fetch updated trip from persistence
         MonitoredTrip updatedTrip = Persistence.monitoredTrips.getById(mockTrip.id);
@@ -541,7 +594,7 @@ public class CheckMonitoredTripTest extends OtpMiddlewareTestEnvironment {
             .withMinute(35);
 
         // create an OTP mock to return
-        OtpResponse mockWeekdayResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.getResponse();
+        OtpResponse mockWeekdayResponse = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse();
         Itinerary mockMondayJune15Itinerary = mockWeekdayResponse.plan.itineraries.get(0);
         // parse original itinerary date/time and then update mock itinerary to occur on Monday June 15, but at a time
         // that does not match the previous itinerary
@@ -563,6 +616,8 @@ public class CheckMonitoredTripTest extends OtpMiddlewareTestEnvironment {
 
         // execute makeOTPRequestAndUpdateMatchingItinerary method and verify the expected outcome
         assertEquals(false, mockCheckMonitoredTrip.makeOTPRequestAndUpdateMatchingItinerary());
+        // changes are written at the end of a check
+        assertTrue(mockCheckMonitoredTrip.saveMonitoredTrip());
 
         // fetch updated trip from persistence
         MonitoredTrip updatedTrip = Persistence.monitoredTrips.getById(mockTrip.id);
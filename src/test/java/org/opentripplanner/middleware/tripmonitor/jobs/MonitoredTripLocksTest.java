@@ -0,0 +1,69 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.persistence.Persistence;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the database-backed lease locks placed on monitored trips.
+ */
+public class MonitoredTripLocksTest extends OtpMiddlewareTestEnvironment {
+    private final String tripId = UUID.randomUUID().toString();
+
+    @AfterEach
+    public void tearDown() {
+        Persistence.monitoredTripLocks.removeById(tripId);
+    }
+
+    @Test
+    public void canLockAndUnlockTrip() {
+        String leaseToken = MonitoredTripLocks.lock(tripId);
+        assertNotNull(leaseToken);
+        assertTrue(MonitoredTripLocks.isLocked(tripId));
+        assertNull(MonitoredTripLocks.lock(tripId), "A locked trip should not be lockable again.");
+
+        // Releasing with a stale token should not release the lock.
+        MonitoredTripLocks.unlock(tripId, UUID.randomUUID().toString());
+        assertTrue(MonitoredTripLocks.isLocked(tripId));
+
+        MonitoredTripLocks.unlock(tripId, leaseToken);
+        assertFalse(MonitoredTripLocks.isLocked(tripId));
+        assertNotNull(MonitoredTripLocks.lock(tripId));
+    }
+
+    @Test
+    public void canRenewLeaseOnlyWhileHeld() {
+        String leaseToken = MonitoredTripLocks.lock(tripId);
+        assertTrue(MonitoredTripLocks.renew(tripId, leaseToken));
+        assertFalse(MonitoredTripLocks.renew(tripId, UUID.randomUUID().toString()));
+
+        MonitoredTripLocks.unlock(tripId, leaseToken);
+        assertFalse(MonitoredTripLocks.renew(tripId, leaseToken), "A released lease should not be renewed.");
+        assertFalse(MonitoredTripLocks.isLocked(tripId));
+    }
+
+    @Test
+    public void updateWaitsForLockRelease() throws Exception {
+        String leaseToken = MonitoredTripLocks.lock(tripId);
+        MonitoredTrip trip = new MonitoredTrip();
+        trip.id = tripId;
+        CompletableFuture<String> update = CompletableFuture.supplyAsync(
+            () -> MonitoredTripLocks.lockTripForUpdating(trip, null)
+        );
+        Thread.sleep(200);
+        assertFalse(update.isDone(), "Update should wait while the trip is locked.");
+        MonitoredTripLocks.unlock(tripId, leaseToken);
+        assertNotNull(update.get(1, TimeUnit.SECONDS), "Update should obtain the lock once released.");
+    }
+}
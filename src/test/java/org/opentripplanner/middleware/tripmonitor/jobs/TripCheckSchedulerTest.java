@@ -0,0 +1,89 @@
+package org.opentripplanner.middleware.tripmonitor.jobs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.utils.DateTimeUtils;
+
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.opentripplanner.middleware.tripmonitor.jobs.MonitorAllTripsJob.ONE_MINUTE_IN_MILLIS;
+
+class TripCheckSchedulerTest {
+    private static final ZonedDateTime NOW = ZonedDateTime.of(2023, 2, 13, 8, 0, 0, 0, DateTimeUtils.getOtpZoneId());
+    private static final long NOW_MILLIS = NOW.toInstant().toEpochMilli();
+
+    @BeforeEach
+    void setUp() {
+        DateTimeUtils.useFixedClockAt(NOW);
+    }
+
+    @AfterEach
+    void tearDown() {
+        DateTimeUtils.useSystemDefaultClockAndTimezone();
+    }
+
+    @ParameterizedTest
+    @MethodSource("createNextCheckDueCases")
+    void canComputeNextCheckDueTime(long lastCheckedMinutesAgo, long minutesUntilTrip, long expectedDueMillis) {
+        MonitoredTrip trip = new MonitoredTrip();
+        trip.leadTimeInMinutes = 120;
+        trip.itinerary = new Itinerary();
+        trip.itinerary.startTime = new Date(NOW_MILLIS + minutesUntilTrip * ONE_MINUTE_IN_MILLIS);
+        trip.journeyState.lastCheckedEpochMillis = lastCheckedMinutesAgo < 0
+            ? 0
+            : NOW_MILLIS - lastCheckedMinutesAgo * ONE_MINUTE_IN_MILLIS;
+        assertEquals(expectedDueMillis, TripCheckScheduler.computeNextCheckDueMillis(trip));
+    }
+
+    private static Stream<Arguments> createNextCheckDueCases() {
+        return Stream.of(
+            // Never checked: due immediately.
+            Arguments.of(-1L, 90L, 0L),
+            // Trip already started: due immediately so that the journey state can advance.
+            Arguments.of(5L, -10L, 0L),
+            // Outside of lead time: due when the lead time begins.
+            Arguments.of(5L, 300L, NOW_MILLIS + 180 * ONE_MINUTE_IN_MILLIS),
+            // More than an hour out: hourly checks.
+            Arguments.of(20L, 90L, NOW_MILLIS + 40 * ONE_MINUTE_IN_MILLIS),
+            // Between 30 and 60 minutes out: every 15 minutes, but no later than 30 minutes before the trip.
+            Arguments.of(5L, 45L, NOW_MILLIS + 10 * ONE_MINUTE_IN_MILLIS),
+            Arguments.of(5L, 35L, NOW_MILLIS + 5 * ONE_MINUTE_IN_MILLIS),
+            // Within 30 minutes: every minute, so due immediately.
+            Arguments.of(1L, 20L, 0L)
+        );
+    }
+
+    /**
+     * Confirm that a trip within 30 minutes of its start, whose check completed some time after the start of a job run,
+     * is selected by the next run a minute later.
+     */
+    @Test
+    void canSelectTripCheckedDuringPreviousRun() {
+        MonitoredTrip trip = new MonitoredTrip();
+        trip.leadTimeInMinutes = 120;
+        trip.itinerary = new Itinerary();
+        trip.itinerary.startTime = new Date(NOW_MILLIS + 20 * ONE_MINUTE_IN_MILLIS);
+        // The check of a run that started at NOW completes 30 seconds later.
+        long checkedEpochMillis = NOW_MILLIS + 30000;
+        DateTimeUtils.useFixedClockAt(NOW.plusSeconds(30));
+        trip.journeyState.lastCheckedEpochMillis = checkedEpochMillis;
+
+        long nextCheckDueMillis = TripCheckScheduler.computeNextCheckDueMillis(trip);
+
+        long nextRunStartMillis = NOW_MILLIS + ONE_MINUTE_IN_MILLIS;
+        assertTrue(
+            nextCheckDueMillis <= nextRunStartMillis,
+            "A trip within 30 minutes of its start should be due by the next run."
+        );
+    }
+}
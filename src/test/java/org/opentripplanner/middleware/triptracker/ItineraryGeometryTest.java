@@ -0,0 +1,229 @@
+package org.opentripplanner.middleware.triptracker;
+
+import org.junit.jupiter.api.Test;
+import org.opentripplanner.middleware.models.MonitoredTrip;
+import org.opentripplanner.middleware.otp.response.EncodedPolyline;
+import org.opentripplanner.middleware.otp.response.Itinerary;
+import org.opentripplanner.middleware.otp.response.Leg;
+import org.opentripplanner.middleware.otp.response.Place;
+import org.opentripplanner.middleware.testutils.OtpMiddlewareTestEnvironment;
+import org.opentripplanner.middleware.testutils.OtpTestUtils;
+import org.opentripplanner.middleware.utils.DateTimeUtils;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests finding the nearest point of an itinerary to tracked locations with {@link ItineraryGeometry}, and the trip
+ * status derived from it.
+ */
+public class ItineraryGeometryTest extends OtpMiddlewareTestEnvironment {
+    private static final double METERS_PER_DEGREE_LAT = Math.PI * 6_371_000 / 180;
+    private static final long START_TIME = 1_600_000_000_000L;
+
+    @Test
+    public void canDecodePolyline() {
+        // Example from the Google polyline algorithm documentation.
+        ItineraryGeometry.PointList points = new ItineraryGeometry.PointList();
+        ItineraryGeometry.decodePolyline("_p~iF~ps|U_ulLnnqC_mqNvxq`@", points);
+        assertEquals(3, points.size);
+        assertEquals(38.5, points.lats[0], 1e-9);
+        assertEquals(-120.2, points.lons[0], 1e-9);
+        assertEquals(40.7, points.lats[1], 1e-9);
+        assertEquals(-120.95, points.lons[1], 1e-9);
+        assertEquals(43.252, points.lats[2], 1e-9);
+        assertEquals(-126.453, points.lons[2], 1e-9);
+    }
+
+    @Test
+    public void canRejectMalformedPolyline() {
+        // Truncated after a latitude, in the middle of a value, and with a character outside of the encoding.
+        for (String polyline : List.of("_p~iF~ps|U_ulL", "_p~iF~ps|U_ulLnn", "_p~iF~ps|U _ulLnnqC")) {
+            assertThrows(
+                IllegalArgumentException.class,
+                () -> ItineraryGeometry.decodePolyline(polyline, new ItineraryGeometry.PointList()),
+                polyline
+            );
+        }
+
+        // A leg with a malformed geometry follows a straight line from its origin to its destination.
+        Itinerary itinerary = makeItinerary(new double[] {33.75, 33.76, 33.77}, new double[] {-84.39, -84.39, -84.39});
+        Leg leg = itinerary.legs.get(0);
+        leg.legGeometry.points = leg.legGeometry.points.substring(0, leg.legGeometry.points.length() - 1);
+        leg.from = makePlace(33.75, -84.39);
+        leg.to = makePlace(33.77, -84.39);
+        ItineraryGeometry geometry = ItineraryGeometry.fromItinerary(itinerary);
+        assertEquals(2, geometry.size());
+        assertNotNull(geometry.snap(33.76, -84.39, 10));
+    }
+
+    @Test
+    public void canMoveItineraryToJourneyDate() {
+        long oneDay = 24 * 60 * 60 * 1000;
+        long halfway = START_TIME + 30 * 60 * 1000;
+        double[] lats = {33.75, 33.76, 33.77};
+        double[] lons = {-84.39, -84.39, -84.39};
+        MonitoredTrip trip = new MonitoredTrip();
+        trip.itinerary = makeItinerary(lats, lons);
+        // A matching itinerary for another day than the journey is not used.
+        trip.journeyState.matchingItinerary = makeItinerary(lats, lons);
+        trip.journeyState.matchingItinerary.offsetTimes(60 * 60 * 1000);
+        trip.journeyState.targetDate = DateTimeUtils.makeOtpZonedDateTime(new Date(START_TIME))
+            .format(DateTimeUtils.DEFAULT_DATE_FORMATTER);
+
+        // The journey starts three days after the itinerary was planned, a few minutes before its departure.
+        Date journeyStartTime = new Date(START_TIME + 3 * oneDay - 60 * 1000);
+        Itinerary itinerary = ManageTripTracking.getItineraryForJourney(trip, journeyStartTime);
+        assertSame(trip.itinerary, itinerary);
+        assertEquals(START_TIME + 3 * oneDay, itinerary.startTime.getTime());
+        assertEquals(START_TIME + 3 * oneDay, itinerary.legs.get(0).startTime.getTime());
+        ItineraryGeometry geometry = ItineraryGeometry.fromItinerary(itinerary);
+        assertEquals(
+            TripStatus.ON_TRACK,
+            ManageTripTracking.getTripStatus(geometry, makeLocation(33.76, -84.39, halfway + 3 * oneDay))
+        );
+
+        // The matching itinerary for the day of the journey is used as is.
+        MonitoredTrip matchedTrip = new MonitoredTrip();
+        matchedTrip.itinerary = makeItinerary(lats, lons);
+        matchedTrip.journeyState.matchingItinerary = makeItinerary(lats, lons);
+        matchedTrip.journeyState.targetDate = trip.journeyState.targetDate;
+        assertSame(
+            matchedTrip.journeyState.matchingItinerary,
+            ManageTripTracking.getItineraryForJourney(matchedTrip, new Date(START_TIME))
+        );
+        assertEquals(START_TIME, matchedTrip.journeyState.matchingItinerary.startTime.getTime());
+    }
+
+    @Test
+    public void canFindNearestPointLikeLinearScan() {
+        Random random = new Random(42);
+        int pointCount = 2000;
+        double[] lats = new double[pointCount];
+        double[] lons = new double[pointCount];
+        lats[0] = 33.75;
+        lons[0] = -84.39;
+        for (int i = 1; i < pointCount; i++) {
+            // Wander around with steps of up to ~50 meters.
+            lats[i] = lats[i - 1] + (random.nextDouble() - 0.4) * 0.0005;
+            lons[i] = lons[i - 1] + (random.nextDouble() - 0.4) * 0.0005;
+        }
+        ItineraryGeometry geometry = ItineraryGeometry.fromItinerary(makeItinerary(lats, lons));
+
+        double metersPerDegreeLon = METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(lats[0]));
+        for (int q = 0; q < 500; q++) {
+            int near = random.nextInt(pointCount);
+            double lat = lats[near] + (random.nextDouble() - 0.5) * 0.002;
+            double lon = lons[near] + (random.nextDouble() - 0.5) * 0.002;
+            double expected = linearScanDistance(lats, lons, lat, lon, metersPerDegreeLon);
+            ItineraryGeometry.SnappedLocation snappedLocation = geometry.snap(lat, lon, 150);
+            if (expected > 150) {
+                assertNull(snappedLocation);
+            } else {
+                assertNotNull(snappedLocation);
+                assertEquals(expected, snappedLocation.distanceMeters, 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void canDetermineTripStatus() {
+        double[] lats = {33.75, 33.76, 33.77};
+        double[] lons = {-84.39, -84.39, -84.39};
+        ItineraryGeometry geometry = ItineraryGeometry.fromItinerary(makeItinerary(lats, lons));
+        long halfway = START_TIME + 30 * 60 * 1000;
+
+        assertEquals(
+            TripStatus.ON_TRACK,
+            ManageTripTracking.getTripStatus(geometry, makeLocation(33.76, -84.39, halfway))
+        );
+        // About 1 km west of the path.
+        assertEquals(
+            TripStatus.DEVIATED,
+            ManageTripTracking.getTripStatus(geometry, makeLocation(33.76, -84.40, halfway))
+        );
+        // At the halfway point, but half an hour late.
+        assertEquals(
+            TripStatus.BEHIND,
+            ManageTripTracking.getTripStatus(geometry, makeLocation(33.76, -84.39, halfway + 30 * 60 * 1000))
+        );
+        // Without a geometry, the traveler is assumed to be on track.
+        assertEquals(
+            TripStatus.ON_TRACK,
+            ManageTripTracking.getTripStatus(
+                ItineraryGeometry.fromItinerary(new Itinerary()),
+                makeLocation(0.0, 0.0, halfway)
+            )
+        );
+    }
+
+    /**
+     * Create a one-hour, single-leg itinerary following the given points.
+     */
+    private static Itinerary makeItinerary(double[] lats, double[] lons) {
+        Leg leg = new Leg();
+        leg.startTime = new Date(START_TIME);
+        leg.endTime = new Date(START_TIME + 60 * 60 * 1000);
+        leg.legGeometry = new EncodedPolyline();
+        leg.legGeometry.points = OtpTestUtils.encodePolyline(lats, lons);
+        leg.legGeometry.length = lats.length;
+        Itinerary itinerary = new Itinerary();
+        itinerary.startTime = leg.startTime;
+        itinerary.endTime = leg.endTime;
+        itinerary.legs = List.of(leg);
+        return itinerary;
+    }
+
+    private static Place makePlace(double lat, double lon) {
+        Place place = new Place();
+        place.lat = lat;
+        place.lon = lon;
+        return place;
+    }
+
+    private static TrackingLocation makeLocation(double lat, double lon, long time) {
+        return new TrackingLocation(0, lat, lon, 0, new Date(time));
+    }
+
+    /**
+     * Compute the distance between a location and the path by checking every segment, projecting coordinates the same
+     * way as {@link ItineraryGeometry}. The encoded points are rounded to five decimal places.
+     */
+    private static double linearScanDistance(
+        double[] lats,
+        double[] lons,
+        double lat,
+        double lon,
+        double metersPerDegreeLon
+    ) {
+        double originLat = round(lats[0]);
+        double originLon = round(lons[0]);
+        double x = (lon - originLon) * metersPerDegreeLon;
+        double y = (lat - originLat) * METERS_PER_DEGREE_LAT;
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < lats.length - 1; i++) {
+            double x0 = (round(lons[i]) - originLon) * metersPerDegreeLon;
+            double y0 = (round(lats[i]) - originLat) * METERS_PER_DEGREE_LAT;
+            double x1 = (round(lons[i + 1]) - originLon) * metersPerDegreeLon;
+            double y1 = (round(lats[i + 1]) - originLat) * METERS_PER_DEGREE_LAT;
+            double dx = x1 - x0;
+            double dy = y1 - y0;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : ((x - x0) * dx + (y - y0) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+            best = Math.min(best, Math.hypot(x - (x0 + dx * t), y - (y0 + dy * t)));
+        }
+        return best;
+    }
+
+    private static double round(double coordinate) {
+        return Math.round(coordinate * 1e5) / 1e5;
+    }
+}
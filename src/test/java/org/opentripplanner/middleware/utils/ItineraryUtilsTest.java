@@ -92,7 +92,7 @@ public class ItineraryUtilsTest extends OtpMiddlewareTestEnvironment {
 
     /** Contains the verified itinerary set for a trip upon persisting. */
     public static Itinerary getDefaultItinerary() throws Exception {
-        return OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.getResponse().plan.itineraries.get(0);
+        return OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse().plan.itineraries.get(0);
     }
 
     @BeforeAll
@@ -117,7 +117,7 @@ public class ItineraryUtilsTest extends OtpMiddlewareTestEnvironment {
         // If needed, insert a mock invalid response for one of the monitored days.
         final int INVALID_DAY_INDEX = 3;
         if (insertInvalidDay) {
-            mockOtpResponses.set(INVALID_DAY_INDEX, OtpTestUtils.OTP_DISPATCHER_PLAN_ERROR_RESPONSE.getResponse());
+            mockOtpResponses.set(INVALID_DAY_INDEX, OtpTestUtils.OTP_DISPATCHER_PLAN_ERROR_RESPONSE.clone().getResponse());
         }
 
         OtpTestUtils.setupOtpMocks(mockOtpResponses);
@@ -158,6 +158,28 @@ public class ItineraryUtilsTest extends OtpMiddlewareTestEnvironment {
         Assertions.assertNull(existence.friday);
     }
 
+    /**
+     * Test that, when checking a new trip (replacing its itinerary), every date is checked so that the message lists
+     * all invalid days of the week.
+     */
+    @Test
+    public void canListAllInvalidDaysWhenReplacingItinerary() throws Exception {
+        MonitoredTrip trip = makeTestTrip();
+        List<OtpResponse> mockOtpResponses = getMockDatedOtpResponses(MONITORED_TRIP_DATES);
+        // Make the Saturday and Monday requests return no itinerary.
+        mockOtpResponses.set(1, OtpTestUtils.OTP_DISPATCHER_PLAN_ERROR_RESPONSE.clone().getResponse());
+        mockOtpResponses.set(3, OtpTestUtils.OTP_DISPATCHER_PLAN_ERROR_RESPONSE.clone().getResponse());
+        OtpTestUtils.setupOtpMocks(mockOtpResponses);
+        trip.itinerary = mockOtpResponses.get(0).plan.itineraries.get(0);
+
+        Assertions.assertFalse(trip.checkItineraryExistence(false, true));
+        ItineraryExistence existence = trip.itineraryExistence;
+        Assertions.assertFalse(existence.saturday.isValid());
+        Assertions.assertFalse(existence.monday.isValid());
+        Assertions.assertTrue(existence.message.contains("Saturday"), existence.message);
+        Assertions.assertTrue(existence.message.contains("Monday"), existence.message);
+    }
+
     private static Stream<Arguments> createCheckAllItinerariesExistTestCases() {
         return Stream.of(
             Arguments.of(false, "checkAllDays = false should produce allCheckedDaysAreValid = true."),
@@ -190,7 +212,7 @@ public class ItineraryUtilsTest extends OtpMiddlewareTestEnvironment {
 
             // Copy the template OTP response itinerary, and change the itinerary date to the monitored date,
             // in order to pass the same-day itinerary requirement.
-            OtpResponse resp = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.getResponse();
+            OtpResponse resp = OtpTestUtils.OTP_DISPATCHER_PLAN_RESPONSE.clone().getResponse();
             for (Itinerary itin : resp.plan.itineraries) {
                 itin.startTime = getNewItineraryDate(itin.startTime, monitoredDate);
                 itin.endTime = getNewItineraryDate(itin.endTime, monitoredDate);
@@ -281,6 +303,16 @@ public class ItineraryUtilsTest extends OtpMiddlewareTestEnvironment {
             ItineraryUtils.itinerariesMatch(testCase.previousItinerary, testCase.newItinerary),
             testCase.name
         );
+        // Matching with a fingerprint of the previous itinerary should give the same result.
+        Assertions.assertEquals(
+            testCase.shouldMatch,
+            ItineraryUtils.itinerariesMatch(
+                new ItineraryFingerprint(testCase.previousItinerary),
+                testCase.previousItinerary,
+                testCase.newItinerary
+            ),
+            testCase.name + " (with fingerprint)"
+        );
     }
 
     private static List<ItineraryMatchTestCase> createItineraryComparisonTestCases() throws Exception {
@@ -337,6 +369,40 @@ public class ItineraryUtilsTest extends OtpMiddlewareTestEnvironment {
             )
         );
 
+        // should be equal with a stop moved by less than 5 meters
+        Itinerary itineraryWithCloseStop = getDefaultItinerary().clone();
+        itineraryWithCloseStop.legs.get(1).from.lat += 0.00003;
+        testCases.add(
+            new ItineraryMatchTestCase(
+                "should be equal with a stop moved by less than 5 meters",
+                itineraryWithCloseStop,
+                true
+            )
+        );
+
+        // should not be equal with a stop moved by more than 5 meters
+        Itinerary itineraryWithFarStop = getDefaultItinerary().clone();
+        itineraryWithFarStop.legs.get(1).to.lon += 0.0002;
+        testCases.add(
+            new ItineraryMatchTestCase(
+                "should not be equal with a stop moved by more than 5 meters",
+                itineraryWithFarStop,
+                false
+            )
+        );
+
+        // should not be equal with a transit leg scheduled at another time of day
+        Itinerary itineraryWithLaterTransit = getDefaultItinerary().clone();
+        Leg laterTransitLeg = itineraryWithLaterTransit.legs.get(1);
+        laterTransitLeg.startTime = new Date(laterTransitLeg.startTime.getTime() + 60 * 1000);
+        testCases.add(
+            new ItineraryMatchTestCase(
+                "should not be equal with a transit leg scheduled at another time of day",
+                itineraryWithLaterTransit,
+                false
+            )
+        );
+
         return testCases;
     }
 
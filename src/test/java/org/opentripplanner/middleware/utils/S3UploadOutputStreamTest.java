@@ -0,0 +1,71 @@
+package org.opentripplanner.middleware.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.opentripplanner.middleware.testutils.LocalS3;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.opentripplanner.middleware.utils.S3UploadOutputStream.PART_SIZE_BYTES;
+
+/**
+ * Tests uploading objects in parts with {@link S3UploadOutputStream}, with a local stand-in for S3.
+ */
+class S3UploadOutputStreamTest {
+    private static final String BUCKET_NAME = "bucket-name";
+    private static final String KEY = "folder-name/object.zip";
+
+    @TempDir
+    Path s3Directory;
+    private LocalS3 localS3;
+
+    @BeforeEach
+    void setUp() {
+        localS3 = new LocalS3(s3Directory);
+    }
+
+    /**
+     * Objects smaller than a part, the size of a part and spanning several parts are uploaded whole.
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {0, 10, PART_SIZE_BYTES, 2 * PART_SIZE_BYTES + 10})
+    void canUploadObject(int size) throws IOException {
+        byte[] contents = new byte[size];
+        new Random(size).nextBytes(contents);
+        try (S3UploadOutputStream upload = new S3UploadOutputStream(localS3, BUCKET_NAME, KEY)) {
+            // Write in uneven chunks so that writes straddle parts.
+            int offset = 0;
+            while (offset < size) {
+                int length = Math.min(size - offset, 1000003);
+                upload.write(contents, offset, length);
+                offset += length;
+            }
+        }
+        assertArrayEquals(contents, Files.readAllBytes(localS3.getObjectFile(BUCKET_NAME, KEY).toPath()));
+        assertEquals(0, localS3.getUnfinishedUploadCount());
+    }
+
+    /**
+     * An aborted upload leaves neither an object nor uploaded parts behind.
+     */
+    @Test
+    void canAbortUpload() throws IOException {
+        S3UploadOutputStream upload = new S3UploadOutputStream(localS3, BUCKET_NAME, KEY);
+        upload.write(new byte[PART_SIZE_BYTES + 10]);
+        assertEquals(1, localS3.getUnfinishedUploadCount());
+        upload.abort();
+        // Closing after aborting does not create the object.
+        upload.close();
+        assertFalse(localS3.doesObjectExist(BUCKET_NAME, KEY));
+        assertEquals(0, localS3.getUnfinishedUploadCount());
+    }
+}